@@ -0,0 +1,1425 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.Artifact;
+import jp.co.ntt.oss.jboss.byteman.extension.util.BatchingEventShipper;
+import jp.co.ntt.oss.jboss.byteman.extension.util.BytemanAgentClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LatencyRecorder;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LogSubscription;
+import jp.co.ntt.oss.jboss.byteman.extension.util.MetricsSampler;
+import jp.co.ntt.oss.jboss.byteman.extension.util.RemoteShell;
+import jp.co.ntt.oss.jboss.byteman.extension.util.TimingSink;
+import jp.co.ntt.oss.jboss.byteman.framework.controller.AbstractNodeController;
+import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
+
+/**
+ * The base class of the JBoss controllers.
+ *
+ * The rules of the running server can be replaced through the listener of the
+ * Byteman agent by {@link #applyRules}, without restarting the server.
+ *
+ * Every command sent to the node is timed and recorded by the controller
+ * operation and the step, such as start:connect and start:command, so that
+ * the time spent on SSH can be told from the time spent on the server. See
+ * {@link #writeCommandTimings}.
+ *
+ * The following properties are settings for the remote commands.
+ * <table border="1">
+ * <tr>
+ * <th>property</th>
+ * <th>required</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.port</td>
+ * <td>false</td>
+ * <td>22</td>
+ * <td>Specify SSH port of the target server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.pooled</td>
+ * <td>false</td>
+ * <td>false</td>
+ * <td>If true then all commands are executed over the SSH session which is
+ * kept open for the target server. Otherwise the commands whose output is
+ * read, such as the checks and the queries, connect a new SSH session for
+ * each command, and the others are executed by the framework.</td>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.host.key.checking</td>
+ * <td>false</td>
+ * <td>yes</td>
+ * <td>Specify yes to reject the target server whose host key is not in the
+ * known hosts file, or no to accept any host key. This applies to the
+ * sessions of this controller, not to the commands executed by the
+ * framework.</td>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.known.hosts</td>
+ * <td>false</td>
+ * <td>~/.ssh/known_hosts</td>
+ * <td>Specify the local known hosts file which the host key of the target
+ * server is checked against.</td>
+ * </tr>
+ * <tr>
+ * <td>node.java.home</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the JDK directory on the target server, whose jstat is used by
+ * {@link #startSampler} and whose jcmd is used by {@link #startRecording}. If
+ * not set then they are looked up in PATH.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jfr.dir</td>
+ * <td>false</td>
+ * <td>/tmp</td>
+ * <td>Specify the directory on the target server which the flight recordings
+ * are dumped to before they are transferred.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jfr.jvm.options</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the JVM options which enable the flight recorder at the launch,
+ * such as -XX:+UnlockCommercialFeatures -XX:+FlightRecorder for Oracle JDK 7
+ * and 8. See {@link #setStartupRecording}.</td>
+ * </tr>
+ * <tr>
+ * <td>node.byteman.extension.jar</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the jar of this extension on the target server. If set then it
+ * is added to the system class path by the -javaagent option, so that the
+ * helpers of the rules can use its classes, such as
+ * {@link BatchingEventShipper}.</td>
+ * </tr>
+ * <tr>
+ * <td>node.byteman.cache.dir</td>
+ * <td>false</td>
+ * <td>/tmp/byteman-cache</td>
+ * <td>Specify the directory on the target server which the jars are
+ * distributed to. See {@link #distributeJars}.</td>
+ * </tr>
+ * <tr>
+ * <td>controller.byteman.jar<br>
+ * controller.bytemanframework.jar<br>
+ * controller.byteman.extension.jar</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the local jars which are distributed to the target server
+ * before the start, instead of the jars of node.byteman.jar,
+ * node.bytemanframework.jar and node.byteman.extension.jar which are
+ * installed on the target server.</td>
+ * </tr>
+ * <tr>
+ * <td>controller.result.dir</td>
+ * <td>false</td>
+ * <td>.</td>
+ * <td>Specify the local directory which the rotated logs, the benchmark
+ * results, the metrics and the flight recordings are written to. The files of a node are put in the sub directory
+ * named after the node identifier.</td>
+ * </tr>
+ * </table>
+ */
+public abstract class AbstractJBossController extends AbstractNodeController {
+
+	/**
+	 * The interval of checking the server process on the node, in
+	 * milliseconds.
+	 */
+	private static final long WAIT_INTERVAL = 100;
+
+	/**
+	 * The time to wait for the server process to disappear after SIGKILL, in
+	 * milliseconds.
+	 */
+	private static final long KILL_TIMEOUT = 10000;
+
+	/**
+	 * The node properties of the jars which are added to the -javaagent
+	 * option.
+	 */
+	protected static final String[] AGENT_JARS = { "node.byteman.jar", "node.bytemanframework.jar",
+			"node.byteman.extension.jar" };
+
+	private static final Pattern RECORDING_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+	private static final Pattern AGENT_ADDRESS_OPTION = Pattern.compile("[=,]address:([^,]+)");
+
+	/**
+	 * The pattern of the listener port in the -javaagent option.
+	 */
+	protected static final Pattern AGENT_PORT_OPTION = Pattern.compile(",port:(\\d+)");
+
+	protected RemoteShell remoteShell;
+
+	protected Boolean sessionPooled;
+
+	protected long stopGracePeriod = -1;
+
+	protected boolean rotateLogs;
+
+	protected boolean agentEnabled = true;
+
+	protected String startupRecording;
+
+	protected String recordingSettings = "profile";
+
+	protected final LatencyRecorder commandTimings = new LatencyRecorder();
+
+	protected TimingSink timingSink;
+
+	private Map<String, String> distributedJars;
+
+	private final ThreadLocal<String> operation = new ThreadLocal<String>();
+
+	private ExecutorService archiver;
+
+	private final List<Future<File>> archives = new ArrayList<Future<File>>();
+
+	/**
+	 * Constructs a new instance with an identifier.
+	 *
+	 * @param identifier
+	 *            a target node identifier
+	 */
+	public AbstractJBossController(String identifier) {
+		super(identifier);
+	}
+
+	/**
+	 * Sets the flag which specifies whether the commands are executed over the
+	 * SSH session which is kept open for the node.<br>
+	 * The session is shared by all controllers of the same node, and
+	 * concurrent commands are multiplexed over it.
+	 *
+	 * @param sessionPooled
+	 *            If true then the pooled session is used. default is the value
+	 *            of node.ssh.pooled.
+	 */
+	public void setSessionPooled(boolean sessionPooled) {
+		this.sessionPooled = sessionPooled;
+	}
+
+	/**
+	 * Returns whether the commands are executed over the pooled session.
+	 *
+	 * @return true if the pooled session is used
+	 */
+	protected boolean isSessionPooled() {
+		if (sessionPooled == null) {
+			return Boolean.parseBoolean(getNodeConfig("node.ssh.pooled", "false"));
+		}
+		return sessionPooled;
+	}
+
+	/**
+	 * Sets the time to wait for the server to exit after {@code stop()} has
+	 * requested a graceful shutdown. If the server is still running after the
+	 * period, it is killed by SIGKILL.<br>
+	 * By default, {@code stop()} returns as soon as the shutdown has been
+	 * requested.
+	 *
+	 * @param gracePeriod
+	 *            the grace period. If negative then {@code stop()} does not
+	 *            wait.
+	 * @param unit
+	 *            the time unit of the grace period
+	 */
+	public void setStopGracePeriod(long gracePeriod, TimeUnit unit) {
+		this.stopGracePeriod = gracePeriod < 0 ? -1 : unit.toMillis(gracePeriod);
+	}
+
+	/**
+	 * Returns whether {@code stop()} waits for the server to exit.
+	 *
+	 * @return true if {@code stop()} waits
+	 */
+	protected boolean isStopBlocking() {
+		return stopGracePeriod >= 0;
+	}
+
+	/**
+	 * Sends SIGTERM to the server process and waits on the node for it to
+	 * exit. If the process does not exit in the grace period, it is killed by
+	 * SIGKILL.
+	 *
+	 * @param pid
+	 *            the shell expression which prints the process id
+	 * @param cleanup
+	 *            the command executed after the process has exited, or null
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected void terminate(String pid, String cleanup) throws Exception {
+		terminate(pid, cleanup, stopGracePeriod);
+	}
+
+	/**
+	 * Sends SIGTERM to the server process and waits on the node for it to
+	 * exit. If the process does not exit in the grace period, it is killed by
+	 * SIGKILL.
+	 *
+	 * @param pid
+	 *            the shell expression which prints the process id
+	 * @param cleanup
+	 *            the command executed after the process has exited, or null
+	 * @param gracePeriod
+	 *            the grace period in milliseconds
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected void terminate(String pid, String cleanup, long gracePeriod) throws Exception {
+		CommandResult result = executeWithResult(String.format(
+				"PID=%s; " +
+				"if [ -n \"$PID\" ] && kill -15 $PID 2>/dev/null; then " +
+				"%s; " +
+				"if kill -0 $PID 2>/dev/null; then kill -9 $PID; %s; echo STOP:killed; " +
+				"else echo STOP:exited; fi; " +
+				"else echo STOP:none; fi%s",
+				pid, getWaitLoop(gracePeriod), getWaitLoop(KILL_TIMEOUT),
+				cleanup == null ? "" : "; " + cleanup));
+		if (result.getOutput().contains("STOP:killed")) {
+			logger.debug("%s was killed after %d ms", identifier, gracePeriod);
+		}
+	}
+
+	/**
+	 * Waits on the node for the server process to exit.
+	 *
+	 * @param pid
+	 *            the shell expression which prints the process id
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the process has exited or is not running, false if the
+	 *         timeout elapsed
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected boolean awaitExit(String pid, long timeout, TimeUnit unit) throws Exception {
+		CommandResult result = executeWithResult(String.format(
+				"PID=%s; " +
+				"if [ -n \"$PID\" ]; then %s; fi; " +
+				"if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then echo RUNNING; else echo STOPPED; fi",
+				pid, getWaitLoop(unit.toMillis(timeout))));
+		return result.getOutput().contains("STOPPED");
+	}
+
+	private String getWaitLoop(long timeout) {
+		return String.format(
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt %d ]; do sleep 0.1; I=$(($I + 1)); done",
+				(timeout + WAIT_INTERVAL - 1) / WAIT_INTERVAL);
+	}
+
+	/**
+	 * Sets the flag which specifies whether the server is started with the
+	 * Byteman agent.<br>
+	 * This is intended for measuring the overhead of the agent. The rules can
+	 * not be used while the agent is disabled.
+	 *
+	 * @param agentEnabled
+	 *            If false then the -javaagent option is not added. default is
+	 *            true.
+	 */
+	public void setAgentEnabled(boolean agentEnabled) {
+		this.agentEnabled = agentEnabled;
+	}
+
+	/**
+	 * Returns the -javaagent option with the rule scripts of
+	 * node.byteman.scripts.
+	 *
+	 * @return the -javaagent option, or an empty string if the agent is
+	 *         disabled
+	 */
+	protected String getJavaAgentOption() {
+		if (!agentEnabled) {
+			return "";
+		}
+		String bytemanScripts = getNodeConfig("node.byteman.scripts");
+		String javaAgent = bytemanScripts != null ? getBytemanAgentProperties(bytemanScripts.split(","))
+				: getBytemanAgentProperties();
+		if (distributedJars != null) {
+			javaAgent = replaceJar(javaAgent, "-javaagent:", "node.byteman.jar");
+			javaAgent = replaceJar(javaAgent, "sys:", "node.bytemanframework.jar");
+		}
+		String extensionJar = getJarPath("node.byteman.extension.jar");
+		return extensionJar != null ? javaAgent + ",sys:" + extensionJar : javaAgent;
+	}
+
+	private String replaceJar(String javaAgent, String prefix, String key) {
+		String path = distributedJars.get(key);
+		return path == null ? javaAgent : javaAgent.replace(prefix + getNodeConfig(key), prefix + path);
+	}
+
+	/**
+	 * Returns the path of a jar on the node, which is the path in the cache
+	 * if the jar has been distributed.
+	 *
+	 * @param key
+	 *            the node property of the jar, such as node.byteman.jar
+	 * @return the path, or null if the jar is not set
+	 */
+	protected String getJarPath(String key) {
+		if (distributedJars != null && distributedJars.containsKey(key)) {
+			return distributedJars.get(key);
+		}
+		return getNodeConfig(key);
+	}
+
+	/**
+	 * Returns the local jars which are distributed to the node, which are set
+	 * by controller.byteman.jar, controller.bytemanframework.jar and
+	 * controller.byteman.extension.jar.
+	 *
+	 * @return the map of the node property and the local jar
+	 */
+	protected Map<String, File> getLocalJars() {
+		Map<String, File> jars = new LinkedHashMap<String, File>();
+		for (String key : AGENT_JARS) {
+			String path = getNodeConfig("controller." + key.substring("node.".length()));
+			if (path != null) {
+				jars.put(key, new File(path));
+			}
+		}
+		return jars;
+	}
+
+	/**
+	 * Returns the directory on the node which the jars are distributed to.
+	 *
+	 * @return the directory
+	 */
+	protected String getJarCacheDir() {
+		return getNodeConfig("node.byteman.cache.dir", "/tmp/byteman-cache");
+	}
+
+	/**
+	 * Makes sure that the local jars are in the cache directory of the node,
+	 * and makes the -javaagent option refer to them.<br>
+	 * Each jar is put in the sub directory named after its SHA-1 digest, so
+	 * the jars of different versions do not replace each other and a jar in
+	 * the cache is never stale. The cache is checked for all jars in one
+	 * command, and only the missing jars are sent. A sent jar is checked
+	 * against the digest on the node before it is moved into the cache.<br>
+	 * This is called by {@code start()} at the first start of this
+	 * controller. Call this again after a local jar has been replaced.
+	 *
+	 * @return the map of the node property and the path on the node of the
+	 *         distributed jars
+	 * @throws Exception
+	 *             if a jar could not be read or sent
+	 * @see ClusterController#distributeJars()
+	 */
+	public Map<String, String> distributeJars() throws Exception {
+		boolean begun = beginOperation("distributeJars");
+		try {
+			Map<String, String> paths = new LinkedHashMap<String, String>();
+			List<Artifact> artifacts = new ArrayList<Artifact>();
+			StringBuilder query = new StringBuilder();
+			for (Map.Entry<String, File> jar : getLocalJars().entrySet()) {
+				Artifact artifact = new Artifact(jar.getValue());
+				String path = String.format("%s/%s/%s", getJarCacheDir(), artifact.getChecksum(), artifact.getName());
+				query.append(String.format("[ -s '%s' ] && echo JAR:%d:cached; ", path, artifacts.size()));
+				paths.put(jar.getKey(), path);
+				artifacts.add(artifact);
+			}
+			if (!artifacts.isEmpty()) {
+				List<String> lines = executeWithResult(query.append("true").toString()).getOutputLines();
+				for (int i = 0; i < artifacts.size(); i++) {
+					if (!lines.contains(String.format("JAR:%d:cached", i))) {
+						sendJar(artifacts.get(i));
+					}
+				}
+			}
+			distributedJars = paths;
+			return paths;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Distributes the jars if they have not been distributed by this
+	 * controller. This is called by {@code start()}.
+	 *
+	 * @throws Exception
+	 *             if a jar could not be read or sent
+	 */
+	protected void prepareJars() throws Exception {
+		if (agentEnabled && distributedJars == null) {
+			distributeJars();
+		}
+	}
+
+	/**
+	 * Sends a jar to the cache directory of the node.
+	 *
+	 * @param artifact
+	 *            the jar
+	 * @throws Exception
+	 *             if the jar could not be sent or the digest does not match
+	 */
+	protected void sendJar(Artifact artifact) throws Exception {
+		String dir = getJarCacheDir() + "/" + artifact.getChecksum();
+		RemoteShell shell = getConnectedShell();
+		InputStream in = artifact.openCompressed();
+		CommandResult result;
+		long begin = System.nanoTime();
+		try {
+			result = shell.execute(String.format(
+					"mkdir -p '%1$s' && P='%1$s/.%2$s.'$$.part && gzip -dc > \"$P\" || exit 1; " +
+					"if [ \"`sha1sum < \"$P\" | cut -c1-40`\" = %3$s ]; then mv -f \"$P\" '%1$s/%2$s'; " +
+					"else rm -f \"$P\"; echo checksum mismatch >&2; exit 1; fi",
+					dir, artifact.getName(), artifact.getChecksum()), in);
+		} finally {
+			recordTiming("transfer", begin);
+			in.close();
+		}
+		if (!result.isSuccess()) {
+			throw new IOException(String.format("%s failed to receive %s: %s",
+					identifier, artifact.getName(), result.getError()));
+		}
+		logger.debug("%s has received %s", identifier, artifact.getName());
+	}
+
+	/**
+	 * Sets the flag which specifies whether the log directory is rotated
+	 * before starting the server.<br>
+	 * The log directory is renamed on the node and a new one is created, so
+	 * the start does not wait for the old logs to be removed. The renamed
+	 * directory is then compressed on the node and streamed to
+	 * controller.result.dir in the background as one archive, and removed
+	 * from the node after the transfer. This takes precedence over
+	 * {@code setCleanLogs}.
+	 *
+	 * @param rotateLogs
+	 *            If true then the log directory is rotated. default is false.
+	 */
+	public void setRotateLogs(boolean rotateLogs) {
+		this.rotateLogs = rotateLogs;
+	}
+
+	/**
+	 * Renames a log directory on the node to a new name with a timestamp,
+	 * creates an empty one, and starts to archive the renamed directory in
+	 * the background.
+	 *
+	 * @param dir
+	 *            the log directory on the node
+	 * @throws Exception
+	 *             if the directory could not be renamed
+	 */
+	protected void rotate(String dir) throws Exception {
+		final String rotated = dir + "." + getRotationSuffix();
+		execute(String.format("if [ -d %1$s ]; then mv %1$s %2$s; fi; mkdir -p %1$s", dir, rotated));
+		logger.debug("%s rotated %s to %s", identifier, dir, rotated);
+
+		synchronized (archives) {
+			if (archiver == null) {
+				archiver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "log-archiver-" + identifier);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			archives.add(archiver.submit(new Callable<File>() {
+				public File call() throws Exception {
+					boolean begun = beginOperation("archive");
+					try {
+						return archive(rotated);
+					} finally {
+						endOperation(begun);
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Returns the suffix of the rotated log directory.
+	 *
+	 * @return the suffix
+	 */
+	protected String getRotationSuffix() {
+		return new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+	}
+
+	/**
+	 * Compresses a directory on the node into a tar.gz stream, writes it to
+	 * controller.result.dir and removes the directory from the node.
+	 *
+	 * @param dir
+	 *            the directory on the node
+	 * @return the archive file, or null if the directory does not exist
+	 * @throws Exception
+	 *             if the archive could not be transferred
+	 */
+	protected File archive(String dir) throws Exception {
+		File parent = getResultDir();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException(String.format("failed to create %s", parent));
+		}
+		String name = dir.substring(dir.lastIndexOf('/') + 1);
+		File file = new File(parent, name + ".tar.gz");
+
+		CommandResult result;
+		RemoteShell shell = getConnectedShell();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		long begin = System.nanoTime();
+		try {
+			result = shell.execute(String.format(
+					"[ -d %1$s ] || exit 3; cd %1$s/.. && nice -n 10 tar czf - %2$s", dir, name), out);
+		} finally {
+			recordTiming("transfer", begin);
+			out.close();
+		}
+		if (result.getExitStatus() == 3) {
+			file.delete();
+			return null;
+		}
+		if (!result.isSuccess()) {
+			throw new IOException(String.format("failed to archive %s on %s: %s", dir, identifier,
+					result.getError()));
+		}
+		executeWithResult(String.format("rm -rf %s", dir));
+		logger.debug("%s archived %s to %s", identifier, dir, file);
+		return file;
+	}
+
+	/**
+	 * Returns the local directory which the logs and the results of the node
+	 * are written to.
+	 *
+	 * @return the result directory
+	 */
+	protected File getResultDir() {
+		return new File(getNodeConfig("controller.result.dir", "."), identifier);
+	}
+
+	/**
+	 * Waits until the rotated logs have been archived.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return the archive files, or null if the timeout elapsed
+	 * @throws Exception
+	 *             if the logs could not be archived
+	 */
+	public List<File> awaitArchives(long timeout, TimeUnit unit) throws Exception {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		List<Future<File>> pending;
+		synchronized (archives) {
+			pending = new ArrayList<Future<File>>(archives);
+		}
+		List<File> files = new ArrayList<File>();
+		for (Future<File> archive : pending) {
+			File file;
+			try {
+				file = archive.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				return null;
+			} catch (ExecutionException e) {
+				throw new Exception(String.format("%s failed to archive the logs", identifier), e.getCause());
+			} finally {
+				if (archive.isDone()) {
+					synchronized (archives) {
+						archives.remove(archive);
+					}
+				}
+			}
+			if (file != null) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Checks on the node that the server can be launched, before launching
+	 * it.<br>
+	 * All checks of {@link #getPreflightChecks} are done by one remote
+	 * command.
+	 *
+	 * @return the report of the checks
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	public PreflightReport preflight() throws Exception {
+		boolean begun = beginOperation("preflight");
+		try {
+			Map<String, String> checks = getPreflightChecks();
+			StringBuilder command = new StringBuilder();
+			int i = 0;
+			for (String condition : checks.values()) {
+				command.append(String.format("if %s; then echo CHECK:%d:ok; else echo CHECK:%d:ng; fi; ", condition, i, i));
+				i++;
+			}
+			CommandResult result = executeWithResult(command.append("true").toString());
+
+			List<String> lines = result.getOutputLines();
+			List<PreflightReport.Check> results = new ArrayList<PreflightReport.Check>();
+			i = 0;
+			for (String name : checks.keySet()) {
+				results.add(new PreflightReport.Check(name, lines.contains(String.format("CHECK:%d:ok", i))));
+				i++;
+			}
+			PreflightReport report = new PreflightReport(identifier, results);
+			logger.debug("%s", report);
+			return report;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Returns the checks of {@link #preflight}.<br>
+	 * This checks the Byteman agent jars, the rule scripts and the agent
+	 * ports. The subclasses add the checks of the server.
+	 *
+	 * @return the map of the description and the shell condition of the
+	 *         checks, in the order of execution
+	 * @throws Exception
+	 *             if the checks could not be determined
+	 */
+	protected Map<String, String> getPreflightChecks() throws Exception {
+		Map<String, String> checks = new LinkedHashMap<String, String>();
+		if (agentEnabled) {
+			Map<String, File> localJars = getLocalJars();
+			for (String key : Arrays.asList("node.byteman.jar", "node.bytemanframework.jar")) {
+				if (!localJars.containsKey(key)) {
+					addFileCheck(checks, key, getNodeConfig(key));
+				}
+			}
+			String bytemanScripts = getNodeConfig("node.byteman.scripts");
+			if (bytemanScripts != null) {
+				for (String script : bytemanScripts.split(",")) {
+					addFileCheck(checks, "node.byteman.scripts", script);
+				}
+			}
+			for (BytemanAgentClient client : getAgentClients()) {
+				addPortCheck(checks, "Byteman agent", client.getHost(), client.getPort());
+			}
+		}
+		return checks;
+	}
+
+	/**
+	 * Adds the check that a file is readable.
+	 *
+	 * @param checks
+	 *            the checks
+	 * @param name
+	 *            the property or the role of the file
+	 * @param path
+	 *            the path on the node
+	 */
+	protected static void addFileCheck(Map<String, String> checks, String name, String path) {
+		checks.put(String.format("%s %s is readable", name, path), String.format("[ -r %s ]", path));
+	}
+
+	/**
+	 * Adds the check that a directory exists.
+	 *
+	 * @param checks
+	 *            the checks
+	 * @param name
+	 *            the property or the role of the directory
+	 * @param path
+	 *            the path on the node
+	 */
+	protected static void addDirectoryCheck(Map<String, String> checks, String name, String path) {
+		checks.put(String.format("%s %s is a directory", name, path), String.format("[ -d %s ]", path));
+	}
+
+	/**
+	 * Adds the check that nothing listens on a port.
+	 *
+	 * @param checks
+	 *            the checks
+	 * @param name
+	 *            the role of the port
+	 * @param address
+	 *            the address on the node
+	 * @param port
+	 *            the port
+	 */
+	protected static void addPortCheck(Map<String, String> checks, String name, String address, int port) {
+		checks.put(String.format("%s port %s:%d is free", name, address, port),
+				String.format("! bash -c 'exec 3<>/dev/tcp/%s/%d' 2>/dev/null", address, port));
+	}
+
+	/**
+	 * Starts to sample the metrics of the running server, such as GC, heap,
+	 * CPU, threads and loaded classes, into the result directory.<br>
+	 * The sampler keeps running until it is stopped or the server exits.
+	 *
+	 * @param interval
+	 *            the sampling interval
+	 * @param unit
+	 *            the time unit of the interval
+	 * @return the started sampler
+	 * @throws IllegalStateException
+	 *             if this controller does not know the server process, see
+	 *             {@link #supportsSampling}
+	 * @throws Exception
+	 *             if the sampler could not be started
+	 * @see MetricsSampler
+	 */
+	public MetricsSampler startSampler(long interval, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("startSampler");
+		try {
+			String pid = getServerPid();
+			if (pid == null) {
+				throw new IllegalStateException(String.format(
+						"%s of %s can not sample the metrics, because it does not know the server process",
+						getClass().getSimpleName(), identifier));
+			}
+			String javaHome = getNodeConfig("node.java.home");
+			MetricsSampler sampler = new MetricsSampler(getRemoteShell(), pid,
+					javaHome == null ? "jstat" : javaHome + "/bin/jstat", interval, unit, getResultDir(),
+					"metrics-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+			sampler.start();
+			logger.debug("%s started sampling every %d ms", identifier, unit.toMillis(interval));
+			return sampler;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Sets the phase which is recorded by the flight recorder from the launch
+	 * of the server. The recording is retrieved by {@link #stopRecording}
+	 * with the same phase.
+	 *
+	 * @param phase
+	 *            the name of the recording, or null if the recording is not
+	 *            started at the launch. default is null.
+	 */
+	public void setStartupRecording(String phase) {
+		if (phase != null) {
+			checkRecordingName(phase);
+		}
+		this.startupRecording = phase;
+	}
+
+	/**
+	 * Sets the settings of the flight recordings.
+	 *
+	 * @param settings
+	 *            the name of a settings file in the JDK, such as default or
+	 *            profile, or the path of a .jfc file on the node. default is
+	 *            profile.
+	 */
+	public void setRecordingSettings(String settings) {
+		this.recordingSettings = settings;
+	}
+
+	/**
+	 * Returns the JVM options which the server is launched with, which are
+	 * the options of the node and the option of the startup recording.
+	 *
+	 * @return the JVM options
+	 */
+	protected String getJvmOptions() {
+		String options = getOptions();
+		if (startupRecording == null) {
+			return options;
+		}
+		String recording = String.format("%s -XX:StartFlightRecording=name=%s,settings=%s",
+				getNodeConfig("node.jfr.jvm.options", ""), startupRecording, recordingSettings).trim();
+		return options.length() > 0 ? options + " " + recording : recording;
+	}
+
+	/**
+	 * Starts a flight recording in the running server by jcmd.
+	 *
+	 * @param phase
+	 *            the name of the recording, which consists of letters,
+	 *            digits, '_', '.' and '-'
+	 * @throws IllegalStateException
+	 *             if the server is not running, or this controller does not
+	 *             know the server process, see {@link #supportsRecording}
+	 * @throws Exception
+	 *             if the recording could not be started
+	 */
+	public void startRecording(String phase) throws Exception {
+		boolean begun = beginOperation("startRecording");
+		try {
+			checkRecordingName(phase);
+			String jcmd = getJcmd();
+			CommandResult result = executeWithResult(String.format(
+					"PID=%s; [ -n \"$PID\" ] || exit 3; " +
+					"%s $PID VM.unlock_commercial_features > /dev/null 2>&1; " +
+					"%s $PID JFR.start name=%s settings=%s",
+					getServerPid(), jcmd, jcmd, phase, recordingSettings));
+			if (result.getExitStatus() == 3) {
+				throw new IllegalStateException(String.format("%s is not running", identifier));
+			}
+			if (!result.getOutput().contains("Started recording")) {
+				throw new IOException(String.format("%s failed to start the recording %s: %s%s", identifier, phase,
+						result.getOutput(), result.getError()));
+			}
+			logger.debug("%s started the recording %s", identifier, phase);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Stops a flight recording in the running server, and transfers it to
+	 * the result directory of the node as &lt;identifier&gt;-&lt;phase&gt;.jfr.
+	 * The dump on the node is removed.
+	 *
+	 * @param phase
+	 *            the name of the recording
+	 * @return the recording file
+	 * @throws Exception
+	 *             if the server is not running or the recording could not be
+	 *             stopped or transferred
+	 */
+	public File stopRecording(String phase) throws Exception {
+		boolean begun = beginOperation("stopRecording");
+		try {
+			checkRecordingName(phase);
+			File parent = getResultDir();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException(String.format("failed to create %s", parent));
+			}
+			File file = new File(parent, identifier + "-" + phase + ".jfr");
+			String path = String.format("%s/%s-%s.jfr", getNodeConfig("node.jfr.dir", "/tmp"), identifier, phase);
+
+			CommandResult result;
+			RemoteShell shell = getConnectedShell();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			long begin = System.nanoTime();
+			try {
+				result = shell.execute(String.format(
+						"PID=%s; [ -n \"$PID\" ] || exit 3; " +
+						"%s $PID JFR.stop name=%s filename=%s >&2 && [ -s %4$s ] && cat %4$s; " +
+						"S=$?; rm -f %4$s; exit $S",
+						getServerPid(), getJcmd(), phase, path), out);
+			} finally {
+				recordTiming("transfer", begin);
+				out.close();
+			}
+			if (!result.isSuccess()) {
+				file.delete();
+				if (result.getExitStatus() == 3) {
+					throw new IllegalStateException(String.format("%s is not running", identifier));
+				}
+				throw new IOException(String.format("%s failed to stop the recording %s: %s", identifier, phase,
+						result.getError()));
+			}
+			logger.debug("%s transferred the recording %s to %s", identifier, phase, file);
+			return file;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	private String getJcmd() {
+		if (getServerPid() == null) {
+			throw new IllegalStateException(String.format(
+					"%s of %s can not record, because it does not know the server process",
+					getClass().getSimpleName(), identifier));
+		}
+		String javaHome = getNodeConfig("node.java.home");
+		return javaHome == null ? "jcmd" : javaHome + "/bin/jcmd";
+	}
+
+	private static void checkRecordingName(String phase) {
+		if (!RECORDING_NAME.matcher(phase).matches()) {
+			throw new IllegalArgumentException("invalid recording name: " + phase);
+		}
+	}
+
+	/**
+	 * Returns whether this controller can sample the metrics of the server by
+	 * {@link #startSampler}. The sampler needs the process id of the server,
+	 * so the controllers of multiple servers, such as the domain, do not
+	 * support it.
+	 *
+	 * @return true if the metrics can be sampled
+	 */
+	public boolean supportsSampling() {
+		return getServerPid() != null;
+	}
+
+	/**
+	 * Returns whether this controller can record the server by
+	 * {@link #startRecording}. As with {@link #supportsSampling}, the process
+	 * id of the server is needed.
+	 *
+	 * @return true if the server can be recorded
+	 */
+	public boolean supportsRecording() {
+		return getServerPid() != null;
+	}
+
+	/**
+	 * Returns whether this controller knows the log files which
+	 * {@link #subscribeLogs} follows.
+	 *
+	 * @return true if the logs can be subscribed
+	 */
+	public boolean supportsLogSubscription() {
+		return !getLogFiles().isEmpty();
+	}
+
+	/**
+	 * Returns the shell expression which prints the process id of the server.
+	 *
+	 * @return the shell expression, or null if the server process can not be
+	 *         determined
+	 */
+	protected String getServerPid() {
+		return null;
+	}
+
+	/**
+	 * Makes the rules installed in the running server the same as the rules
+	 * in the scripts.<br>
+	 * The installed rules are compared with the requested rules by name and
+	 * by the text normalized by {@link BytemanAgentClient#normalizeRule}, and
+	 * only the rules which are added or changed are loaded and only the rules
+	 * which are no longer requested are unloaded.
+	 *
+	 * @param scripts
+	 *            the local paths of the rule scripts
+	 * @throws Exception
+	 *             if the scripts could not be read or the agent failed
+	 */
+	public void applyRules(String... scripts) throws Exception {
+		submitRules(readRules(scripts), true);
+	}
+
+	/**
+	 * Loads the rules in the scripts into the running server. The installed
+	 * rules which have the same names are replaced if their texts differ, and
+	 * the other installed rules are kept.
+	 *
+	 * @param scripts
+	 *            the local paths of the rule scripts
+	 * @throws Exception
+	 *             if the scripts could not be read or the agent failed
+	 */
+	public void loadRules(String... scripts) throws Exception {
+		submitRules(readRules(scripts), false);
+	}
+
+	/**
+	 * Unloads the rules from the running server.
+	 *
+	 * @param ruleNames
+	 *            the names of the rules. If empty then all installed rules are
+	 *            unloaded.
+	 * @throws Exception
+	 *             if the agent failed
+	 */
+	public void unloadRules(String... ruleNames) throws Exception {
+		List<String> names = Arrays.asList(ruleNames);
+		for (BytemanAgentClient client : getAgentClients()) {
+			List<String> rules = new ArrayList<String>();
+			for (Map.Entry<String, String> rule : client.listRules().entrySet()) {
+				if (names.isEmpty() || names.contains(rule.getKey())) {
+					rules.add(rule.getValue());
+				}
+			}
+			if (!rules.isEmpty()) {
+				client.deleteRules(rules);
+			}
+			logger.debug("%s unloaded %d rules", identifier, rules.size());
+		}
+	}
+
+	/**
+	 * Sends the differences between the installed rules and the requested
+	 * rules to the agents.
+	 *
+	 * @param requested
+	 *            the map of the rule name and the normalized rule text
+	 * @param unloadOthers
+	 *            If true then the installed rules which are not requested are
+	 *            unloaded.
+	 * @throws Exception
+	 *             if the agent failed
+	 */
+	protected void submitRules(Map<String, String> requested, boolean unloadOthers) throws Exception {
+		for (BytemanAgentClient client : getAgentClients()) {
+			Map<String, String> installed = client.listRules();
+
+			List<String> unloaded = new ArrayList<String>();
+			if (unloadOthers) {
+				for (Map.Entry<String, String> rule : installed.entrySet()) {
+					if (!requested.containsKey(rule.getKey())) {
+						unloaded.add(rule.getValue());
+					}
+				}
+			}
+			Map<String, String> loaded = new LinkedHashMap<String, String>();
+			for (Map.Entry<String, String> rule : requested.entrySet()) {
+				String current = installed.get(rule.getKey());
+				if (current == null || !BytemanAgentClient.normalizeRule(rule.getValue()).equals(
+						BytemanAgentClient.normalizeRule(current))) {
+					loaded.put(rule.getKey(), rule.getValue());
+				}
+			}
+
+			if (!unloaded.isEmpty()) {
+				client.deleteRules(unloaded);
+			}
+			if (!loaded.isEmpty()) {
+				client.loadRules(loaded);
+			}
+			logger.debug("%s loaded %d rules and unloaded %d rules", identifier, loaded.size(), unloaded.size());
+		}
+	}
+
+	/**
+	 * Returns the clients of the Byteman agents on the node.<br>
+	 * The address and the port of the agent are taken from the -javaagent
+	 * option.
+	 *
+	 * @return the agent clients
+	 * @throws Exception
+	 *             if the agent address could not be determined
+	 */
+	protected List<BytemanAgentClient> getAgentClients() throws Exception {
+		String javaAgent = getBytemanAgentProperties();
+		Matcher address = AGENT_ADDRESS_OPTION.matcher(javaAgent);
+		Matcher port = AGENT_PORT_OPTION.matcher(javaAgent);
+		List<BytemanAgentClient> clients = new ArrayList<BytemanAgentClient>();
+		clients.add(new BytemanAgentClient(
+				address.find() ? address.group(1) : getNodeConfig(DistributedConfig.NODE_ADDRESS),
+				port.find() ? Integer.parseInt(port.group(1)) : 9091));
+		return clients;
+	}
+
+	private static Map<String, String> readRules(String... scripts) throws IOException {
+		Map<String, String> rules = new LinkedHashMap<String, String>();
+		for (String script : scripts) {
+			InputStream in = new FileInputStream(script);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int length;
+				while ((length = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, length);
+				}
+				rules.putAll(BytemanAgentClient.parseRules(out.toString("UTF-8")));
+			} finally {
+				in.close();
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * Launches the server in the background on the node.
+	 *
+	 * @param setup
+	 *            the commands which are executed before the launch, such as
+	 *            exporting the environment variables. This ends with a
+	 *            separator if it is not empty.
+	 * @param command
+	 *            the command line which launches the server
+	 * @param logFile
+	 *            the file on the node which the output of the server is
+	 *            written to
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected void launch(String setup, String command, String logFile) throws Exception {
+		execute(setup + String.format("bash -c \"nohup %s&> %s &\"", command, logFile));
+	}
+
+	/**
+	 * Executes a command on the node without waiting for its output.
+	 *
+	 * @param command
+	 *            the command line
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected void execute(String command) throws Exception {
+		if (isSessionPooled()) {
+			CommandResult result = executeWithResult(command);
+			logger.debug("%s exited with %d", identifier, result.getExitStatus());
+			return;
+		}
+		long begin = System.nanoTime();
+		try {
+			executeWithSSH(command);
+		} finally {
+			recordTiming("ssh", begin);
+		}
+	}
+
+	/**
+	 * Executes a command on the node and returns its result.
+	 *
+	 * @param command
+	 *            the command line
+	 * @return the result of the command
+	 * @throws Exception
+	 *             if the command could not be executed
+	 */
+	protected CommandResult executeWithResult(String command) throws Exception {
+		RemoteShell shell = getConnectedShell();
+		long begin = System.nanoTime();
+		try {
+			return shell.execute(command);
+		} finally {
+			recordTiming("command", begin);
+		}
+	}
+
+	/**
+	 * Returns the shell which executes commands on the node, connecting its
+	 * session if it is not connected. The time to connect is recorded as the
+	 * connect step.
+	 *
+	 * @return the remote shell
+	 * @throws Exception
+	 *             if the session could not be connected
+	 */
+	protected RemoteShell getConnectedShell() throws Exception {
+		RemoteShell shell = getRemoteShell();
+		long begin = System.nanoTime();
+		if (shell.open()) {
+			recordTiming("connect", begin);
+		}
+		return shell;
+	}
+
+	/**
+	 * Starts following the log files of the node, and receives the lines
+	 * which match patterns, instead of polling the files.<br>
+	 * The subscription holds an SSH session of its own until it is closed.
+	 * If the base directory is provisioned at the start, subscribe after
+	 * starting the server, because the log directory changes.
+	 *
+	 * @param patterns
+	 *            the regular expressions of the lines to receive
+	 * @return the started subscription, which must be closed
+	 * @throws IllegalStateException
+	 *             if this controller does not know the log files, see
+	 *             {@link #supportsLogSubscription}
+	 * @throws Exception
+	 *             if the subscription could not be started
+	 * @see LogSubscription
+	 */
+	public LogSubscription subscribeLogs(String... patterns) throws Exception {
+		boolean begun = beginOperation("subscribeLogs");
+		try {
+			List<String> files = getLogFiles();
+			if (files.isEmpty()) {
+				throw new IllegalStateException(String.format("%s of %s does not know the log files to follow",
+						getClass().getSimpleName(), identifier));
+			}
+			LogSubscription subscription = new LogSubscription(getConnectedShell(), files, patterns);
+			subscription.start();
+			logger.debug("%s is following %s", identifier, files);
+			return subscription;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Returns the log files of the node which {@link #subscribeLogs} follows.
+	 *
+	 * @return the paths of the log files, or an empty list if the node has no
+	 *         known log files
+	 */
+	protected List<String> getLogFiles() {
+		return new ArrayList<String>();
+	}
+
+	/**
+	 * Sets the sink which receives the timings of the commands in addition to
+	 * the recorder of this controller.
+	 *
+	 * @param timingSink
+	 *            the sink, or null
+	 */
+	public void setTimingSink(TimingSink timingSink) {
+		this.timingSink = timingSink;
+	}
+
+	/**
+	 * Returns the timings of the commands sent to the node, named
+	 * &lt;operation&gt;:&lt;step&gt;. The steps are the following.
+	 * <ul>
+	 * <li>connect: connecting the pooled SSH session</li>
+	 * <li>command: a command whose output is read, including the connection
+	 * if the session is not pooled</li>
+	 * <li>ssh: a command over a new SSH connection, including the
+	 * connection</li>
+	 * <li>transfer: a command which streams a file from or to the node</li>
+	 * </ul>
+	 *
+	 * @return the recorder of the timings
+	 */
+	public LatencyRecorder getCommandTimings() {
+		return commandTimings;
+	}
+
+	/**
+	 * Writes the timings of the commands to the result directory of the node,
+	 * as command-timings-summary.csv and command-timings-samples.csv. The
+	 * files are overwritten with all timings recorded so far. The timings are
+	 * written by {@link ClusterController#stop}, {@link StartupBenchmark} and
+	 * {@link StandbyPool#close}, and may be written by the caller at any time
+	 * for a controller used on its own.
+	 *
+	 * @return the summary file
+	 * @throws IOException
+	 *             if the files could not be written
+	 */
+	public File writeCommandTimings() throws IOException {
+		File dir = getResultDir();
+		File summary = new File(dir, "command-timings-summary.csv");
+		commandTimings.writeSummary(summary);
+		commandTimings.writeSamples(new File(dir, "command-timings-samples.csv"));
+		return summary;
+	}
+
+	/**
+	 * Records the time elapsed since a step began.
+	 *
+	 * @param step
+	 *            the kind of the step
+	 * @param begin
+	 *            the value of {@link System#nanoTime()} when the step began
+	 */
+	protected void recordTiming(String step, long begin) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+		String name = getOperation();
+		commandTimings.record(name + ":" + step, millis);
+		if (timingSink != null) {
+			timingSink.record(identifier, name, step, millis);
+		}
+	}
+
+	/**
+	 * Begins an operation of this controller on the current thread. The
+	 * commands executed until {@link #endOperation} are recorded under the
+	 * operation name. If an operation has already begun on the thread, such
+	 * as {@code start()} which calls {@code awaitStarted()}, the commands are
+	 * recorded under the outer operation.
+	 *
+	 * @param name
+	 *            the operation name, such as start
+	 * @return true if the operation has begun, false if an outer operation
+	 *         continues
+	 */
+	protected boolean beginOperation(String name) {
+		if (operation.get() != null) {
+			return false;
+		}
+		operation.set(name);
+		return true;
+	}
+
+	/**
+	 * Ends an operation which has begun by {@link #beginOperation}.
+	 *
+	 * @param begun
+	 *            the value returned by {@link #beginOperation}
+	 */
+	protected void endOperation(boolean begun) {
+		if (begun) {
+			operation.remove();
+		}
+	}
+
+	/**
+	 * Returns the operation which has begun on the current thread.
+	 *
+	 * @return the operation name, or unknown if no operation has begun
+	 */
+	protected String getOperation() {
+		String name = operation.get();
+		return name != null ? name : "unknown";
+	}
+
+	/**
+	 * Returns the shell which executes commands on the node. If the session
+	 * is pooled then the shell is shared by all controllers of the node,
+	 * otherwise the shell connects a session for each command.
+	 *
+	 * @return the remote shell
+	 */
+	protected RemoteShell getRemoteShell() {
+		if (remoteShell == null) {
+			String host = getNodeConfig(DistributedConfig.NODE_ADDRESS);
+			int port = Integer.parseInt(getNodeConfig("node.ssh.port", String.valueOf(RemoteShell.DEFAULT_PORT)));
+			String username = getNodeConfig("node.ssh.username");
+			String password = getNodeConfig("node.ssh.password");
+			RemoteShell shell;
+			if (isSessionPooled()) {
+				shell = RemoteShell.getInstance(host, port, username, password);
+			} else {
+				shell = new RemoteShell(host, port, username, password, false);
+			}
+			shell.setHostKeyChecking(getNodeConfig("node.ssh.host.key.checking", "yes"));
+			shell.setKnownHosts(getNodeConfig("node.ssh.known.hosts", RemoteShell.DEFAULT_KNOWN_HOSTS));
+			remoteShell = shell;
+		}
+		return remoteShell;
+	}
+}
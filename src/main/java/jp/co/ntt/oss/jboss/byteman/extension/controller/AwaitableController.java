@@ -0,0 +1,55 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The controller which can detect that the server on the node has finished
+ * starting or stopping.
+ */
+public interface AwaitableController {
+
+	/**
+	 * Waits until the server has finished starting.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the server has started, false if the timeout elapsed
+	 * @throws Exception
+	 *             if the server failed to start
+	 */
+	boolean awaitStarted(long timeout, TimeUnit unit) throws Exception;
+
+	/**
+	 * Waits until the server process has exited.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the server has stopped, false if the timeout elapsed
+	 * @throws Exception
+	 *             if the state of the server could not be checked
+	 */
+	boolean awaitStopped(long timeout, TimeUnit unit) throws Exception;
+}
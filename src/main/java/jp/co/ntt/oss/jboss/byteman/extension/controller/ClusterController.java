@@ -0,0 +1,676 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.Artifact;
+import jp.co.ntt.oss.jboss.byteman.extension.util.TimingSink;
+import jp.co.ntt.oss.jboss.byteman.framework.controller.AbstractNodeController;
+
+/**
+ * The controller class which starts and stops a set of nodes in parallel.
+ *
+ * Each operation is dispatched to every node controller over a bounded
+ * worker pool, and the calling thread blocks until all nodes have finished
+ * the operation or one of them fails. When a node fails, the operations
+ * which have not finished yet are cancelled and the failure is thrown.
+ * {@link #start()} also waits for the nodes whose controller is an
+ * {@link AwaitableController} to finish booting.
+ *
+ * {@link #rollingRestart} restarts the nodes a few at a time instead, so
+ * that the rest of the cluster keeps serving while it is reconfigured.
+ *
+ * <pre>
+ * ClusterController cluster = ClusterController.create(
+ *         JBossEAP6StandaloneController.class, "node1", "node2", "node3");
+ * cluster.start();
+ * ...
+ * cluster.stop();
+ * </pre>
+ */
+public class ClusterController {
+
+	/**
+	 * The default number of nodes which are operated at the same time.
+	 */
+	public static final int DEFAULT_MAX_THREADS = 16;
+
+	/**
+	 * The default time to wait for a node to finish booting, in milliseconds.
+	 */
+	public static final long DEFAULT_START_TIMEOUT = 300000;
+
+	/**
+	 * The default time to wait for a node to exit in a rolling restart, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_STOP_TIMEOUT = 300000;
+
+	private static final long READINESS_INTERVAL = 500;
+
+	protected Map<String, AbstractNodeController> controllers = new LinkedHashMap<String, AbstractNodeController>();
+
+	protected int maxThreads = DEFAULT_MAX_THREADS;
+
+	protected long startTimeout = DEFAULT_START_TIMEOUT;
+
+	protected long stopTimeout = DEFAULT_STOP_TIMEOUT;
+
+	protected int maxUnavailable = 1;
+
+	protected NodeTask<Boolean> readinessCheck;
+
+	/**
+	 * Creates a cluster controller which has a node controller of the
+	 * specified type for each identifier.<br>
+	 * The controller class must have a public constructor which takes the
+	 * identifier.
+	 *
+	 * @param type
+	 *            the node controller class
+	 * @param identifiers
+	 *            the identifiers of the target nodes
+	 * @return the cluster controller
+	 * @throws Exception
+	 *             if a node controller could not be constructed
+	 */
+	public static <T extends AbstractNodeController> ClusterController create(
+			Class<T> type, String... identifiers) throws Exception {
+		ClusterController cluster = new ClusterController();
+		for (String identifier : identifiers) {
+			cluster.addController(identifier,
+					type.getConstructor(String.class).newInstance(identifier));
+		}
+		return cluster;
+	}
+
+	/**
+	 * Adds a node controller to this cluster.
+	 *
+	 * @param identifier
+	 *            the identifier of the node
+	 * @param controller
+	 *            the node controller
+	 */
+	public void addController(String identifier, AbstractNodeController controller) {
+		controllers.put(identifier, controller);
+	}
+
+	/**
+	 * Returns the node controllers of this cluster.
+	 *
+	 * @return the node controllers keyed by the identifier
+	 */
+	public Map<String, AbstractNodeController> getControllers() {
+		return Collections.unmodifiableMap(controllers);
+	}
+
+	/**
+	 * Sets the maximum number of nodes which are operated at the same time.
+	 *
+	 * @param maxThreads
+	 *            the maximum number of worker threads. default is 16.
+	 */
+	public void setMaxThreads(int maxThreads) {
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+		}
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Sets the maximum time to wait for each node to finish booting.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait. If 0 then {@link #start()} does not
+	 *            wait for booting. default is 300 seconds.
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setStartTimeout(long timeout, TimeUnit unit) {
+		this.startTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the maximum time to wait for each node to exit in
+	 * {@link #rollingRestart}. This is used for the nodes whose controller is
+	 * an {@link AwaitableController}.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait. default is 300 seconds.
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setStopTimeout(long timeout, TimeUnit unit) {
+		this.stopTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the maximum number of nodes which are down at the same time in
+	 * {@link #rollingRestart}.
+	 *
+	 * @param maxUnavailable
+	 *            the maximum number of nodes. default is 1.
+	 */
+	public void setMaxUnavailable(int maxUnavailable) {
+		if (maxUnavailable < 1) {
+			throw new IllegalArgumentException("maxUnavailable must be positive: " + maxUnavailable);
+		}
+		this.maxUnavailable = maxUnavailable;
+	}
+
+	/**
+	 * Sets the check which tells whether a started node is ready to serve,
+	 * such as a request to the deployed application.<br>
+	 * After the node has finished booting, the check is repeated until it
+	 * returns true or the start timeout elapses.
+	 *
+	 * @param readinessCheck
+	 *            the check, or null if the nodes are ready when they have
+	 *            finished booting
+	 */
+	public void setReadinessCheck(NodeTask<Boolean> readinessCheck) {
+		this.readinessCheck = readinessCheck;
+	}
+
+	/**
+	 * Sets the sink which receives the timings of the commands of all nodes
+	 * which are controlled by {@link AbstractJBossController}.
+	 *
+	 * @param timingSink
+	 *            the sink, or null
+	 * @see AbstractJBossController#setTimingSink
+	 */
+	public void setTimingSink(TimingSink timingSink) {
+		for (AbstractNodeController controller : controllers.values()) {
+			if (controller instanceof AbstractJBossController) {
+				((AbstractJBossController) controller).setTimingSink(timingSink);
+			}
+		}
+	}
+
+	/**
+	 * Starts all nodes in parallel and waits until every node has started.
+	 *
+	 * @throws Exception
+	 *             if any node failed to start or did not start in time
+	 */
+	public void start() throws Exception {
+		executeAll("start", new NodeTask<Void>() {
+			public Void execute(AbstractNodeController controller) throws Exception {
+				controller.start();
+				awaitReady(controller);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Restarts all nodes without taking down more than the max unavailable
+	 * nodes at the same time.
+	 *
+	 * @throws Exception
+	 *             if any node failed to restart
+	 * @see #rollingRestart(NodeTask, NodeTask)
+	 */
+	public void rollingRestart() throws Exception {
+		rollingRestart(null, null);
+	}
+
+	/**
+	 * Restarts all nodes in the order they were added, without taking down
+	 * more than the max unavailable nodes at the same time.<br>
+	 * Each node is stopped, reconfigured, started and checked for readiness
+	 * before the next node is taken down. When a node fails, no more nodes
+	 * are taken down and the restarts in progress are completed. Then, if the
+	 * rollback task is given, the failed nodes and the restarted nodes are
+	 * restarted in the same way with the rollback task, in the reverse
+	 * order.
+	 *
+	 * @param reconfigure
+	 *            the task which is executed while a node is stopped, such as
+	 *            setting new options, or null
+	 * @param rollback
+	 *            the task which restores the previous configuration of a node,
+	 *            or null if the restart is just aborted on failure
+	 * @throws Exception
+	 *             if any node failed to restart
+	 */
+	public void rollingRestart(NodeTask<?> reconfigure, NodeTask<?> rollback) throws Exception {
+		List<String> restarted = new ArrayList<String>();
+		Map<String, Throwable> failures = restartAll(new ArrayList<String>(controllers.keySet()), reconfigure,
+				restarted);
+		if (failures.isEmpty()) {
+			return;
+		}
+		Map.Entry<String, Throwable> failure = failures.entrySet().iterator().next();
+		if (rollback == null) {
+			throw new Exception(String.format("%s failed to restart, and the rolling restart was aborted after %d nodes",
+					failure.getKey(), restarted.size()), failure.getValue());
+		}
+
+		List<String> reverting = new ArrayList<String>(failures.keySet());
+		for (int i = restarted.size() - 1; i >= 0; i--) {
+			reverting.add(restarted.get(i));
+		}
+		List<String> reverted = new ArrayList<String>();
+		Map<String, Throwable> rollbackFailures = restartAll(reverting, rollback, reverted);
+		if (!rollbackFailures.isEmpty()) {
+			Map.Entry<String, Throwable> rollbackFailure = rollbackFailures.entrySet().iterator().next();
+			throw new Exception(String.format("%s failed to restart (%s), and %s failed to roll back",
+					failure.getKey(), failure.getValue(), rollbackFailure.getKey()), rollbackFailure.getValue());
+		}
+		throw new Exception(String.format("%s failed to restart, and %d nodes were rolled back",
+				failure.getKey(), reverted.size()), failure.getValue());
+	}
+
+	/**
+	 * Restarts the nodes, keeping at most the max unavailable nodes in
+	 * progress. No more nodes are taken down after a failure.
+	 *
+	 * @param identifiers
+	 *            the identifiers of the nodes in the order of the restart
+	 * @param reconfigure
+	 *            the task which is executed while a node is stopped, or null
+	 * @param restarted
+	 *            the list which the identifiers of the restarted nodes are
+	 *            added to
+	 * @return the failures keyed by the identifier
+	 * @throws Exception
+	 *             if the current thread was interrupted
+	 */
+	private Map<String, Throwable> restartAll(List<String> identifiers, final NodeTask<?> reconfigure,
+			List<String> restarted) throws Exception {
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		if (identifiers.isEmpty()) {
+			return failures;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(maxUnavailable, identifiers.size()), new WorkerThreadFactory("restart"));
+		try {
+			CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+			Map<Future<Void>, String> running = new HashMap<Future<Void>, String>();
+			Iterator<String> pending = identifiers.iterator();
+			while (running.size() < maxUnavailable && pending.hasNext()) {
+				submitRestart(completionService, running, pending.next(), reconfigure);
+			}
+			while (!running.isEmpty()) {
+				Future<Void> future = completionService.take();
+				String identifier = running.remove(future);
+				try {
+					future.get();
+					restarted.add(identifier);
+				} catch (ExecutionException e) {
+					failures.put(identifier, e.getCause());
+				}
+				if (failures.isEmpty() && pending.hasNext()) {
+					submitRestart(completionService, running, pending.next(), reconfigure);
+				}
+			}
+			return failures;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void submitRestart(CompletionService<Void> completionService, Map<Future<Void>, String> running,
+			String identifier, final NodeTask<?> reconfigure) {
+		final AbstractNodeController controller = controllers.get(identifier);
+		running.put(completionService.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				restart(controller, reconfigure);
+				return null;
+			}
+		}), identifier);
+	}
+
+	/**
+	 * Restarts a node and waits until it is ready.
+	 *
+	 * @param controller
+	 *            the node controller
+	 * @param reconfigure
+	 *            the task which is executed while the node is stopped, or
+	 *            null
+	 * @throws Exception
+	 *             if the node failed to restart or was not ready in time
+	 */
+	protected void restart(AbstractNodeController controller, NodeTask<?> reconfigure) throws Exception {
+		controller.stop();
+		if (controller instanceof AwaitableController
+				&& !((AwaitableController) controller).awaitStopped(stopTimeout, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException(String.format("not stopped within %d ms", stopTimeout));
+		}
+		if (reconfigure != null) {
+			reconfigure.execute(controller);
+		}
+		controller.start();
+		awaitReady(controller);
+	}
+
+	/**
+	 * Waits until a started node has finished booting and passes the
+	 * readiness check. This does not wait if the start timeout is 0.
+	 *
+	 * @param controller
+	 *            the node controller
+	 * @throws Exception
+	 *             if the node failed to start or was not ready in time
+	 */
+	protected void awaitReady(AbstractNodeController controller) throws Exception {
+		if (startTimeout <= 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startTimeout);
+		if (controller instanceof AwaitableController
+				&& !((AwaitableController) controller).awaitStarted(startTimeout, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException(String.format("not started within %d ms", startTimeout));
+		}
+		if (readinessCheck != null) {
+			while (!Boolean.TRUE.equals(readinessCheck.execute(controller))) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					throw new TimeoutException(String.format("not ready within %d ms", startTimeout));
+				}
+				Thread.sleep(Math.min(READINESS_INTERVAL, remaining));
+			}
+		}
+	}
+
+	/**
+	 * Stops all nodes in parallel and waits until every node has been
+	 * requested to stop. The timings of the commands of each node are written
+	 * to its result directory.
+	 *
+	 * @throws Exception
+	 *             if any node failed to stop
+	 */
+	public void stop() throws Exception {
+		executeAll("stop", new NodeTask<Void>() {
+			public Void execute(AbstractNodeController controller) throws Exception {
+				controller.stop();
+				if (controller instanceof AbstractJBossController) {
+					((AbstractJBossController) controller).writeCommandTimings();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs the preflight checks on all nodes in parallel.<br>
+	 * The nodes which are not controlled by {@link AbstractJBossController}
+	 * are not checked.
+	 *
+	 * @return the reports keyed by the identifier
+	 * @throws Exception
+	 *             if the checks could not be executed on any node
+	 * @see AbstractJBossController#preflight()
+	 */
+	public Map<String, PreflightReport> preflight() throws Exception {
+		Map<String, PreflightReport> results = executeAll("preflight", new NodeTask<PreflightReport>() {
+			public PreflightReport execute(AbstractNodeController controller) throws Exception {
+				if (controller instanceof AbstractJBossController) {
+					return ((AbstractJBossController) controller).preflight();
+				}
+				return null;
+			}
+		});
+		Map<String, PreflightReport> reports = new LinkedHashMap<String, PreflightReport>();
+		for (Map.Entry<String, PreflightReport> result : results.entrySet()) {
+			if (result.getValue() != null) {
+				reports.put(result.getKey(), result.getValue());
+			}
+		}
+		return reports;
+	}
+
+	/**
+	 * Deploys files to all EAP6 standalone nodes in parallel.<br>
+	 * The checksum of each file is calculated once and shared by the nodes.
+	 * The other nodes are skipped.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait for the deployment scanner of each
+	 *            node
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @param files
+	 *            the files to deploy
+	 * @return the reports keyed by the identifier
+	 * @throws Exception
+	 *             if a file could not be sent to a node
+	 * @see JBossEAP6StandaloneController#deploy(long, TimeUnit, Artifact...)
+	 */
+	public Map<String, DeploymentReport> deploy(final long timeout, final TimeUnit unit, File... files)
+			throws Exception {
+		final Artifact[] artifacts = new Artifact[files.length];
+		for (int i = 0; i < files.length; i++) {
+			artifacts[i] = new Artifact(files[i]);
+			artifacts[i].getChecksum();
+		}
+		Map<String, DeploymentReport> results = executeAll("deploy", new NodeTask<DeploymentReport>() {
+			public DeploymentReport execute(AbstractNodeController controller) throws Exception {
+				if (controller instanceof JBossEAP6StandaloneController) {
+					return ((JBossEAP6StandaloneController) controller).deploy(timeout, unit, artifacts);
+				}
+				return null;
+			}
+		});
+		Map<String, DeploymentReport> reports = new LinkedHashMap<String, DeploymentReport>();
+		for (Map.Entry<String, DeploymentReport> result : results.entrySet()) {
+			if (result.getValue() != null) {
+				reports.put(result.getKey(), result.getValue());
+			}
+		}
+		return reports;
+	}
+
+	/**
+	 * Distributes the Byteman jars to all nodes in parallel, so that a new
+	 * version of the jars is rolled out in one step before {@link #start()}.
+	 * <br>
+	 * The nodes which are not controlled by {@link AbstractJBossController}
+	 * are skipped.
+	 *
+	 * @return the paths of the jars on each node keyed by the identifier
+	 * @throws Exception
+	 *             if a jar could not be sent to a node
+	 * @see AbstractJBossController#distributeJars()
+	 */
+	public Map<String, Map<String, String>> distributeJars() throws Exception {
+		Map<String, Map<String, String>> results = executeAll("distributeJars",
+				new NodeTask<Map<String, String>>() {
+					public Map<String, String> execute(AbstractNodeController controller) throws Exception {
+						if (controller instanceof AbstractJBossController) {
+							return ((AbstractJBossController) controller).distributeJars();
+						}
+						return null;
+					}
+				});
+		Map<String, Map<String, String>> paths = new LinkedHashMap<String, Map<String, String>>();
+		for (Map.Entry<String, Map<String, String>> result : results.entrySet()) {
+			if (result.getValue() != null) {
+				paths.put(result.getKey(), result.getValue());
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Starts a flight recording on all nodes in parallel.<br>
+	 * The nodes which are not controlled by {@link AbstractJBossController}
+	 * are skipped.
+	 *
+	 * @param phase
+	 *            the name of the recording
+	 * @throws Exception
+	 *             if the recording could not be started on a node
+	 * @see AbstractJBossController#startRecording(String)
+	 */
+	public void startRecording(final String phase) throws Exception {
+		executeAll("startRecording", new NodeTask<Void>() {
+			public Void execute(AbstractNodeController controller) throws Exception {
+				if (controller instanceof AbstractJBossController) {
+					((AbstractJBossController) controller).startRecording(phase);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stops a flight recording on all nodes and transfers the recordings in
+	 * parallel.
+	 *
+	 * @param phase
+	 *            the name of the recording
+	 * @return the recording files keyed by the identifier
+	 * @throws Exception
+	 *             if the recording could not be stopped or transferred on a
+	 *             node
+	 * @see AbstractJBossController#stopRecording(String)
+	 */
+	public Map<String, File> stopRecording(final String phase) throws Exception {
+		Map<String, File> results = executeAll("stopRecording", new NodeTask<File>() {
+			public File execute(AbstractNodeController controller) throws Exception {
+				if (controller instanceof AbstractJBossController) {
+					return ((AbstractJBossController) controller).stopRecording(phase);
+				}
+				return null;
+			}
+		});
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		for (Map.Entry<String, File> result : results.entrySet()) {
+			if (result.getValue() != null) {
+				files.put(result.getKey(), result.getValue());
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Executes a task against every node in parallel and waits for all of
+	 * them.<br>
+	 * When a task fails, the remaining tasks are cancelled and the failure is
+	 * rethrown with the identifier of the failed node.
+	 *
+	 * @param operation
+	 *            the operation name used for the thread names and messages
+	 * @param task
+	 *            the task to execute
+	 * @return the results keyed by the identifier, in the order the nodes were
+	 *         added
+	 * @throws Exception
+	 *             if any task failed
+	 */
+	protected <T> Map<String, T> executeAll(String operation, final NodeTask<T> task)
+			throws Exception {
+		Map<String, T> results = new LinkedHashMap<String, T>();
+		if (controllers.isEmpty()) {
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(maxThreads, controllers.size()), new WorkerThreadFactory(operation));
+		try {
+			CompletionService<T> completionService = new ExecutorCompletionService<T>(executor);
+			Map<Future<T>, String> futures = new LinkedHashMap<Future<T>, String>();
+			for (Map.Entry<String, AbstractNodeController> entry : controllers.entrySet()) {
+				final AbstractNodeController controller = entry.getValue();
+				futures.put(completionService.submit(new Callable<T>() {
+					public T call() throws Exception {
+						return task.execute(controller);
+					}
+				}), entry.getKey());
+				results.put(entry.getKey(), null);
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				Future<T> future = completionService.take();
+				String identifier = futures.get(future);
+				try {
+					results.put(identifier, future.get());
+				} catch (ExecutionException e) {
+					throw new Exception(String.format("%s failed to %s", identifier, operation),
+							e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The task which is executed against a node.
+	 */
+	public interface NodeTask<T> {
+
+		/**
+		 * Executes the task.
+		 *
+		 * @param controller
+		 *            the node controller
+		 * @return the result of the task
+		 * @throws Exception
+		 *             if the task failed
+		 */
+		T execute(AbstractNodeController controller) throws Exception;
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final String operation;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		WorkerThreadFactory(String operation) {
+			this.operation = operation;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,
+					String.format("cluster-%s-%d", operation, count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
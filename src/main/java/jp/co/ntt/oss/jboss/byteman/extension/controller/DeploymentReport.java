@@ -0,0 +1,182 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of deploying artifacts to a node.
+ */
+public class DeploymentReport {
+
+	/**
+	 * The status of a deployment.
+	 */
+	public enum Status {
+
+		/**
+		 * The same content had already been deployed, so it was not sent.
+		 */
+		UNCHANGED,
+
+		/**
+		 * The deployment scanner has deployed the artifact.
+		 */
+		DEPLOYED,
+
+		/**
+		 * The deployment scanner has failed to deploy the artifact.
+		 */
+		FAILED,
+
+		/**
+		 * The deployment scanner did not finish in time.
+		 */
+		PENDING
+	}
+
+	private final String identifier;
+
+	private final List<Deployment> deployments;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param identifier
+	 *            the node identifier
+	 * @param deployments
+	 *            the results of the artifacts
+	 */
+	public DeploymentReport(String identifier, List<Deployment> deployments) {
+		this.identifier = identifier;
+		this.deployments = Collections.unmodifiableList(new ArrayList<Deployment>(deployments));
+	}
+
+	/**
+	 * Returns the node identifier.
+	 *
+	 * @return the node identifier
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Returns the results of all artifacts.
+	 *
+	 * @return the results
+	 */
+	public List<Deployment> getDeployments() {
+		return deployments;
+	}
+
+	/**
+	 * Returns the results of the artifacts which were not deployed.
+	 *
+	 * @return the failed or pending results
+	 */
+	public List<Deployment> getFailures() {
+		List<Deployment> failures = new ArrayList<Deployment>();
+		for (Deployment deployment : deployments) {
+			if (deployment.getStatus() == Status.FAILED || deployment.getStatus() == Status.PENDING) {
+				failures.add(deployment);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Returns whether all artifacts have been deployed.
+	 *
+	 * @return true if all artifacts are deployed or unchanged
+	 */
+	public boolean isSucceeded() {
+		return getFailures().isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(identifier).append(isSucceeded() ? ": succeeded" : ": failed");
+		for (Deployment deployment : deployments) {
+			builder.append("\n  [").append(deployment.getStatus()).append("] ").append(deployment.getName());
+			if (deployment.getMessage() != null) {
+				builder.append(": ").append(deployment.getMessage());
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The result of an artifact.
+	 */
+	public static class Deployment {
+
+		private final String name;
+
+		private final Status status;
+
+		private final String message;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param name
+		 *            the artifact name
+		 * @param status
+		 *            the status
+		 * @param message
+		 *            the content of the .failed marker, or null
+		 */
+		public Deployment(String name, Status status, String message) {
+			this.name = name;
+			this.status = status;
+			this.message = message;
+		}
+
+		/**
+		 * Returns the artifact name.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the status.
+		 *
+		 * @return the status
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the reason of the failure.
+		 *
+		 * @return the content of the .failed marker, or null
+		 */
+		public String getMessage() {
+			return message;
+		}
+	}
+}
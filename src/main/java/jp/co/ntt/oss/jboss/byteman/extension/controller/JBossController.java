@@ -19,7 +19,14 @@
 
 package jp.co.ntt.oss.jboss.byteman.extension.controller;
 
-import jp.co.ntt.oss.jboss.byteman.framework.controller.AbstractNodeController;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.JmxClient;
 import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
 
 /**
@@ -34,13 +41,30 @@ import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
  * <tr><td>node.jboss.jmxpassword</td><td>Sets the JMX password.</td></tr>
  * </table>
  * <br/>
+ * The server is stopped and its state is checked through the JMX connector of the server,
+ * which is connected from the controller. The following properties can be set.
+ * <table border="1">
+ * <tr><th>property</th><th>description</th></tr>
+ * <tr><td>node.jboss.jmx.port</td><td>Sets the RMI registry port of the JMX connector. default is 1090.</td></tr>
+ * <tr><td>node.jboss.jmx.url</td><td>Sets the service URL of the JMX connector.
+ * default is service:jmx:rmi:///jndi/rmi://[address]:[node.jboss.jmx.port]/jmxrmi.</td></tr>
+ * </table>
+ * <br/>
  * And if it attaches a rule at the time of byteman agent starting, the following properties can be set.
  * <table border="1">
  * <tr><th>property</th><th>description</th></tr>
  * <tr><td>node.byteman.scripts</td><td>Sets the path of rule script. In two or more cases, it divides with a comma.</td></tr>
  * </table>
+ * <br/>
+ * The settings for the remote commands are described in {@link AbstractJBossController}.
  */
-public class JBossController extends AbstractNodeController {
+public class JBossController extends AbstractJBossController implements AwaitableController {
+
+	private static final long MIN_POLL_INTERVAL = 100;
+
+	private static final long MAX_POLL_INTERVAL = 1000;
+
+	protected JmxClient jmxClient;
 
 	/**
 	 * Constructs a new instance with the identifier.
@@ -56,43 +80,226 @@ public class JBossController extends AbstractNodeController {
 	 */
 	@Override
 	public void start() throws Exception {
-		String address = getAddress();
-		String jbossHome = getNodeConfig("node.jboss.home");
-		String serverDir = getNodeConfig("node.jboss.server");
-		String javaOptions = null;
-		String bytemanScripts = getNodeConfig("node.byteman.scripts");
-		if(bytemanScripts != null) {
-			javaOptions = getBytemanAgentProperties(bytemanScripts.split(","));
-		} else {
-			javaOptions = getBytemanAgentProperties();
+		boolean begun = beginOperation("start");
+		try {
+			prepareJars();
+			String address = getAddress();
+			String jbossHome = getNodeConfig("node.jboss.home");
+			String serverDir = getNodeConfig("node.jboss.server");
+			String javaOptions = getJavaAgentOption();
+			String options = getJvmOptions();
+			if(options.length() > 0){
+				javaOptions = javaOptions.length() > 0 ? javaOptions + " " + options : options;
+			}
+			launch(String.format(
+					"mkdir %s/server/%s/log ; " +
+					"export JAVA_OPTS=\"$JAVA_OPTS %s\" ; ",
+					jbossHome, serverDir,
+					javaOptions),
+					String.format("%s/bin/run.sh -c %s -b %s ", jbossHome, serverDir, address),
+					String.format("%s/server/%s/log/stdout.log", jbossHome, serverDir));
+			logger.debug("%s is starting", identifier);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * This method invokes the shutdown operation of the server over JMX. If
+	 * the grace period is set by {@link #setStopGracePeriod}, this method
+	 * sends SIGTERM to the server process instead, waits for it to exit and
+	 * kills it if the period elapses.
+	 */
+	@Override
+	public void stop() throws Exception {
+		boolean begun = beginOperation("stop");
+		try {
+			if (isStopBlocking()) {
+				closeJmxClient();
+				terminate(getServerPid(), null);
+				logger.debug("%s has stopped", identifier);
+				return;
+			}
+			long begin = System.nanoTime();
+			try {
+				getJmxClient().shutdown();
+			} finally {
+				recordTiming("jmx", begin);
+			}
+			logger.debug("%s is stopping", identifier);
+		} finally {
+			endOperation(begun);
 		}
-		String options = getOptions();
-		if(options.length() > 0){
-			javaOptions = javaOptions + " " + options;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The Started attribute of the server is polled over JMX. While the JMX
+	 * connector is not available, the server process is checked on the node
+	 * instead.
+	 *
+	 * @throws Exception
+	 *             if the server process exited while starting
+	 */
+	public boolean awaitStarted(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStarted");
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			long interval = MIN_POLL_INTERVAL;
+			boolean seen = false;
+			while (true) {
+				String state = getServerState();
+				if (state.equals("started")) {
+					logger.debug("%s has started", identifier);
+					return true;
+				} else if (state.equals("starting")) {
+					seen = true;
+				} else if (isServerAlive()) {
+					seen = true;
+				} else if (seen) {
+					throw new IllegalStateException(String.format("%s exited while starting", identifier));
+				}
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				pause(Math.min(interval, remaining));
+				interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+			}
+		} finally {
+			endOperation(begun);
 		}
-		executeWithSSH(String.format(
-				"mkdir %s/server/%s/log ; " +
-				"export JAVA_OPTS=\"$JAVA_OPTS %s\" ; " +
-				"bash -c \"nohup %s/bin/run.sh -c %s -b %s &> %s/server/%s/log/stdout.log &\"",
-				jbossHome, serverDir,
-				javaOptions,
-				jbossHome, serverDir, address, jbossHome, serverDir));
-		logger.debug("%s is starting", identifier);
+	}
+
+	/**
+	 * Waits until the next check of {@link #awaitStarted}.
+	 *
+	 * @param millis
+	 *            the time to wait in milliseconds
+	 * @throws Exception
+	 *             if the server has exited while waiting
+	 */
+	protected void pause(long millis) throws Exception {
+		Thread.sleep(millis);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStopped");
+		try {
+			closeJmxClient();
+			return awaitExit(getServerPid(), timeout, unit);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Returns the state of the server, which is read over JMX.
+	 *
+	 * @return started if the server has finished starting, starting if it is
+	 *         starting, or unavailable if the JMX connector is not available
+	 * @throws Exception
+	 *             if the state could not be read
+	 */
+	public String getServerState() throws Exception {
+		boolean begun = beginOperation("getServerState");
+		try {
+			long begin = System.nanoTime();
+			try {
+				return getJmxClient().isStarted() ? "started" : "starting";
+			} catch (IOException e) {
+				return "unavailable";
+			} finally {
+				recordTiming("jmx", begin);
+			}
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Returns the client of the JMX connector of the server. The client keeps
+	 * the connection across the calls.
+	 *
+	 * @return the JMX client
+	 * @throws Exception
+	 *             if the client could not be created
+	 */
+	protected JmxClient getJmxClient() throws Exception {
+		if (jmxClient == null) {
+			String url = getNodeConfig("node.jboss.jmx.url");
+			if (url == null) {
+				url = String.format("service:jmx:rmi:///jndi/rmi://%s:%s/jmxrmi", getAddress(),
+						getNodeConfig("node.jboss.jmx.port", "1090"));
+			}
+			jmxClient = new JmxClient(url, getNodeConfig("node.jboss.jmxuser"),
+					getNodeConfig("node.jboss.jmxpassword"));
+		}
+		return jmxClient;
+	}
+
+	/**
+	 * Closes the client of the JMX connector if it has been created.
+	 */
+	protected void closeJmxClient() {
+		if (jmxClient != null) {
+			jmxClient.close();
+		}
+	}
+
+	/**
+	 * Returns whether the server process is running on the node.
+	 *
+	 * @return true if the server process is running
+	 * @throws Exception
+	 *             if the process could not be checked
+	 */
+	protected boolean isServerAlive() throws Exception {
+		CommandResult result = executeWithResult(String.format(
+				"PID=%s; if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then echo PID:alive; else echo PID:none; fi",
+				getServerPid()));
+		return result.getOutput().contains("PID:alive");
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * This also checks the JBoss installation and the server directory.
+	 */
 	@Override
-	public void stop() throws Exception {
-		String address = getAddress();
+	protected Map<String, String> getPreflightChecks() throws Exception {
+		Map<String, String> checks = super.getPreflightChecks();
 		String jbossHome = getNodeConfig("node.jboss.home");
-		String jmxUser = getNodeConfig("node.jboss.jmxuser");
-		String jmxPassword = getNodeConfig("node.jboss.jmxpassword");
-		executeWithSSH(String.format(
-				"bash -c \"nohup %s/bin/shutdown.sh -S -s %s -u %s -p %s > /dev/null 2>&1 &\"",
-				jbossHome, address, jmxUser, jmxPassword));
-		logger.debug("%s is stopping", identifier);
+		addDirectoryCheck(checks, "node.jboss.home", jbossHome);
+		addFileCheck(checks, "run.sh", jbossHome + "/bin/run.sh");
+		addDirectoryCheck(checks, "node.jboss.server", jbossHome + "/server/" + getNodeConfig("node.jboss.server"));
+		return checks;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The first character of the pattern is bracketed, so that the pattern
+	 * does not match the command line of the shell which runs pgrep.
+	 */
+	@Override
+	protected String getServerPid() {
+		return String.format("`pgrep -f '[o]rg.jboss.Main -c %s -b %s'`", getNodeConfig("node.jboss.server"),
+				getAddress());
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * These are stdout.log and server.log in the log directory of the server.
+	 */
+	@Override
+	protected List<String> getLogFiles() {
+		String dir = String.format("%s/server/%s/log", getNodeConfig("node.jboss.home"),
+				getNodeConfig("node.jboss.server"));
+		return Arrays.asList(dir + "/stdout.log", dir + "/server.log");
 	}
 
 	private String getAddress() {
@@ -0,0 +1,629 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.BytemanAgentClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
+
+/**
+ * The controller class for domain mode of JBoss EAP6.
+ *
+ * This controller starts the host controller of a node with domain.sh, and
+ * then starts the managed servers of the host with one management
+ * operation. The Byteman agent and the -Djboss.modules.system.pkgs option are
+ * set to the server-level JVM settings named "default" of the managed
+ * servers. The i-th managed server (counting from 0) listens for Byteman
+ * agent requests on port 9091 + i.<br>
+ * The managed servers should be configured with auto-start="false" in the host
+ * profile, because they are started after the JVM settings are written.
+ *
+ * The following properties are settings for the controller.
+ * <table border="1">
+ * <tr>
+ * <th>property</th>
+ * <th>required</th>
+ * <th>default</th>
+ * <th>description</th>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.username</td>
+ * <td>true</td>
+ * <td>N/A</td>
+ * <td>Specify SSH user name of the target server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.ssh.password</td>
+ * <td>true</td>
+ * <td>N/A</td>
+ * <td>Specify SSH user password of the target server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.home</td>
+ * <td>true</td>
+ * <td>N/A</td>
+ * <td>Specify the installed directory of JBoss application server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.address</td>
+ * <td>false</td>
+ * <td>node.address.[identifier] value</td>
+ * <td>Specify the binding address of JBoss application server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.domain.base.dir</td>
+ * <td>false</td>
+ * <td>[node.jboss.eap6.home]/domain</td>
+ * <td>Specify the domain directory of JBoss application server.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.domain.config</td>
+ * <td>false</td>
+ * <td>domain.xml</td>
+ * <td>Specify the domain profile XML.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.host.config</td>
+ * <td>false</td>
+ * <td>host.xml</td>
+ * <td>Specify the host profile XML.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.host.name</td>
+ * <td>false</td>
+ * <td>master</td>
+ * <td>Specify the host name in the host profile XML.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.domain.servers</td>
+ * <td>true</td>
+ * <td>N/A</td>
+ * <td>Specify the managed servers of the host which the Byteman agent is set
+ * to. In two or more cases, it divides with a comma.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.domain.server.groups</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the server groups which are started by {@link #start()}. In two
+ * or more cases, it divides with a comma. If not specified, the managed
+ * servers are started one by one.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.management.native.port</td>
+ * <td>false</td>
+ * <td>9999</td>
+ * <td>Specify the native management port of the host controller.</td>
+ * </tr>
+ * </table>
+ * <br/>
+ * And if it attaches a rule at the time of byteman agent starting, the
+ * following properties can be set.
+ * <table border="1">
+ * <tr>
+ * <th>property</th>
+ * <th>description</th>
+ * </tr>
+ * <tr>
+ * <td>node.byteman.scripts</td>
+ * <td>Specify the path of rule script. In two or more cases, it divides with a
+ * comma.</td>
+ * </tr>
+ * </table>
+ * <br/>
+ * The settings for the remote commands are described in
+ * {@link AbstractJBossController}.
+ */
+public class JBossEAP6DomainController extends AbstractJBossController
+		implements AwaitableController {
+
+	/**
+	 * The log message which shows that a managed server has started.
+	 */
+	protected static final String STARTED_MESSAGE = "JBAS015874";
+
+	/**
+	 * The log message which shows that a managed server has started with
+	 * errors.
+	 */
+	protected static final String STARTED_WITH_ERRORS_MESSAGE = "JBAS015875";
+
+	/**
+	 * The Byteman agent port of the first managed server.
+	 */
+	protected static final int AGENT_PORT = 9091;
+
+	private static final long POLL_INTERVAL = 1000;
+
+	protected List<String> moduleSystemPackages = new ArrayList<String>();
+
+	protected String agentOptions;
+
+	protected boolean cleanLogs = true;
+
+	protected String address;
+
+	protected String jbossHome;
+
+	protected String baseDir;
+
+	protected String logDir;
+
+	protected String pidfile;
+
+	protected String domainConfig;
+
+	protected String hostConfig;
+
+	protected String hostName;
+
+	protected List<String> servers = new ArrayList<String>();
+
+	protected List<String> serverGroups = new ArrayList<String>();
+
+	protected int nativeManagementPort;
+
+	/**
+	 * Constructs a new instance with an identifier.
+	 *
+	 * @param identifier
+	 *            a target node identifier
+	 */
+	public JBossEAP6DomainController(String identifier) {
+		super(identifier);
+		init();
+	}
+
+	/**
+	 * Initializes the node infomation.
+	 */
+	protected void init() {
+		address = getNodeConfig("node.jboss.eap6.address", getNodeConfig(DistributedConfig.NODE_ADDRESS));
+		jbossHome = getNodeConfig("node.jboss.eap6.home");
+		baseDir = getNodeConfig("node.jboss.eap6.domain.base.dir", jbossHome + "/domain");
+		logDir = baseDir + "/log";
+		pidfile = logDir + "/jboss.pid";
+		domainConfig = getNodeConfig("node.jboss.eap6.domain.config", "domain.xml");
+		hostConfig = getNodeConfig("node.jboss.eap6.host.config", "host.xml");
+		hostName = getNodeConfig("node.jboss.eap6.host.name", "master");
+		servers = split(getNodeConfig("node.jboss.eap6.domain.servers"));
+		serverGroups = split(getNodeConfig("node.jboss.eap6.domain.server.groups"));
+		nativeManagementPort = Integer.parseInt(getNodeConfig("node.jboss.eap6.management.native.port", "9999"));
+	}
+
+	/**
+	 * Sets options for the Java Agent.
+	 *
+	 * @param options
+	 *            options for the Java Agent
+	 */
+	public void setAgentOptions(String agentOptions) {
+		this.agentOptions = agentOptions;
+	}
+
+	/**
+	 * Add the package to the -Djboss.modules.system.pkgs option of the managed
+	 * servers.<br>
+	 * In the default, this controller add following packages to the
+	 * -Djboss.modules.system.pkgs option:
+	 * <ul>
+	 * <li>org.jboss.byteman</li>
+	 * <li>jp.co.ntt.oss.jboss.byteman.framework</li>
+	 * </ul>
+	 *
+	 * @param packageName
+	 *            the package name
+	 */
+	public void addModuleSystemPackage(String packageName) {
+		this.moduleSystemPackages.add(packageName);
+	}
+
+	/**
+	 * Sets the flag which specifies whether log files of the host controller
+	 * and the managed servers are removed before starting JBoss.
+	 *
+	 * @param cleanLogs
+	 *            If true then log files are removed. default is true.
+	 */
+	public void setCleanLogs(boolean cleanLogs) {
+		this.cleanLogs = cleanLogs;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The host controller is launched, and the JVM settings and the start of
+	 * the managed servers are applied by one CLI script as soon as the host
+	 * controller accepts management requests. All of them are done by one
+	 * remote command.
+	 */
+	@Override
+	public void start() throws Exception {
+		boolean begun = beginOperation("start");
+		try {
+			prepareJars();
+			StringBuilder cli = new StringBuilder();
+			for (int i = 0; i < servers.size(); i++) {
+				String jvm = String.format("/host=%s/server-config=%s/jvm=default", hostName, servers.get(i));
+				cli.append(String.format(" '%s'", "if (outcome == success) of " + jvm + ":read-resource"));
+				cli.append(String.format(" '%s'", jvm + ":remove"));
+				cli.append(" 'end-if'");
+				cli.append(String.format(" '%s:add(jvm-options=[%s])'", jvm, getJvmOptions(AGENT_PORT + i)));
+			}
+			if (serverGroups.isEmpty()) {
+				for (String server : servers) {
+					cli.append(String.format(" '/host=%s/server-config=%s:start'", hostName, server));
+				}
+			} else {
+				for (String serverGroup : serverGroups) {
+					cli.append(String.format(" '/server-group=%s:start-servers'", serverGroup));
+				}
+			}
+
+			String launcher = String.format(
+					" 'export LAUNCH_JBOSS_IN_BACKGROUND=true'" +
+					" 'export JBOSS_PIDFILE=%s'" +
+					" '%s/bin/domain.sh -b %s -bmanagement=%s --domain-config=%s --host-config=%s -Djboss.domain.base.dir=%s &'" +
+					" 'I=0'" +
+					" 'until (exec 3<>/dev/tcp/%s/%d) 2>/dev/null; do I=$(($I + 1)); [ $I -ge 600 ] && exit 1; sleep 0.5; done'" +
+					" '%s/bin/jboss-cli.sh --connect --controller=%s:%d --file=%s/byteman-servers.cli'" +
+					" 'wait'",
+					pidfile, jbossHome, address, address, domainConfig, hostConfig, baseDir,
+					address, nativeManagementPort, jbossHome, address, nativeManagementPort, logDir);
+
+			StringBuilder clean = new StringBuilder();
+			if (cleanLogs) {
+				clean.append(String.format("rm -rf %s/* %s/servers/*/log/*; ", logDir, baseDir));
+			} else {
+				for (String server : servers) {
+					clean.append(String.format("echo `stat -c %%s %s/server.log 2>/dev/null || echo 0` > %s; ",
+							getServerLogDir(server), getLogOffsetFile(server)));
+				}
+			}
+			execute(String.format(
+					"mkdir -p %s; %s" +
+					"printf '%%s\\n'%s > %s/byteman-servers.cli; " +
+					"printf '%%s\\n'%s > %s/byteman-domain.sh; " +
+					"bash -c \"nohup bash %s/byteman-domain.sh &> %s/stdout.log &\"",
+					logDir, clean, cli, logDir, launcher, logDir, logDir, logDir));
+			logger.debug("%s is starting", identifier);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The process controller is stopped, and it stops the host controller and
+	 * all servers of the host.
+	 */
+	@Override
+	public void stop() throws Exception {
+		boolean begun = beginOperation("stop");
+		try {
+			if (isStopBlocking()) {
+				terminate(String.format("`cat %s 2>/dev/null`", pidfile), String.format("rm -f %s", pidfile));
+				logger.debug("%s has stopped", identifier);
+				return;
+			}
+			execute(String.format("bash -c \"kill -15 `cat %s`\"", pidfile));
+			logger.debug("%s is stopping", identifier);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Waits until all managed servers have finished booting.<br>
+	 * The boot-complete message is searched in the part of server.log of each
+	 * managed server which has been written since {@link #start}, so the
+	 * message of a previous run is not matched when the logs are kept.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if all managed servers have started, false if the timeout
+	 *         elapsed
+	 * @throws Exception
+	 *             if the process controller exited or a managed server
+	 *             started with errors
+	 */
+	public boolean awaitStarted(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStarted");
+		try {
+			StringBuilder command = new StringBuilder(String.format(
+					"if [ -f %1$s ]; then " +
+					"if kill -0 `cat %1$s` 2>/dev/null; then echo PID:alive; else echo PID:dead; fi; " +
+					"else echo PID:none; fi",
+					pidfile));
+			for (String server : servers) {
+				String log = getServerLogDir(server) + "/server.log";
+				command.append(String.format(
+						"; O=`cat %1$s 2>/dev/null`; [ `stat -c %%s %2$s 2>/dev/null || echo 0` -ge ${O:=0} ] || O=0; " +
+						"tail -c +$(($O + 1)) %2$s 2>/dev/null | grep -E '%3$s' | sed 's/^/STARTED:%4$s:/'",
+						getLogOffsetFile(server), log, STARTED_MESSAGE + "|" + STARTED_WITH_ERRORS_MESSAGE, server));
+			}
+
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			boolean launched = false;
+			while (true) {
+				Set<String> started = new HashSet<String>();
+				for (String line : executeWithResult(command.toString()).getOutputLines()) {
+					if (line.equals("PID:alive")) {
+						launched = true;
+					} else if (line.equals("PID:dead") && launched) {
+						throw new IllegalStateException(String.format("%s exited while starting", identifier));
+					} else if (line.startsWith("STARTED:")) {
+						String[] fields = line.split(":", 3);
+						if (line.contains(STARTED_WITH_ERRORS_MESSAGE)) {
+							throw new IllegalStateException(String.format("%s of %s started with errors: %s",
+									fields[1], identifier, fields.length > 2 ? fields[2] : ""));
+						}
+						started.add(fields[1]);
+					}
+				}
+				if (started.size() == servers.size()) {
+					logger.debug("%s has started", identifier);
+					return true;
+				}
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				Thread.sleep(Math.min(POLL_INTERVAL, remaining));
+			}
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStopped");
+		try {
+			return awaitExit(String.format("`cat %s 2>/dev/null`", pidfile), timeout, unit);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Starts all servers of a server group.
+	 *
+	 * @param serverGroup
+	 *            the server group name
+	 * @throws Exception
+	 *             if the operation failed
+	 */
+	public void startServerGroup(String serverGroup) throws Exception {
+		boolean begun = beginOperation("startServerGroup");
+		try {
+			executeOperation(String.format("/server-group=%s:start-servers", serverGroup));
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Stops all servers of a server group.
+	 *
+	 * @param serverGroup
+	 *            the server group name
+	 * @throws Exception
+	 *             if the operation failed
+	 */
+	public void stopServerGroup(String serverGroup) throws Exception {
+		boolean begun = beginOperation("stopServerGroup");
+		try {
+			executeOperation(String.format("/server-group=%s:stop-servers", serverGroup));
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Starts a server of the host.
+	 *
+	 * @param server
+	 *            the server name
+	 * @throws Exception
+	 *             if the operation failed
+	 */
+	public void startServer(String server) throws Exception {
+		boolean begun = beginOperation("startServer");
+		try {
+			executeOperation(String.format("/host=%s/server-config=%s:start", hostName, server));
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Stops a server of the host.
+	 *
+	 * @param server
+	 *            the server name
+	 * @throws Exception
+	 *             if the operation failed
+	 */
+	public void stopServer(String server) throws Exception {
+		boolean begun = beginOperation("stopServer");
+		try {
+			executeOperation(String.format("/host=%s/server-config=%s:stop", hostName, server));
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Executes a management operation on the host controller with jboss-cli.
+	 *
+	 * @param operation
+	 *            the operation in the CLI syntax
+	 * @return the result of jboss-cli
+	 * @throws Exception
+	 *             if the operation did not succeed
+	 */
+	protected CommandResult executeOperation(String operation) throws Exception {
+		CommandResult result = executeWithResult(String.format(
+				"%s/bin/jboss-cli.sh --connect --controller=%s:%d --command='%s'",
+				jbossHome, address, nativeManagementPort, operation));
+		if (!result.getOutput().contains("\"outcome\" => \"success\"")) {
+			throw new IllegalStateException(String.format("%s failed on %s: %s", operation, identifier,
+					result.getOutput()));
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The rules are submitted to all managed servers on the node.
+	 */
+	@Override
+	protected List<BytemanAgentClient> getAgentClients() throws Exception {
+		List<BytemanAgentClient> clients = new ArrayList<BytemanAgentClient>();
+		for (int i = 0; i < servers.size(); i++) {
+			clients.add(new BytemanAgentClient(getNodeConfig(DistributedConfig.NODE_ADDRESS), AGENT_PORT + i));
+		}
+		return clients;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * This also checks the JBoss installation, the configuration files and the
+	 * native management port.
+	 */
+	@Override
+	protected Map<String, String> getPreflightChecks() throws Exception {
+		Map<String, String> checks = super.getPreflightChecks();
+		addDirectoryCheck(checks, "node.jboss.eap6.home", jbossHome);
+		addFileCheck(checks, "domain.sh", jbossHome + "/bin/domain.sh");
+		addFileCheck(checks, "node.jboss.eap6.domain.config", baseDir + "/configuration/" + domainConfig);
+		addFileCheck(checks, "node.jboss.eap6.host.config", baseDir + "/configuration/" + hostConfig);
+		addPortCheck(checks, "native management", address, nativeManagementPort);
+		return checks;
+	}
+
+	/**
+	 * Returns the JVM options of a managed server in the CLI list syntax.
+	 *
+	 * @param agentPort
+	 *            the Byteman agent port of the server
+	 * @return the JVM options
+	 */
+	protected String getJvmOptions(int agentPort) {
+		StringBuilder jvmOptions = new StringBuilder();
+		String javaAgent = getJavaAgentOption();
+		if (javaAgent.length() > 0) {
+			javaAgent = javaAgent.replaceFirst(",port:\\d+", ",port:" + agentPort);
+			if (agentOptions != null && agentOptions.length() > 0) {
+				javaAgent = javaAgent + "," + agentOptions;
+			}
+			jvmOptions.append("\"").append(javaAgent).append("\",");
+		}
+		for (String option : getOptions().split("\\s+")) {
+			if (option.length() > 0) {
+				jvmOptions.append("\"").append(option).append("\",");
+			}
+		}
+		jvmOptions.append("\"-Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework");
+		for (String packageName : moduleSystemPackages) {
+			jvmOptions.append(",").append(packageName);
+		}
+		return jvmOptions.append("\"").toString();
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * These are host-controller.log and server.log of the managed servers.
+	 */
+	@Override
+	protected List<String> getLogFiles() {
+		List<String> files = new ArrayList<String>();
+		files.add(logDir + "/host-controller.log");
+		for (String server : servers) {
+			files.add(getServerLogDir(server) + "/server.log");
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the log directory path of the host controller.
+	 *
+	 * @return the log directory.
+	 */
+	public String getLogDir() {
+		return logDir;
+	}
+
+	/**
+	 * Returns the log directory path of a managed server.
+	 *
+	 * @param server
+	 *            the server name
+	 * @return the log directory.
+	 */
+	public String getServerLogDir(String server) {
+		return baseDir + "/servers/" + server + "/log";
+	}
+
+	/**
+	 * Returns the file on the node which has the size of server.log of a
+	 * managed server at the last {@link #start}.
+	 *
+	 * @param server
+	 *            the server name
+	 * @return the path of the file
+	 */
+	private String getLogOffsetFile(String server) {
+		return String.format("%s/byteman-%s.offset", logDir, server);
+	}
+
+	/**
+	 * Returns the bind address.
+	 *
+	 * @return the bind address.
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	private static List<String> split(String value) {
+		List<String> values = new ArrayList<String>();
+		if (value != null) {
+			for (String element : value.split(",")) {
+				if (element.trim().length() > 0) {
+					values.add(element.trim());
+				}
+			}
+		}
+		return values;
+	}
+}
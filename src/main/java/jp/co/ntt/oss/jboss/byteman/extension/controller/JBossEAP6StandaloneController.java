@@ -19,10 +19,28 @@
 
 package jp.co.ntt.oss.jboss.byteman.extension.controller;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
 
-import jp.co.ntt.oss.jboss.byteman.framework.controller.AbstractNodeController;
+import jp.co.ntt.oss.jboss.byteman.extension.controller.DeploymentReport.Deployment;
+import jp.co.ntt.oss.jboss.byteman.extension.controller.DeploymentReport.Status;
+import jp.co.ntt.oss.jboss.byteman.extension.util.Artifact;
+import jp.co.ntt.oss.jboss.byteman.extension.util.BytemanAgentClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.ManagementClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.RemoteShell;
 import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
 
 /**
@@ -73,6 +91,51 @@ import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
  * <td>Specify the server profile XML such as standalon.xml.</td>
  * </tr>
  * <tr>
+ * <td>node.jboss.eap6.management.port</td>
+ * <td>false</td>
+ * <td>9990</td>
+ * <td>Specify the HTTP management port of JBoss application server, before
+ * the port offset is added.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.port.offset</td>
+ * <td>false</td>
+ * <td>0</td>
+ * <td>Specify the value of -Djboss.socket.binding.port-offset. The offset is
+ * also added to the management port and the Byteman agent port, so that
+ * the nodes which have different base directories and offsets can share a
+ * host and a JBoss installation. The port of the RMI registry of the
+ * controller is not shifted, because it is the endpoint which all agents
+ * report to.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.management.user</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the user of the management realm, which is used by
+ * {@link #reload} and {@link #redeploy}.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.management.password</td>
+ * <td>false</td>
+ * <td>N/A</td>
+ * <td>Specify the password of the management user.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.cds.dir</td>
+ * <td>false</td>
+ * <td>[node.jboss.eap6.base.dir]/cds</td>
+ * <td>Specify the directory which the class data sharing archives are kept
+ * in. See {@link #setClassDataSharing}.</td>
+ * </tr>
+ * <tr>
+ * <td>node.jboss.eap6.runs.dir</td>
+ * <td>false</td>
+ * <td>[node.jboss.eap6.base.dir]-runs</td>
+ * <td>Specify the directory which the base directories of the runs are
+ * created in. See {@link #setProvisionBaseDir}.</td>
+ * </tr>
+ * <tr>
  * <td>deployment.destination</td>
  * <td>false</td>
  * <td>N/A</td>
@@ -94,8 +157,80 @@ import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
  * comma.</td>
  * </tr>
  * </table>
+ * <br/>
+ * The settings for the remote commands are described in
+ * {@link AbstractJBossController}.
  */
-public class JBossEAP6StandaloneController extends AbstractNodeController {
+public class JBossEAP6StandaloneController extends AbstractJBossController
+		implements AwaitableController {
+
+	/**
+	 * The log message which shows that the boot has completed.
+	 */
+	protected static final String STARTED_MESSAGE = "JBAS015874";
+
+	/**
+	 * The log message which shows that the boot has completed with errors.
+	 */
+	protected static final String STARTED_WITH_ERRORS_MESSAGE = "JBAS015875";
+
+	private static final long MIN_POLL_INTERVAL = 250;
+
+	private static final long MAX_POLL_INTERVAL = 2000;
+
+	/**
+	 * The bytes re-read before the saved offset so that a message which was
+	 * being written during the previous check is not missed.
+	 */
+	private static final long LOG_OVERLAP = 1024;
+
+	/**
+	 * The time to wait for the server which was launched with other settings
+	 * to exit, if the grace period of {@code stop()} is not set.
+	 */
+	private static final long REPLACE_GRACE_PERIOD = 60000;
+
+	/**
+	 * The number of the class data sharing archives which are kept on the
+	 * node, including the one of the current launch.
+	 */
+	private static final int CDS_ARCHIVES_KEPT = 3;
+
+	/**
+	 * The command which sets JVM to the java binary on the node, JDK to its
+	 * home and V to its feature version, or to 1 for JDK 8 and older.
+	 */
+	private static final String DETECT_JDK_COMMAND =
+			"JVM=$(readlink -f \"$(command -v ${JAVA_HOME:+$JAVA_HOME/bin/}java)\"); JDK=${JVM%/bin/java}; " +
+			"V=$(sed -n 's/^JAVA_VERSION=\"\\([0-9]*\\).*/\\1/p' $JDK/release 2>/dev/null); ";
+
+	/**
+	 * The oldest JDK which can dump a dynamic class data sharing archive.
+	 */
+	private static final int CDS_MIN_JDK = 13;
+
+	/**
+	 * The sub directories of the base directory which are copied for each run
+	 * instead of being hard-linked, because JBoss writes to the files in
+	 * them.
+	 */
+	private static final String COPIED_DIRS = "log|tmp|data|configuration";
+
+	/**
+	 * The glob which matches the rotation suffix of the run directories,
+	 * yyyyMMdd-HHmmss-SSS. The digits are matched one by one, so that the
+	 * directories of a node are not mixed up with those of another node whose
+	 * identifier starts with the same characters, such as node1 and node10
+	 * or node1-2.
+	 */
+	private static final String RUN_SUFFIX_GLOB = "[0-9][0-9][0-9][0-9][0-9][0-9][0-9][0-9]-"
+			+ "[0-9][0-9][0-9][0-9][0-9][0-9]-[0-9][0-9][0-9]";
+
+	/**
+	 * The default number of the base directories of the previous runs which
+	 * are kept on the node.
+	 */
+	public static final int DEFAULT_BASE_DIRS_KEPT = 3;
 
 	protected List<String> moduleSystemPackages = new ArrayList<String>();
 
@@ -103,6 +238,14 @@ public class JBossEAP6StandaloneController extends AbstractNodeController {
 
 	protected boolean cleanLogs = true;
 
+	protected boolean reuseRunningServer;
+
+	protected boolean classDataSharing;
+
+	protected boolean provisionBaseDir;
+
+	protected int baseDirsKept = DEFAULT_BASE_DIRS_KEPT;
+
 	protected String logDir;
 
 	protected String address;
@@ -115,6 +258,22 @@ public class JBossEAP6StandaloneController extends AbstractNodeController {
 
 	protected String pidfile;
 
+	protected String fingerprintFile;
+
+	protected String cdsDir;
+
+	protected String runsDir;
+
+	protected String runDir;
+
+	protected int managementPort;
+
+	protected int portOffset;
+
+	protected ManagementClient managementClient;
+
+	protected long logOffset;
+
 	/**
 	 * Constructs a new instance with an identifier.
 	 *
@@ -136,6 +295,12 @@ public class JBossEAP6StandaloneController extends AbstractNodeController {
 		logDir = baseDir + "/log";
 		profile = getNodeConfig("node.jboss.eap6.profile.config", "standalone.xml");
 		pidfile = logDir + "/jboss.pid";
+		fingerprintFile = logDir + "/jboss.fingerprint";
+		cdsDir = getNodeConfig("node.jboss.eap6.cds.dir", baseDir + "/cds");
+		runsDir = getNodeConfig("node.jboss.eap6.runs.dir", baseDir + "-runs");
+		runDir = null;
+		portOffset = Integer.parseInt(getNodeConfig("node.jboss.eap6.port.offset", "0"));
+		managementPort = Integer.parseInt(getNodeConfig("node.jboss.eap6.management.port", "9990")) + portOffset;
 	}
 
 	/**
@@ -175,61 +340,666 @@ public class JBossEAP6StandaloneController extends AbstractNodeController {
 		this.cleanLogs = cleanLogs;
 	}
 
+	/**
+	 * Sets the flag which specifies whether {@code start()} reuses the server
+	 * which is already running with the same settings.<br>
+	 * The fingerprint of the {@link LaunchSpec} is recorded next to the
+	 * pidfile at the launch. If the process of the pidfile is alive and its
+	 * fingerprint is the same as the current one, {@code start()} returns
+	 * without restarting. If it is alive with another fingerprint, it is
+	 * stopped before the launch.
+	 *
+	 * @param reuseRunningServer
+	 *            If true then the running server is reused. default is false.
+	 */
+	public void setReuseRunningServer(boolean reuseRunningServer) {
+		this.reuseRunningServer = reuseRunningServer;
+	}
+
+	/**
+	 * Sets the flag which specifies whether JBoss is launched with a dynamic
+	 * class data sharing archive, which maps the classes loaded in an earlier
+	 * run instead of loading them from the jars again.<br>
+	 * The archive is keyed by the {@link LaunchSpec} and by the JVM, the
+	 * jboss-modules.jar and the Byteman jars on the node, so it is replaced
+	 * when one of them changes. If the archive of the key does not exist, the
+	 * server is launched as the training run and the JVM dumps the archive
+	 * when it exits normally. The following launches use the archive. Only
+	 * the classes of the built-in class loaders are archived by the JVM,
+	 * which are the JDK, jboss-modules and the Byteman classes.<br>
+	 * The training run is the first launch of a key, and the archive is only
+	 * written if that server is stopped gracefully.<br>
+	 * This requires JDK 13 or later on the node, because the archives of JDK
+	 * 6 to 12 can only hold the classes of the boot class path or need a
+	 * separate dump step with a class list. The option is ignored at launch
+	 * for older JDKs, and {@link #preflight} reports them as a failure. On
+	 * JDK 19 or later, the JVM also recreates an archive which it can not
+	 * use.
+	 *
+	 * @param classDataSharing
+	 *            If true then the archive is used. default is false.
+	 */
+	public void setClassDataSharing(boolean classDataSharing) {
+		this.classDataSharing = classDataSharing;
+	}
+
+	/**
+	 * Sets the flag which specifies whether each start creates a new base
+	 * directory from node.jboss.eap6.base.dir, so that every run begins with
+	 * the same state.<br>
+	 * The new directory is created in node.jboss.eap6.runs.dir. The files are
+	 * hard-linked to the template, except for log, tmp, data and
+	 * configuration, which are copied because JBoss writes to them. The
+	 * copies are reflinks if the file system supports them. The base
+	 * directories of the older runs of the node are removed in the
+	 * background on the node, except for the latest ones and the ones whose
+	 * server is still running.
+	 *
+	 * @param provisionBaseDir
+	 *            If true then a new base directory is created for each run.
+	 *            default is false.
+	 */
+	public void setProvisionBaseDir(boolean provisionBaseDir) {
+		this.provisionBaseDir = provisionBaseDir;
+	}
+
+	/**
+	 * Sets the number of the base directories of the previous runs which are
+	 * kept on the node.
+	 *
+	 * @param baseDirsKept
+	 *            the number of the directories. default is 3.
+	 */
+	public void setBaseDirsKept(int baseDirsKept) {
+		this.baseDirsKept = baseDirsKept;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void start() throws Exception {
-		String javaOptions = null;
-		String bytemanScripts = getNodeConfig("node.byteman.scripts");
-		if (bytemanScripts != null) {
-			javaOptions = getBytemanAgentProperties(bytemanScripts.split(","));
-		} else {
-			javaOptions = getBytemanAgentProperties();
+		boolean begun = beginOperation("start");
+		try {
+			prepareJars();
+			LaunchSpec spec = getLaunchSpec();
+			if (reuseRunningServer) {
+				CommandResult result = executeWithResult(String.format(
+						"PID=%s; if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then " +
+						"if [ \"`cat %s 2>/dev/null`\" = \"%s\" ]; then echo LAUNCH:same; else echo LAUNCH:changed; fi; " +
+						"else echo LAUNCH:none; fi",
+						getServerPid(), fingerprintFile, spec.getFingerprint()));
+				if (result.getOutput().contains("LAUNCH:same")) {
+					logOffset = 0;
+					logger.debug("%s is already running with %s", identifier, spec.getFingerprint());
+					return;
+				}
+				if (result.getOutput().contains("LAUNCH:changed")) {
+					logger.debug("%s is running with other settings", identifier);
+					terminate(getServerPid(), String.format("rm -f %s", pidfile),
+							isStopBlocking() ? stopGracePeriod : REPLACE_GRACE_PERIOD);
+				}
+			}
+			if (provisionBaseDir) {
+				provision();
+				spec = getLaunchSpec();
+			}
+
+			if (rotateLogs) {
+				rotate(logDir);
+			} else if (cleanLogs) {
+				execute(String.format("mkdir %s; rm -rf %s/*", logDir,
+						logDir));
+			}
+			String recordFingerprint = reuseRunningServer ? String.format("mkdir -p %s; echo %s > %s; ", logDir,
+					spec.getFingerprint(), fingerprintFile) : "";
+			String selectArchive = classDataSharing ? getClassDataSharingCommand(spec) : "";
+			String exportBgflg = "export LAUNCH_JBOSS_IN_BACKGROUND=true;";
+			String exportPidfile = String.format("rm -f %1$s;export JBOSS_PIDFILE=%1$s;",
+					spec.get("pidfile"));
+			String exportBaseDir = String.format("export JBOSS_BASE_DIR=%s;", spec.get("baseDir"));
+
+			String setup = recordFingerprint + selectArchive + String
+					.format(exportBgflg
+							+ exportPidfile
+							+ exportBaseDir
+							+ "export JAVA_OPTS=\"$JAVA_OPTS %s\" && ",
+							spec.get("javaOptions") + (classDataSharing ? " $CDS_OPTS" : ""));
+			launch(setup, String.format("%s/bin/standalone.sh -b %s -bmanagement=%s -c %s", spec.get("jbossHome"),
+					spec.get("address"), spec.get("address"), spec.get("profile")), logDir + "/stdout.log");
+			logOffset = 0;
+			logger.debug("%s is starting", identifier);
+		} finally {
+			endOperation(begun);
 		}
+	}
 
-		if (agentOptions != null && agentOptions.length() > 0) {
+	/**
+	 * Returns the settings which JBoss is launched with.
+	 *
+	 * @return the launch spec
+	 */
+	protected LaunchSpec getLaunchSpec() {
+		String javaOptions = getJavaAgentOption();
+
+		if (javaOptions.length() > 0 && agentOptions != null && agentOptions.length() > 0) {
 			javaOptions = javaOptions + "," + agentOptions;
 		}
 
-		String options = getOptions();
+		String options = getJvmOptions();
 		if (options.length() > 0) {
-			javaOptions = javaOptions + " " + options;
+			javaOptions = javaOptions.length() > 0 ? javaOptions + " " + options : options;
 		}
 
-		javaOptions = javaOptions
-				+ " -Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework";
+		javaOptions = javaOptions + (javaOptions.length() > 0 ? " " : "")
+				+ "-Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework";
 		for (String packageName : moduleSystemPackages) {
 			javaOptions = javaOptions + "," + packageName;
 		}
+		if (portOffset != 0) {
+			javaOptions = javaOptions + " -Djboss.socket.binding.port-offset=" + portOffset;
+		}
 
-		if (cleanLogs) {
-			executeWithSSH(String.format("mkdir %s; rm -rf %s/*", logDir,
-					logDir));
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("jbossHome", jbossHome);
+		entries.put("baseDir", getBaseDir());
+		entries.put("address", address);
+		entries.put("profile", profile);
+		entries.put("pidfile", pidfile);
+		entries.put("javaOptions", javaOptions);
+		if (classDataSharing) {
+			entries.put("cdsDir", cdsDir);
 		}
-		String exportBgflg = "export LAUNCH_JBOSS_IN_BACKGROUND=true;";
-		String exportPidfile = String.format("export JBOSS_PIDFILE=%s;",
-				pidfile);
-		String exportBaseDir = String.format("export JBOSS_BASE_DIR=%s;", baseDir);
+		return new LaunchSpec(entries);
+	}
 
-		String startCommand = String
-				.format(exportBgflg
-						+ exportPidfile
-						+ exportBaseDir
-						+ "export JAVA_OPTS=\"$JAVA_OPTS %s\" && bash -c \"nohup %s/bin/standalone.sh -b %s -bmanagement=%s -c %s&> %s/stdout.log &\"",
-						javaOptions, jbossHome, address, address, profile,
-						logDir);
-		executeWithSSH(startCommand);
-		logger.debug("%s is starting", identifier);
+	/**
+	 * Creates a new base directory from the template and removes the old ones
+	 * in the background. The following commands use the new directory.
+	 *
+	 * @throws Exception
+	 *             if the directory could not be created
+	 */
+	protected void provision() throws Exception {
+		String dir = runsDir + "/" + identifier + "-" + getRotationSuffix();
+		CommandResult result = executeWithResult(String.format(
+				"mkdir -p %1$s && mkdir %2$s || exit 1; " +
+				"for F in %3$s/* %3$s/.[!.]*; do [ -e \"$F\" ] || continue; " +
+				"case ${F##*/} in %4$s) cp -a --reflink=auto \"$F\" %2$s/ ;; *) cp -al \"$F\" %2$s/ ;; esac " +
+				"|| exit 1; done; mkdir -p %2$s/log %2$s/tmp %2$s/data; " +
+				"(for D in `ls -dt %1$s/%5$s-%7$s/ | tail -n +%6$d`; do P=`cat $D/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$P\" ] && kill -0 $P 2>/dev/null; then continue; fi; nice -n 10 rm -rf $D; done) " +
+				"> /dev/null 2>&1 &",
+				runsDir, dir, baseDir, COPIED_DIRS, identifier, baseDirsKept + 2, RUN_SUFFIX_GLOB));
+		if (!result.isSuccess()) {
+			throw new IOException(String.format("failed to create %s on %s: %s", dir, identifier,
+					result.getError()));
+		}
+		runDir = dir;
+		logDir = dir + "/log";
+		pidfile = logDir + "/jboss.pid";
+		fingerprintFile = logDir + "/jboss.fingerprint";
+		logger.debug("%s created %s", identifier, dir);
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Returns the command which sets CDS_OPTS to the JVM options of the class
+	 * data sharing archive.<br>
+	 * The key of the archive is the SHA-1 digest of the JBoss home and the
+	 * JVM options of the launch spec, the release file of the JDK, and the
+	 * sizes and the modification times of the JVM and the jars. The paths of
+	 * the base directory are not a part of the key, so that the archive is
+	 * shared by the provisioned base directories. When a new archive is to
+	 * be dumped, the old archives are removed except for the latest ones.
+	 *
+	 * @param spec
+	 *            the launch spec
+	 * @return the command
+	 */
+	protected String getClassDataSharingCommand(LaunchSpec spec) {
+		StringBuilder jars = new StringBuilder(spec.get("jbossHome")).append("/jboss-modules.jar");
+		if (agentEnabled) {
+			jars.append(" ").append(getJarPath("node.byteman.jar"));
+			jars.append(" ").append(getJarPath("node.bytemanframework.jar"));
+		}
+		return String.format(
+				"CDS=%1$s; mkdir -p $CDS; %5$s" +
+				"KEY=$( (echo %2$s; cat $JDK/release; stat -L -c '%%n %%s %%Y' $JVM $JDK/lib/modules %3$s) 2>/dev/null " +
+				"| sha1sum | cut -c1-40); CDS_OPTS=; " +
+				"if [ \"${V:-0}\" -ge %6$d ]; then " +
+				"if [ ! -s $CDS/$KEY.jsa ]; then ls -t $CDS/*.jsa 2>/dev/null | tail -n +%4$d | xargs -r rm -f; fi; " +
+				"if [ $V -ge 19 ]; then CDS_OPTS=\"-XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=$CDS/$KEY.jsa\"; " +
+				"elif [ -s $CDS/$KEY.jsa ]; then CDS_OPTS=\"-XX:SharedArchiveFile=$CDS/$KEY.jsa\"; " +
+				"else CDS_OPTS=\"-XX:ArchiveClassesAtExit=$CDS/$KEY.jsa\"; fi; fi; ",
+				cdsDir, getClassDataSharingKey(spec), jars, CDS_ARCHIVES_KEPT, DETECT_JDK_COMMAND, CDS_MIN_JDK);
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The listener port is shifted by the port offset.
+	 */
+	@Override
+	protected String getJavaAgentOption() {
+		String javaAgent = super.getJavaAgentOption();
+		Matcher port = AGENT_PORT_OPTION.matcher(javaAgent);
+		if (portOffset == 0 || !port.find()) {
+			return javaAgent;
+		}
+		return javaAgent.substring(0, port.start()) + ",port:" + (Integer.parseInt(port.group(1)) + portOffset)
+				+ javaAgent.substring(port.end());
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The listener port is shifted by the port offset.
+	 */
+	@Override
+	protected List<BytemanAgentClient> getAgentClients() throws Exception {
+		List<BytemanAgentClient> clients = new ArrayList<BytemanAgentClient>();
+		for (BytemanAgentClient client : super.getAgentClients()) {
+			clients.add(new BytemanAgentClient(client.getHost(), client.getPort() + portOffset));
+		}
+		return clients;
+	}
+
+	private static String getClassDataSharingKey(LaunchSpec spec) {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("jbossHome", spec.get("jbossHome"));
+		entries.put("javaOptions", spec.get("javaOptions"));
+		return new LaunchSpec(entries).getFingerprint();
+	}
+
+	/**
+	 * Waits until JBoss has finished booting.<br>
+	 * The pidfile, the management interface and the new part of stdout.log
+	 * are checked together in one command per poll. Only the lines which
+	 * contain the boot-complete message are sent back from the node.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if JBoss has started, false if the timeout elapsed
+	 * @throws Exception
+	 *             if the JBoss process exited or JBoss started with errors
+	 */
+	public boolean awaitStarted(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStarted");
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			long interval = MIN_POLL_INTERVAL;
+			// the log is scanned from the offset reached by the previous poll,
+			// so the message is seen only once and has to be remembered
+			boolean started = false;
+			while (true) {
+				CommandResult result = executeWithResult(String.format(
+						"if [ -f %1$s ]; then " +
+						"if kill -0 `cat %1$s` 2>/dev/null; then echo PID:alive; else echo PID:dead; fi; " +
+						"else echo PID:none; fi; " +
+						"if bash -c 'exec 3<>/dev/tcp/%3$s/%4$d' 2>/dev/null; " +
+						"then echo MANAGEMENT:up; else echo MANAGEMENT:down; fi; " +
+						"SIZE=`stat -c %%s %2$s 2>/dev/null || echo 0`; echo SIZE:$SIZE; " +
+						"[ $SIZE -ge %5$d ] && tail -c +%6$d %2$s | head -c $(($SIZE - %5$d)) | grep -E '%7$s'",
+						pidfile, logDir + "/stdout.log", address, managementPort,
+						logOffset, logOffset + 1, STARTED_MESSAGE + "|" + STARTED_WITH_ERRORS_MESSAGE));
+
+				boolean alive = false;
+				boolean managementUp = false;
+				for (String line : result.getOutputLines()) {
+					if (line.equals("PID:dead")) {
+						throw new IllegalStateException(String.format("%s exited while starting", identifier));
+					} else if (line.equals("PID:alive")) {
+						alive = true;
+					} else if (line.equals("MANAGEMENT:up")) {
+						managementUp = true;
+					} else if (line.startsWith("SIZE:")) {
+						long size = Long.parseLong(line.substring("SIZE:".length()));
+						logOffset = size < logOffset ? 0 : Math.max(logOffset, size - LOG_OVERLAP);
+					} else if (line.contains(STARTED_WITH_ERRORS_MESSAGE)) {
+						throw new IllegalStateException(String.format("%s started with errors: %s", identifier, line));
+					} else if (line.contains(STARTED_MESSAGE)) {
+						started = true;
+					}
+				}
+				if (alive && managementUp && started) {
+					logger.debug("%s has started", identifier);
+					return true;
+				}
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				pause(Math.min(interval, remaining));
+				interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+			}
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Waits until the next check of {@link #awaitStarted}.
+	 *
+	 * @param millis
+	 *            the time to wait in milliseconds
+	 * @throws Exception
+	 *             if the server has exited while waiting
+	 */
+	protected void pause(long millis) throws Exception {
+		Thread.sleep(millis);
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * If the grace period is set by {@link #setStopGracePeriod}, this method
+	 * waits for JBoss to exit, kills it if the period elapses, and removes the
+	 * pidfile.
 	 */
 	@Override
 	public void stop() throws Exception {
-		executeWithSSH(String.format("bash -c \"kill -15 `cat %s`\"", pidfile));
-		logger.debug("%s is stopping", identifier);
+		boolean begun = beginOperation("stop");
+		try {
+			if (isStopBlocking()) {
+				terminate(getServerPid(), String.format("rm -f %s", pidfile));
+				logger.debug("%s has stopped", identifier);
+				return;
+			}
+			execute(String.format("bash -c \"kill -15 `cat %s`\"", pidfile));
+			logger.debug("%s is stopping", identifier);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws Exception {
+		boolean begun = beginOperation("awaitStopped");
+		try {
+			return awaitExit(getServerPid(), timeout, unit);
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected String getServerPid() {
+		return String.format("`cat %s 2>/dev/null`", pidfile);
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * This also checks the JBoss installation, the profile and the management
+	 * port, and the version of the JDK if the class data sharing is enabled.
+	 */
+	@Override
+	protected Map<String, String> getPreflightChecks() throws Exception {
+		Map<String, String> checks = super.getPreflightChecks();
+		addDirectoryCheck(checks, "node.jboss.eap6.home", jbossHome);
+		addFileCheck(checks, "standalone.sh", jbossHome + "/bin/standalone.sh");
+		addDirectoryCheck(checks, "node.jboss.eap6.base.dir", baseDir);
+		addFileCheck(checks, "node.jboss.eap6.profile.config", baseDir + "/configuration/" + profile);
+		addPortCheck(checks, "management", address, managementPort);
+		if (classDataSharing) {
+			checks.put(String.format("class data sharing requires JDK %d or later", CDS_MIN_JDK),
+					String.format("( %s[ \"${V:-0}\" -ge %d ] )", DETECT_JDK_COMMAND, CDS_MIN_JDK));
+		}
+		return checks;
+	}
+
+	/**
+	 * Reloads the configuration and the deployments of JBoss without
+	 * restarting the JVM, and waits until JBoss is running again.<br>
+	 * The operation is sent to the HTTP management interface, so the JVM
+	 * options and the Byteman agent are kept. The end of the reload is
+	 * detected by {@link #awaitStarted} from the boot-complete message which
+	 * JBoss writes to stdout.log after the size recorded before the reload.
+	 * The server state alone can not tell whether the reload has begun.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @throws Exception
+	 *             if the reload failed or did not finish in time
+	 */
+	public void reload(long timeout, TimeUnit unit) throws Exception {
+		ManagementClient client = getManagementClient();
+		long offset = -1;
+		for (String line : executeWithResult(String.format("echo SIZE:`stat -c %%s %s 2>/dev/null || echo 0`",
+				logDir + "/stdout.log")).getOutputLines()) {
+			if (line.startsWith("SIZE:")) {
+				offset = Long.parseLong(line.substring("SIZE:".length()));
+			}
+		}
+		if (offset < 0) {
+			throw new IOException(String.format("failed to read the size of stdout.log on %s", identifier));
+		}
+		client.reload();
+		logOffset = offset;
+		if (!awaitStarted(timeout, unit)) {
+			throw new TimeoutException(String.format("%s was not reloaded within %d %s",
+					identifier, timeout, unit));
+		}
+		logger.debug("%s has reloaded", identifier);
+	}
+
+	/**
+	 * Redeploys a deployment through the HTTP management interface and waits
+	 * for the result.
+	 *
+	 * @param deployment
+	 *            the deployment name such as example.war
+	 * @throws Exception
+	 *             if the redeployment failed
+	 */
+	public void redeploy(String deployment) throws Exception {
+		getManagementClient().redeploy(deployment);
+		logger.debug("%s has redeployed %s", identifier, deployment);
+	}
+
+	/**
+	 * Deploys files through the deployment scanner.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait for the scanner
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @param files
+	 *            the files to deploy
+	 * @return the result of each file
+	 * @throws Exception
+	 *             if a file could not be sent
+	 * @see #deploy(long, TimeUnit, Artifact...)
+	 */
+	public DeploymentReport deploy(long timeout, TimeUnit unit, File... files) throws Exception {
+		Artifact[] artifacts = new Artifact[files.length];
+		for (int i = 0; i < files.length; i++) {
+			artifacts[i] = new Artifact(files[i]);
+		}
+		return deploy(timeout, unit, artifacts);
+	}
+
+	/**
+	 * Deploys artifacts through the deployment scanner, and waits for the
+	 * scanner to report the results by the marker files.<br>
+	 * The artifacts are copied to the deployments directory under the base
+	 * directory, instead of deployment.destination. An artifact whose
+	 * checksum is the same as the deployed file is not sent again. The other
+	 * artifacts are sent compressed through the SSH channel, and are moved
+	 * into place before the .dodeploy marker is created, so that the scanner
+	 * never sees a partial file.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait for the scanner
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @param artifacts
+	 *            the artifacts to deploy
+	 * @return the result of each artifact. The artifacts which the scanner
+	 *         did not finish in time are reported as pending.
+	 * @throws Exception
+	 *             if an artifact could not be sent
+	 */
+	public DeploymentReport deploy(long timeout, TimeUnit unit, Artifact... artifacts) throws Exception {
+		boolean begun = beginOperation("deploy");
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			String dir = getBaseDir() + "/deployments";
+			StringBuilder names = new StringBuilder();
+			for (Artifact artifact : artifacts) {
+				names.append(" '").append(artifact.getName()).append("'");
+			}
+
+			CommandResult result = executeWithResult(String.format(
+					"cd %s || exit 1; for N in%s; do " +
+					"if [ -f \".$N.sha1\" ] && [ ! \".$N.sha1\" -ot \"$N\" ]; then H=`cat \".$N.sha1\"`; " +
+					"elif [ -f \"$N\" ]; then H=`sha1sum < \"$N\" | cut -c1-40`; else H=none; fi; " +
+					"if [ -e \"$N.deployed\" ]; then D=deployed; else D=none; fi; " +
+					"echo \"SHA:$H:$D:$N\"; done",
+					dir, names));
+			if (!result.isSuccess()) {
+				throw new IOException(String.format("%s has no deployments directory %s", identifier, dir));
+			}
+			Map<String, String> checksums = new HashMap<String, String>();
+			Set<String> deployed = new HashSet<String>();
+			for (String line : result.getOutputLines()) {
+				String[] fields = line.split(":", 4);
+				if (fields.length == 4 && fields[0].equals("SHA")) {
+					checksums.put(fields[3], fields[1]);
+					if (fields[2].equals("deployed")) {
+						deployed.add(fields[3]);
+					}
+				}
+			}
+
+			Map<String, Deployment> deployments = new LinkedHashMap<String, Deployment>();
+			for (Artifact artifact : artifacts) {
+				String name = artifact.getName();
+				boolean sameContent = artifact.getChecksum().equals(checksums.get(name));
+				if (sameContent && deployed.contains(name)) {
+					deployments.put(name, new Deployment(name, Status.UNCHANGED, null));
+					continue;
+				}
+				deployments.put(name, new Deployment(name, Status.PENDING, null));
+				if (sameContent) {
+					executeWithResult(String.format("cd %s && rm -f '%2$s.failed' && touch '%2$s.dodeploy'",
+							dir, name));
+				} else {
+					upload(dir, artifact);
+				}
+			}
+
+			long interval = MIN_POLL_INTERVAL;
+			while (true) {
+				StringBuilder pending = new StringBuilder();
+				for (Deployment deployment : deployments.values()) {
+					if (deployment.getStatus() == Status.PENDING) {
+						pending.append(" '").append(deployment.getName()).append("'");
+					}
+				}
+				if (pending.length() == 0) {
+					break;
+				}
+				result = executeWithResult(String.format(
+						"cd %s || exit 1; for N in%s; do " +
+						"if [ -e \"$N.dodeploy\" ] || [ -e \"$N.isdeploying\" ] || [ -e \"$N.pending\" ]; then " +
+						"echo \"DEPLOY:pending:$N\"; " +
+						"elif [ -e \"$N.failed\" ] && [ ! \"$N.failed\" -ot \"$N\" ]; then " +
+						"echo \"DEPLOY:failed:$N:`tr '\\n' ' ' < \"$N.failed\"`\"; " +
+						"elif [ -e \"$N.deployed\" ] && [ ! \"$N.deployed\" -ot \"$N\" ]; then " +
+						"echo \"DEPLOY:deployed:$N\"; " +
+						"else echo \"DEPLOY:pending:$N\"; fi; done",
+						dir, pending));
+				for (String line : result.getOutputLines()) {
+					String[] fields = line.split(":", 4);
+					if (fields.length < 3 || !fields[0].equals("DEPLOY")) {
+						continue;
+					}
+					if (fields[1].equals("deployed")) {
+						deployments.put(fields[2], new Deployment(fields[2], Status.DEPLOYED, null));
+					} else if (fields[1].equals("failed")) {
+						deployments.put(fields[2], new Deployment(fields[2], Status.FAILED,
+								fields.length == 4 ? fields[3].trim() : null));
+					}
+				}
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					break;
+				}
+				Thread.sleep(Math.min(interval, remaining));
+				interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+			}
+
+			DeploymentReport report = new DeploymentReport(identifier,
+					new ArrayList<Deployment>(deployments.values()));
+			logger.debug("%s", report);
+			return report;
+		} finally {
+			endOperation(begun);
+		}
+	}
+
+	/**
+	 * Sends an artifact compressed to the deployments directory, and creates
+	 * the .dodeploy marker.
+	 *
+	 * @param dir
+	 *            the deployments directory
+	 * @param artifact
+	 *            the artifact
+	 * @throws Exception
+	 *             if the artifact could not be sent
+	 */
+	protected void upload(String dir, Artifact artifact) throws Exception {
+		RemoteShell shell = getConnectedShell();
+		InputStream in = artifact.openCompressed();
+		long begin = System.nanoTime();
+		try {
+			CommandResult result = shell.execute(String.format(
+					"cd %1$s && rm -f '%2$s.failed' && gzip -dc > '.%2$s.part' && mv -f '.%2$s.part' '%2$s' && " +
+					"echo %3$s > '.%2$s.sha1.part' && mv -f '.%2$s.sha1.part' '.%2$s.sha1' && touch '%2$s.dodeploy'",
+					dir, artifact.getName(), artifact.getChecksum()), in);
+			if (!result.isSuccess()) {
+				throw new IOException(String.format("%s failed to receive %s: %s",
+						identifier, artifact.getName(), result.getError()));
+			}
+		} finally {
+			recordTiming("transfer", begin);
+			in.close();
+		}
+		logger.debug("%s has received %s", identifier, artifact.getName());
+	}
+
+	/**
+	 * Returns the client of the HTTP management interface.
+	 *
+	 * @return the management client
+	 * @throws Exception
+	 *             if the client could not be created
+	 */
+	protected ManagementClient getManagementClient() throws Exception {
+		if (managementClient == null) {
+			managementClient = new ManagementClient(address, managementPort,
+					getNodeConfig("node.jboss.eap6.management.user"),
+					getNodeConfig("node.jboss.eap6.management.password"));
+		}
+		return managementClient;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * These are stdout.log and server.log in the log directory.
+	 */
+	@Override
+	protected List<String> getLogFiles() {
+		return Arrays.asList(logDir + "/stdout.log", logDir + "/server.log");
 	}
 
 	/**
@@ -241,6 +1011,16 @@ public class JBossEAP6StandaloneController extends AbstractNodeController {
 		return logDir;
 	}
 
+	/**
+	 * Returns the base directory which JBoss runs in. This is the directory
+	 * of the current run if the base directories are provisioned.
+	 *
+	 * @return the base directory
+	 */
+	public String getBaseDir() {
+		return runDir != null ? runDir : baseDir;
+	}
+
 	/**
 	 * Returns the bind address.
 	 *
@@ -0,0 +1,120 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The immutable set of the settings which a server is launched with.
+ *
+ * Two specs which have the same entries in the same order have the same
+ * fingerprint, so the fingerprint recorded on the node at the launch tells
+ * whether the running server was launched with the current settings.
+ */
+public final class LaunchSpec {
+
+	private final Map<String, String> entries;
+
+	private final String fingerprint;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param entries
+	 *            the settings in a stable order. The map is copied.
+	 */
+	public LaunchSpec(Map<String, String> entries) {
+		this.entries = Collections.unmodifiableMap(new LinkedHashMap<String, String>(entries));
+		this.fingerprint = digest(toString());
+	}
+
+	/**
+	 * Returns a setting.
+	 *
+	 * @param name
+	 *            the setting name
+	 * @return the value, or null if the spec does not have the setting
+	 */
+	public String get(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Returns all settings.
+	 *
+	 * @return the unmodifiable map of the settings
+	 */
+	public Map<String, String> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns the SHA-1 digest of the settings in hexadecimal.
+	 *
+	 * @return the fingerprint
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof LaunchSpec && entries.equals(((LaunchSpec) obj).entries);
+	}
+
+	@Override
+	public int hashCode() {
+		return entries.hashCode();
+	}
+
+	/**
+	 * Returns the settings as name=value lines.
+	 *
+	 * @return the settings
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		return builder.toString();
+	}
+
+	private static String digest(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
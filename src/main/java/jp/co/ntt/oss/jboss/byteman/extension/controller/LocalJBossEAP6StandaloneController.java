@@ -0,0 +1,117 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.LocalProcess;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LocalShell;
+
+/**
+ * The controller class for standalone mode of JBoss EAP6 which runs on the
+ * same host as the controller.
+ *
+ * The commands are executed by bash on the local host instead of SSH, so
+ * node.ssh.username and node.ssh.password are not required. JBoss is
+ * launched as a child process with the same Byteman agent options, pidfile
+ * and log directory as {@link JBossEAP6StandaloneController}, and its exit
+ * is detected from the process itself.<br>
+ * The other properties are described in
+ * {@link JBossEAP6StandaloneController}.
+ */
+public class LocalJBossEAP6StandaloneController extends JBossEAP6StandaloneController {
+
+	protected final LocalLauncher launcher;
+
+	/**
+	 * Constructs a new instance with an identifier.
+	 *
+	 * @param identifier
+	 *            a target node identifier
+	 */
+	public LocalJBossEAP6StandaloneController(String identifier) {
+		super(identifier);
+		remoteShell = new LocalShell();
+		launcher = new LocalLauncher(identifier);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void start() throws Exception {
+		launcher.forgetExited();
+		super.start();
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * JBoss is launched as a child process and its output is written to the
+	 * log file by the controller.
+	 */
+	@Override
+	protected void launch(String setup, String command, String logFile) throws Exception {
+		launcher.launch(setup, command, logFile);
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * This fails as soon as the launched process exits.
+	 */
+	@Override
+	protected void pause(long millis) throws Exception {
+		if (launcher.isLaunched()) {
+			launcher.pause(millis);
+		} else {
+			super.pause(millis);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws Exception {
+		if (!launcher.isLaunched()) {
+			return super.awaitStopped(timeout, unit);
+		}
+		return launcher.awaitExit(timeout, unit);
+	}
+
+	/**
+	 * Returns the process of JBoss which was launched by this controller.
+	 *
+	 * @return the process, or null if JBoss has not been launched by this
+	 *         controller
+	 */
+	public LocalProcess getProcess() {
+		return launcher.getProcess();
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The commands are always executed by the local shell, which keeps no
+	 * session.
+	 */
+	@Override
+	protected boolean isSessionPooled() {
+		return true;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.LocalProcess;
+
+/**
+ * Launches the server of a local controller as a child process of the
+ * controller, and watches the process.
+ *
+ * The server is exec'ed by the launching shell, so that the process is the
+ * server itself and its exit is detected without polling the node.
+ */
+class LocalLauncher {
+
+	private final String identifier;
+
+	private volatile LocalProcess process;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param identifier
+	 *            the identifier of the node
+	 */
+	LocalLauncher(String identifier) {
+		this.identifier = identifier;
+	}
+
+	/**
+	 * Launches the server, whose output is written to the log file.
+	 *
+	 * @param setup
+	 *            the commands which prepare the environment of the server
+	 * @param command
+	 *            the command line of the server
+	 * @param logFile
+	 *            the path of the log file
+	 * @throws IOException
+	 *             if the process could not be started
+	 */
+	void launch(String setup, String command, String logFile) throws IOException {
+		process = LocalProcess.start(setup + "exec " + command, new File(logFile));
+	}
+
+	/**
+	 * Returns the process which was launched.
+	 *
+	 * @return the process, or null if the server has not been launched
+	 */
+	LocalProcess getProcess() {
+		return process;
+	}
+
+	/**
+	 * Forgets the process if it has exited, so that a server which was
+	 * started by other means is checked on the node.
+	 */
+	void forgetExited() {
+		LocalProcess current = process;
+		if (current != null && !current.isAlive()) {
+			process = null;
+		}
+	}
+
+	/**
+	 * Returns whether the server has been launched by this launcher.
+	 *
+	 * @return true if the process is known
+	 */
+	boolean isLaunched() {
+		return process != null;
+	}
+
+	/**
+	 * Returns whether the launched process is running.
+	 *
+	 * @return true if the process is running
+	 */
+	boolean isAlive() {
+		return process.isAlive();
+	}
+
+	/**
+	 * Waits for the launched process to exit.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the process has exited
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean awaitExit(long timeout, TimeUnit unit) throws InterruptedException {
+		return process.awaitExit(timeout, unit);
+	}
+
+	/**
+	 * Waits while the server is starting, and fails as soon as the launched
+	 * process exits.
+	 *
+	 * @param millis
+	 *            the time to wait in milliseconds
+	 * @throws IllegalStateException
+	 *             if the process has exited
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	void pause(long millis) throws InterruptedException {
+		if (process.awaitExit(millis, TimeUnit.MILLISECONDS)) {
+			throw new IllegalStateException(String.format("%s exited with %d while starting", identifier,
+					process.getExitValue()));
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of the checks which are done on a node before launching the
+ * server.
+ */
+public class PreflightReport {
+
+	private final String identifier;
+
+	private final List<Check> checks;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param identifier
+	 *            the node identifier
+	 * @param checks
+	 *            the results of the checks
+	 */
+	public PreflightReport(String identifier, List<Check> checks) {
+		this.identifier = identifier;
+		this.checks = Collections.unmodifiableList(new ArrayList<Check>(checks));
+	}
+
+	/**
+	 * Returns the node identifier.
+	 *
+	 * @return the node identifier
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Returns the results of all checks in the order of execution.
+	 *
+	 * @return the results
+	 */
+	public List<Check> getChecks() {
+		return checks;
+	}
+
+	/**
+	 * Returns the results of the failed checks.
+	 *
+	 * @return the failed results
+	 */
+	public List<Check> getFailures() {
+		List<Check> failures = new ArrayList<Check>();
+		for (Check check : checks) {
+			if (!check.isPassed()) {
+				failures.add(check);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Returns whether all checks have passed.
+	 *
+	 * @return true if all checks have passed
+	 */
+	public boolean isPassed() {
+		return getFailures().isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(identifier).append(isPassed() ? ": passed" : ": failed");
+		for (Check check : checks) {
+			builder.append("\n  [").append(check.isPassed() ? "OK" : "NG").append("] ").append(check.getName());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The result of a check.
+	 */
+	public static class Check {
+
+		private final String name;
+
+		private final boolean passed;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param name
+		 *            the description of the check
+		 * @param passed
+		 *            true if the check has passed
+		 */
+		public Check(String name, boolean passed) {
+			this.name = name;
+			this.passed = passed;
+		}
+
+		/**
+		 * Returns the description of the check.
+		 *
+		 * @return the description
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns whether the check has passed.
+		 *
+		 * @return true if the check has passed
+		 */
+		public boolean isPassed() {
+			return passed;
+		}
+	}
+}
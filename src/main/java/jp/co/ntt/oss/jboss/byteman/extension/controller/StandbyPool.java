@@ -0,0 +1,391 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pool of the JBoss EAP6 servers which are booted in advance, so that a
+ * test can take a running server instead of waiting for {@code start()}.
+ *
+ * Each server of the pool is a node of its own identifier, which has its own
+ * address or node.jboss.eap6.port.offset and base directory. The servers are
+ * started with the Byteman agent, so the rules of a test are loaded by
+ * {@link AbstractJBossController#applyRules} after {@link #lease}. The nodes
+ * should not have node.byteman.scripts for the same reason.<br>
+ * When a server is leased, another one is booted in the background to keep
+ * the number of the ready servers. A released server is restarted in the
+ * background and returned to the pool.
+ *
+ * <pre>
+ * StandbyPool pool = StandbyPool.create("standby1", "standby2", "standby3");
+ * pool.setSize(2);
+ * pool.start();
+ * ...
+ * JBossEAP6StandaloneController server = pool.lease(10, TimeUnit.MINUTES);
+ * try {
+ *     server.applyRules("scenario.btm");
+ *     ...
+ * } finally {
+ *     pool.release(server);
+ * }
+ * ...
+ * pool.close();
+ * </pre>
+ */
+public class StandbyPool {
+
+	/**
+	 * The default time to wait for a server to finish booting, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_START_TIMEOUT = ClusterController.DEFAULT_START_TIMEOUT;
+
+	/**
+	 * The default time to wait for a released server to exit, in milliseconds.
+	 */
+	public static final long DEFAULT_STOP_TIMEOUT = ClusterController.DEFAULT_STOP_TIMEOUT;
+
+	protected final List<JBossEAP6StandaloneController> controllers = new ArrayList<JBossEAP6StandaloneController>();
+
+	protected int size = -1;
+
+	protected long startTimeout = DEFAULT_START_TIMEOUT;
+
+	protected long stopTimeout = DEFAULT_STOP_TIMEOUT;
+
+	protected boolean restartOnRelease = true;
+
+	private final LinkedList<JBossEAP6StandaloneController> idle = new LinkedList<JBossEAP6StandaloneController>();
+
+	private final BlockingQueue<JBossEAP6StandaloneController> ready = new LinkedBlockingQueue<JBossEAP6StandaloneController>();
+
+	private final List<JBossEAP6StandaloneController> leased = new ArrayList<JBossEAP6StandaloneController>();
+
+	private int booting;
+
+	private Exception lastFailure;
+
+	private ExecutorService executor;
+
+	/**
+	 * Creates a pool which has a controller for each identifier.
+	 *
+	 * @param identifiers
+	 *            the identifiers of the spare nodes
+	 * @return the pool
+	 */
+	public static StandbyPool create(String... identifiers) {
+		StandbyPool pool = new StandbyPool();
+		for (String identifier : identifiers) {
+			pool.addController(new JBossEAP6StandaloneController(identifier));
+		}
+		return pool;
+	}
+
+	/**
+	 * Adds a controller of a spare node to this pool. The server must not be
+	 * running.
+	 *
+	 * @param controller
+	 *            the controller
+	 */
+	public synchronized void addController(JBossEAP6StandaloneController controller) {
+		controllers.add(controller);
+		idle.add(controller);
+	}
+
+	/**
+	 * Sets the number of the servers which are kept booted and not leased.
+	 *
+	 * @param size
+	 *            the number of the servers. default is the number of the
+	 *            controllers.
+	 */
+	public synchronized void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Sets the maximum time to wait for a server to finish booting.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setStartTimeout(long timeout, TimeUnit unit) {
+		this.startTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the maximum time to wait for a released server to exit.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setStopTimeout(long timeout, TimeUnit unit) {
+		this.stopTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the flag which specifies whether a released server is restarted
+	 * before it is leased again.
+	 *
+	 * @param restartOnRelease
+	 *            If true then the server is restarted. If false then only the
+	 *            rules are unloaded, and the state of the server such as the
+	 *            deployments is kept. default is true.
+	 */
+	public void setRestartOnRelease(boolean restartOnRelease) {
+		this.restartOnRelease = restartOnRelease;
+	}
+
+	/**
+	 * Starts to boot the servers in the background. This returns without
+	 * waiting for the boot.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			throw new IllegalStateException("the pool has already been started");
+		}
+		executor = Executors.newCachedThreadPool(new StandbyThreadFactory());
+		refill();
+	}
+
+	/**
+	 * Takes a booted server from the pool, and starts to boot another one in
+	 * the background. If no server was ready in time, the servers whose boot
+	 * has failed are booted again in the background, so that a later call can
+	 * succeed.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait for a server to be ready
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return the controller of the server
+	 * @throws Exception
+	 *             if no server was ready in time
+	 */
+	public JBossEAP6StandaloneController lease(long timeout, TimeUnit unit) throws Exception {
+		JBossEAP6StandaloneController controller = ready.poll(timeout, unit);
+		synchronized (this) {
+			if (controller == null) {
+				if (executor == null) {
+					throw new IllegalStateException("the pool has not been started");
+				}
+				refill();
+				throw (TimeoutException) new TimeoutException(String.format(
+						"no standby server was ready within %d ms", unit.toMillis(timeout))).initCause(lastFailure);
+			}
+			leased.add(controller);
+			refill();
+		}
+		return controller;
+	}
+
+	/**
+	 * Returns a leased server to the pool. The server is recycled in the
+	 * background.
+	 *
+	 * @param controller
+	 *            the controller which has been returned by {@link #lease}
+	 */
+	public synchronized void release(final JBossEAP6StandaloneController controller) {
+		if (!leased.remove(controller)) {
+			throw new IllegalArgumentException(controller + " is not leased from this pool");
+		}
+		if (executor == null) {
+			idle.add(controller);
+			return;
+		}
+		booting++;
+		executor.execute(new Runnable() {
+			public void run() {
+				boot(controller, true);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of the servers which are ready to be leased.
+	 *
+	 * @return the number of the servers
+	 */
+	public int getReadyCount() {
+		return ready.size();
+	}
+
+	/**
+	 * Returns the number of the servers which are booting or being recycled.
+	 *
+	 * @return the number of the servers
+	 */
+	public synchronized int getBootingCount() {
+		return booting;
+	}
+
+	/**
+	 * Stops the servers of the pool which are not leased, and stops booting
+	 * more. The leased servers are stopped by the caller. The timings of the
+	 * commands sent by every controller of the pool are written to the result
+	 * directory of its node.
+	 *
+	 * @throws Exception
+	 *             if a server failed to stop, or the timings could not be
+	 *             written
+	 */
+	public void close() throws Exception {
+		List<JBossEAP6StandaloneController> running = new ArrayList<JBossEAP6StandaloneController>();
+		synchronized (this) {
+			if (executor == null) {
+				return;
+			}
+			executor.shutdownNow();
+			executor = null;
+			ready.drainTo(running);
+			idle.addAll(running);
+		}
+		Exception failure = null;
+		for (JBossEAP6StandaloneController controller : running) {
+			try {
+				controller.stop();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		for (JBossEAP6StandaloneController controller : controllers) {
+			try {
+				controller.writeCommandTimings();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Boots the idle servers in the background until the number of the ready
+	 * and booting servers reaches the size.
+	 */
+	private void refill() {
+		int target = size < 0 ? controllers.size() : size;
+		while (executor != null && !idle.isEmpty() && ready.size() + booting < target) {
+			final JBossEAP6StandaloneController controller = idle.removeFirst();
+			booting++;
+			executor.execute(new Runnable() {
+				public void run() {
+					boot(controller, false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Boots or recycles a server, and adds it to the ready servers.
+	 *
+	 * @param controller
+	 *            the controller
+	 * @param recycle
+	 *            true if the server has been released
+	 */
+	protected void boot(JBossEAP6StandaloneController controller, boolean recycle) {
+		try {
+			if (recycle && !restartOnRelease) {
+				controller.unloadRules();
+			} else {
+				if (recycle) {
+					controller.stop();
+					if (!controller.awaitStopped(stopTimeout, TimeUnit.MILLISECONDS)) {
+						throw new TimeoutException(String.format("not stopped within %d ms", stopTimeout));
+					}
+				}
+				controller.start();
+				if (!controller.awaitStarted(startTimeout, TimeUnit.MILLISECONDS)) {
+					throw new TimeoutException(String.format("not started within %d ms", startTimeout));
+				}
+			}
+			boolean closed;
+			synchronized (this) {
+				booting--;
+				closed = executor == null;
+				if (!closed) {
+					ready.add(controller);
+				}
+			}
+			if (closed) {
+				discard(controller, null);
+			}
+		} catch (Exception e) {
+			discard(controller, e);
+		}
+	}
+
+	/**
+	 * Stops a server which could not be added to the ready servers, and
+	 * returns it to the idle servers. The next boot is attempted at the next
+	 * {@link #lease} or {@link #release}.
+	 *
+	 * @param controller
+	 *            the controller
+	 * @param failure
+	 *            the failure of the boot, or null if the pool has been closed
+	 */
+	private void discard(JBossEAP6StandaloneController controller, Exception failure) {
+		try {
+			controller.stop();
+		} catch (Exception e) {
+			// the server is not running
+		}
+		synchronized (this) {
+			if (failure != null) {
+				booting--;
+				lastFailure = failure;
+			}
+			idle.add(controller);
+		}
+	}
+
+	private static class StandbyThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, String.format("standby-%d", count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.LatencyRecorder;
+
+/**
+ * Measures the latency from {@code start()} to serving by repeating
+ * start/ready/stop cycles on a node, with and without the Byteman agent.
+ *
+ * Each cycle records the following phases in milliseconds. The names are
+ * prefixed with "agent." or "noagent.".
+ * <table border="1">
+ * <tr>
+ * <th>name</th>
+ * <th>description</th>
+ * </tr>
+ * <tr>
+ * <td>dispatch</td>
+ * <td>The time taken by {@code start()}, which is the remote command
+ * dispatch.</td>
+ * </tr>
+ * <tr>
+ * <td>boot</td>
+ * <td>The time from the dispatch to the end of the boot. This is recorded
+ * only for an {@link AwaitableController}.</td>
+ * </tr>
+ * <tr>
+ * <td>deploy</td>
+ * <td>The time from the end of the boot to the first response of the URL
+ * with a status below 400. This is recorded only if the URL is set.</td>
+ * </tr>
+ * <tr>
+ * <td>ready</td>
+ * <td>The time from the call of {@code start()} to the ready state.</td>
+ * </tr>
+ * <tr>
+ * <td>stop</td>
+ * <td>The time taken by {@code stop()} until the process has exited.</td>
+ * </tr>
+ * </table>
+ */
+public class StartupBenchmark {
+
+	/**
+	 * The default number of the cycles in each mode.
+	 */
+	public static final int DEFAULT_ITERATIONS = 5;
+
+	/**
+	 * The default timeout of a cycle, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 300000;
+
+	/**
+	 * The default grace period of {@code stop()}, in milliseconds.
+	 */
+	public static final long DEFAULT_STOP_GRACE_PERIOD = 60000;
+
+	private static final long POLL_INTERVAL = 100;
+
+	private static final int PROBE_TIMEOUT = 1000;
+
+	protected final AbstractJBossController controller;
+
+	protected int iterations = DEFAULT_ITERATIONS;
+
+	protected long timeout = DEFAULT_TIMEOUT;
+
+	protected URL url;
+
+	protected boolean withoutAgent = true;
+
+	protected LatencyRecorder recorder = new LatencyRecorder();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param controller
+	 *            the controller of the measured node
+	 */
+	public StartupBenchmark(AbstractJBossController controller) {
+		this.controller = controller;
+	}
+
+	/**
+	 * Sets the number of the cycles in each mode.
+	 *
+	 * @param iterations
+	 *            the number of the cycles. default is 5.
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Sets the maximum time of the start and the ready check in a cycle.
+	 *
+	 * @param timeout
+	 *            the timeout. default is 300 seconds.
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		this.timeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the URL which is served when the deployment has finished.
+	 *
+	 * @param url
+	 *            the URL of the deployed application
+	 * @throws IOException
+	 *             if the URL is malformed
+	 */
+	public void setUrl(String url) throws IOException {
+		this.url = new URL(url);
+	}
+
+	/**
+	 * Sets the flag which specifies whether the cycles are also run without
+	 * the Byteman agent.
+	 *
+	 * @param withoutAgent
+	 *            If true then the cycles are run in both modes. default is
+	 *            true.
+	 */
+	public void setWithoutAgent(boolean withoutAgent) {
+		this.withoutAgent = withoutAgent;
+	}
+
+	/**
+	 * Runs the cycles with the agent, and then without the agent.<br>
+	 * The server must not be running on the node.
+	 *
+	 * @return the recorded latencies
+	 * @throws Exception
+	 *             if a cycle failed or timed out
+	 */
+	public LatencyRecorder run() throws Exception {
+		if (url == null && !(controller instanceof AwaitableController)) {
+			throw new IllegalStateException(String.format(
+					"the URL is required to detect that the server of %s is ready",
+					controller.getClass().getSimpleName()));
+		}
+		long stopGracePeriod = controller.stopGracePeriod;
+		if (!controller.isStopBlocking()) {
+			controller.setStopGracePeriod(DEFAULT_STOP_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+		}
+		try {
+			for (boolean agentEnabled : withoutAgent ? new boolean[] { true, false } : new boolean[] { true }) {
+				controller.setAgentEnabled(agentEnabled);
+				for (int i = 0; i < iterations; i++) {
+					runCycle(agentEnabled ? "agent." : "noagent.");
+				}
+			}
+		} finally {
+			controller.setAgentEnabled(true);
+			controller.stopGracePeriod = stopGracePeriod;
+		}
+		return recorder;
+	}
+
+	/**
+	 * Runs one start/ready/stop cycle.
+	 *
+	 * @param prefix
+	 *            the prefix of the recorded names
+	 * @throws Exception
+	 *             if the cycle failed or timed out
+	 */
+	protected void runCycle(String prefix) throws Exception {
+		long begin = System.nanoTime();
+		long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeout);
+		controller.start();
+		long dispatched = System.nanoTime();
+		record(prefix + "dispatch", begin, dispatched);
+
+		long booted = dispatched;
+		if (controller instanceof AwaitableController) {
+			if (!((AwaitableController) controller).awaitStarted(deadline - System.nanoTime(),
+					TimeUnit.NANOSECONDS)) {
+				throw new TimeoutException(String.format("the server did not start within %d ms", timeout));
+			}
+			booted = System.nanoTime();
+			record(prefix + "boot", dispatched, booted);
+		}
+		if (url != null) {
+			awaitServing(deadline);
+			record(prefix + "deploy", booted, System.nanoTime());
+		}
+		long ready = System.nanoTime();
+		record(prefix + "ready", begin, ready);
+
+		controller.stop();
+		record(prefix + "stop", ready, System.nanoTime());
+	}
+
+	private void awaitServing(long deadline) throws Exception {
+		while (!isServing()) {
+			if (System.nanoTime() >= deadline) {
+				throw new TimeoutException(String.format("%s was not served within %d ms", url, timeout));
+			}
+			Thread.sleep(POLL_INTERVAL);
+		}
+	}
+
+	private boolean isServing() {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setConnectTimeout(PROBE_TIMEOUT);
+				connection.setReadTimeout(PROBE_TIMEOUT);
+				connection.setInstanceFollowRedirects(false);
+				return connection.getResponseCode() < 400;
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void record(String name, long begin, long end) {
+		recorder.record(name, TimeUnit.NANOSECONDS.toMillis(end - begin));
+	}
+
+	/**
+	 * Returns the recorded latencies.
+	 *
+	 * @return the recorder
+	 */
+	public LatencyRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Writes the summary and the samples in the CSV format to the result
+	 * directory of the node, as startup-benchmark-&lt;timestamp&gt;-summary.csv
+	 * and startup-benchmark-&lt;timestamp&gt;-samples.csv. The timings of the
+	 * commands sent by the controller are written as well, see
+	 * {@link AbstractJBossController#writeCommandTimings}.
+	 *
+	 * @return the summary file
+	 * @throws IOException
+	 *             if the files could not be written
+	 */
+	public File writeResults() throws IOException {
+		String prefix = "startup-benchmark-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File dir = controller.getResultDir();
+		File summary = new File(dir, prefix + "-summary.csv");
+		recorder.writeSummary(summary);
+		recorder.writeSamples(new File(dir, prefix + "-samples.csv"));
+		controller.writeCommandTimings();
+		return summary;
+	}
+}
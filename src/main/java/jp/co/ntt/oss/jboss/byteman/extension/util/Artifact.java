@@ -0,0 +1,158 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local file which is sent to the nodes.
+ *
+ * The checksum is calculated once and shared by all nodes, so an instance
+ * should be reused when the same file is sent to several nodes.
+ */
+public class Artifact {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	protected final File file;
+
+	private String checksum;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param file
+	 *            the local file
+	 */
+	public Artifact(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the local file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the file name.
+	 *
+	 * @return the file name
+	 */
+	public String getName() {
+		return file.getName();
+	}
+
+	/**
+	 * Returns the SHA-1 digest of the file in hexadecimal.
+	 *
+	 * @return the checksum
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public synchronized String getChecksum() throws IOException {
+		if (checksum == null) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int length;
+				while ((length = in.read(buffer)) >= 0) {
+					digest.update(buffer, 0, length);
+				}
+			} finally {
+				in.close();
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			checksum = hex.toString();
+		}
+		return checksum;
+	}
+
+	/**
+	 * Opens a stream of the file compressed in the gzip format.<br>
+	 * The file is compressed at the fastest level by a daemon thread while
+	 * the stream is read. If the file could not be read, the stream ends
+	 * early, so the receiver fails to decompress it.
+	 *
+	 * @return the compressed stream, which must be closed
+	 * @throws IOException
+	 *             if the stream could not be opened
+	 */
+	public InputStream openCompressed() throws IOException {
+		final PipedInputStream in = new PipedInputStream(BUFFER_SIZE);
+		final OutputStream out = new PipedOutputStream(in);
+		Thread thread = new Thread("artifact-compressor-" + getName()) {
+			@Override
+			public void run() {
+				try {
+					OutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE) {
+						{
+							def.setLevel(Deflater.BEST_SPEED);
+						}
+					};
+					InputStream file = new FileInputStream(Artifact.this.file);
+					try {
+						byte[] buffer = new byte[BUFFER_SIZE];
+						int length;
+						while ((length = file.read(buffer)) >= 0) {
+							gzip.write(buffer, 0, length);
+						}
+					} finally {
+						file.close();
+					}
+					gzip.close();
+				} catch (IOException e) {
+					// the stream ends early
+				} finally {
+					try {
+						out.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return in;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ships events from the instrumented threads to a receiver in batches.
+ *
+ * This is a library for the helpers of the rules, and is not installed by
+ * the framework, whose helper still calls the controller for each event. To
+ * use it, the rule author creates and starts a shipper in the helper, with a
+ * {@link Sender} which calls the controller, and offers the events to it
+ * from the rules instead of calling the controller. The jar of this
+ * extension is put on the system class path of the server by
+ * node.byteman.extension.jar.<br>
+ * The instrumented threads which offer the events only put them into an
+ * {@link EventRingBuffer}, and a daemon thread sends them in batches, so the
+ * threads never wait for the network. When the buffer is full, the events
+ * are dropped and counted instead of blocking.
+ *
+ * @param <E>
+ *            the type of the events
+ */
+public class BatchingEventShipper<E> {
+
+	/**
+	 * The receiver of the batches, such as a remote call to the controller.
+	 *
+	 * @param <E>
+	 *            the type of the events
+	 */
+	public interface Sender<E> {
+
+		/**
+		 * Sends a batch. This is called by the shipping thread only.
+		 *
+		 * @param events
+		 *            the events in the order they were added
+		 * @throws Exception
+		 *             if the batch could not be sent. The batch is not sent
+		 *             again.
+		 */
+		void send(List<E> events) throws Exception;
+	}
+
+	protected final EventRingBuffer<E> buffer;
+
+	protected final Sender<E> sender;
+
+	protected final int batchSize;
+
+	protected final long interval;
+
+	private final AtomicLong shipped = new AtomicLong();
+
+	private final AtomicLong failedBatches = new AtomicLong();
+
+	private final AtomicLong lost = new AtomicLong();
+
+	private volatile boolean running;
+
+	private Thread thread;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param sender
+	 *            the receiver of the batches
+	 * @param capacity
+	 *            the number of events which can be buffered
+	 * @param batchSize
+	 *            the maximum number of events in a batch
+	 * @param interval
+	 *            the maximum time which an event waits for the batch
+	 * @param unit
+	 *            the time unit of the interval
+	 */
+	public BatchingEventShipper(Sender<E> sender, int capacity, int batchSize, long interval, TimeUnit unit) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.buffer = new EventRingBuffer<E>(capacity);
+		this.sender = sender;
+		this.batchSize = batchSize;
+		this.interval = unit.toNanos(interval);
+	}
+
+	/**
+	 * Adds an event without blocking.
+	 *
+	 * @param event
+	 *            the event
+	 * @return true if the event will be shipped, false if it has been dropped
+	 *         because the buffer is full
+	 */
+	public boolean offer(E event) {
+		return buffer.offer(event);
+	}
+
+	/**
+	 * Starts the shipping thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("the shipper has already been started");
+		}
+		running = true;
+		thread = new Thread("byteman-event-shipper") {
+			@Override
+			public void run() {
+				while (running) {
+					if (flush() < batchSize) {
+						LockSupport.parkNanos(BatchingEventShipper.this, interval);
+					}
+				}
+				while (flush() > 0) {
+					// ship the events added before closing
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the shipping thread after it has shipped the buffered events.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the thread has stopped, false if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+		Thread stopping;
+		synchronized (this) {
+			running = false;
+			stopping = thread;
+		}
+		if (stopping == null) {
+			return true;
+		}
+		LockSupport.unpark(stopping);
+		stopping.join(unit.toMillis(timeout));
+		return !stopping.isAlive();
+	}
+
+	/**
+	 * Sends one batch of the buffered events.
+	 *
+	 * @return the number of the events in the batch
+	 */
+	protected int flush() {
+		List<E> events = new ArrayList<E>(Math.min(batchSize, buffer.getCapacity()));
+		int count = buffer.drain(events, batchSize);
+		if (count == 0) {
+			return 0;
+		}
+		try {
+			sender.send(events);
+			shipped.addAndGet(count);
+		} catch (Throwable t) {
+			failedBatches.incrementAndGet();
+			lost.addAndGet(count);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of the events which have been shipped.
+	 *
+	 * @return the number of the events
+	 */
+	public long getShipped() {
+		return shipped.get();
+	}
+
+	/**
+	 * Returns the number of the events which have been dropped because the
+	 * buffer was full.
+	 *
+	 * @return the number of the events
+	 */
+	public long getDropped() {
+		return buffer.getDropped();
+	}
+
+	/**
+	 * Returns the number of the batches which could not be sent.
+	 *
+	 * @return the number of the batches
+	 */
+	public long getFailedBatches() {
+		return failedBatches.get();
+	}
+
+	/**
+	 * Returns the number of the events in the batches which could not be
+	 * sent.
+	 *
+	 * @return the number of the events
+	 */
+	public long getLost() {
+		return lost.get();
+	}
+
+	/**
+	 * Returns the number of the events waiting to be shipped.
+	 *
+	 * @return the number of the events
+	 */
+	public int getPending() {
+		return buffer.size();
+	}
+
+	/**
+	 * Returns the counters, which the helper can report to the controller.
+	 *
+	 * @return the counters such as shipped=10,dropped=0,failedBatches=0,lost=0
+	 */
+	@Override
+	public String toString() {
+		return String.format("shipped=%d,dropped=%d,failedBatches=%d,lost=%d,pending=%d", getShipped(),
+				getDropped(), getFailedBatches(), getLost(), getPending());
+	}
+}
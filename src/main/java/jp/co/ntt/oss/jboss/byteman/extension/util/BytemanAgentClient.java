@@ -0,0 +1,274 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The client of the listener of the Byteman agent.
+ *
+ * Each request is sent over a new connection in the text protocol of the
+ * agent listener, which is the same as the one of bmsubmit. The rules are
+ * identified by their names, because the agent replaces the installed rule
+ * which has the same name as a loaded rule.
+ */
+public class BytemanAgentClient {
+
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * The time to wait for the response, in milliseconds. Loading rules may
+	 * take a while because the agent retransforms the trigger classes.
+	 */
+	private static final int READ_TIMEOUT = 60000;
+
+	protected final String host;
+
+	protected final int port;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param host
+	 *            the address which the agent listener is bound to
+	 * @param port
+	 *            the agent listener port
+	 */
+	public BytemanAgentClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Returns the address which the agent listener is bound to.
+	 *
+	 * @return the address
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the agent listener port.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the rules which are installed in the agent.
+	 *
+	 * @return the map of the rule name and the normalized rule text
+	 * @throws IOException
+	 *             if the request failed
+	 */
+	public Map<String, String> listRules() throws IOException {
+		return parseRules(send("LIST\n"));
+	}
+
+	/**
+	 * Loads the rules into the agent. The installed rules which have the same
+	 * names are replaced.
+	 *
+	 * @param rules
+	 *            the map of the rule name and the rule text
+	 * @return the response of the agent
+	 * @throws IOException
+	 *             if the request failed or the agent reported an error
+	 */
+	public String loadRules(Map<String, String> rules) throws IOException {
+		StringBuilder request = new StringBuilder("LOAD\n");
+		for (Map.Entry<String, String> rule : rules.entrySet()) {
+			appendScript(request, rule.getKey(), rule.getValue());
+		}
+		return send(request.append("ENDLOAD\n").toString());
+	}
+
+	/**
+	 * Unloads the rules from the agent.
+	 *
+	 * @param rules
+	 *            the texts of the rules
+	 * @return the response of the agent
+	 * @throws IOException
+	 *             if the request failed or the agent reported an error
+	 */
+	public String deleteRules(Collection<String> rules) throws IOException {
+		StringBuilder request = new StringBuilder("DELETE\n");
+		for (String rule : rules) {
+			appendScript(request, getRuleName(rule), rule);
+		}
+		return send(request.append("ENDDELETE\n").toString());
+	}
+
+	private static void appendScript(StringBuilder request, String name, String text) {
+		request.append("SCRIPT ").append(name).append("\n");
+		request.append(text);
+		if (!text.endsWith("\n")) {
+			request.append("\n");
+		}
+		request.append("ENDSCRIPT\n");
+	}
+
+	/**
+	 * Sends a request and reads the response until the OK line.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the response without the OK line
+	 * @throws IOException
+	 *             if the request failed or the agent reported an error
+	 */
+	protected String send(String request) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			socket.setSoTimeout(READ_TIMEOUT);
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			out.print(request);
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			StringBuilder response = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null && !line.trim().equals("OK")) {
+				response.append(line).append("\n");
+			}
+			if (line == null) {
+				throw new IOException(String.format("%s:%d closed the connection: %s", host, port, response));
+			}
+			if (response.indexOf("EXCEPTION") >= 0 || response.toString().startsWith("ERROR")) {
+				throw new IOException(String.format("%s:%d failed: %s", host, port, response));
+			}
+			return response.toString();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Extracts the rules from a script or from the output of LIST.<br>
+	 * The lines are trimmed, the blank lines and the comment lines are
+	 * removed, and ENDRULE is put on its own line. The rules should be
+	 * compared by {@link #normalizeRule}, because the agent may list a rule
+	 * in another layout than the script.
+	 *
+	 * @param script
+	 *            the script text
+	 * @return the map of the rule name and the normalized rule text
+	 */
+	public static Map<String, String> parseRules(String script) {
+		Map<String, String> rules = new LinkedHashMap<String, String>();
+		BufferedReader reader = new BufferedReader(new StringReader(script));
+		try {
+			StringBuilder rule = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				if (line.startsWith("RULE ")) {
+					rule = new StringBuilder();
+				}
+				if (rule != null) {
+					if (isRuleEnd(line)) {
+						String body = line.substring(0, line.length() - "ENDRULE".length()).trim();
+						if (body.length() > 0) {
+							rule.append(body).append("\n");
+						}
+						String text = rule.append("ENDRULE\n").toString();
+						rules.put(getRuleName(text), text);
+						rule = null;
+					} else {
+						rule.append(line).append("\n");
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return rules;
+	}
+
+	/**
+	 * Returns the text of a rule without its layout, so that a rule in a
+	 * script can be compared with the same rule listed by the agent.<br>
+	 * The comments are removed, the runs of whitespace out of the string
+	 * literals are replaced with a space, and ENDRULE is removed.
+	 *
+	 * @param rule
+	 *            the rule text
+	 * @return the normalized text
+	 */
+	public static String normalizeRule(String rule) {
+		StringBuilder normalized = new StringBuilder();
+		boolean quoted = false;
+		boolean space = false;
+		for (int i = 0; i < rule.length(); i++) {
+			char c = rule.charAt(i);
+			if (quoted) {
+				normalized.append(c);
+				if (c == '\\' && i + 1 < rule.length()) {
+					normalized.append(rule.charAt(++i));
+				} else if (c == '"') {
+					quoted = false;
+				}
+			} else if (c == '#') {
+				while (i + 1 < rule.length() && rule.charAt(i + 1) != '\n') {
+					i++;
+				}
+			} else if (Character.isWhitespace(c)) {
+				space = normalized.length() > 0;
+			} else {
+				if (space) {
+					normalized.append(' ');
+					space = false;
+				}
+				normalized.append(c);
+				quoted = c == '"';
+			}
+		}
+		String text = normalized.toString();
+		return isRuleEnd(text) ? text.substring(0, text.length() - "ENDRULE".length()).trim() : text;
+	}
+
+	private static boolean isRuleEnd(String line) {
+		int start = line.length() - "ENDRULE".length();
+		return line.endsWith("ENDRULE") && (start == 0 || !Character.isJavaIdentifierPart(line.charAt(start - 1)));
+	}
+
+	private static String getRuleName(String rule) {
+		String firstLine = rule.trim().split("\n", 2)[0];
+		return firstLine.substring("RULE".length()).trim();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a command executed on a node.
+ */
+public class CommandResult {
+
+	private final int exitStatus;
+
+	private final String output;
+
+	private final String error;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param exitStatus
+	 *            the exit status of the command
+	 * @param output
+	 *            the standard output of the command
+	 * @param error
+	 *            the standard error of the command
+	 */
+	public CommandResult(int exitStatus, String output, String error) {
+		this.exitStatus = exitStatus;
+		this.output = output;
+		this.error = error;
+	}
+
+	/**
+	 * Returns the exit status of the command.
+	 *
+	 * @return the exit status
+	 */
+	public int getExitStatus() {
+		return exitStatus;
+	}
+
+	/**
+	 * Returns whether the command exited with status 0.
+	 *
+	 * @return true if the command succeeded
+	 */
+	public boolean isSuccess() {
+		return exitStatus == 0;
+	}
+
+	/**
+	 * Returns the standard output of the command.
+	 *
+	 * @return the standard output
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns the standard output of the command split into lines.
+	 *
+	 * @return the lines of the standard output
+	 */
+	public List<String> getOutputLines() {
+		List<String> lines = new ArrayList<String>();
+		for (String line : output.split("\n")) {
+			if (line.length() > 0) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Returns the standard error of the command.
+	 *
+	 * @return the standard error
+	 */
+	public String getError() {
+		return error;
+	}
+}
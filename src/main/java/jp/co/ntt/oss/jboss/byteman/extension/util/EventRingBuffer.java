@@ -0,0 +1,160 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue of events for many producers and one consumer.
+ *
+ * Each slot has a sequence number which tells whether it is free for the
+ * producer of a position or filled for the consumer, so neither side takes a
+ * lock. {@link #offer} never blocks: when the buffer is full, the event is
+ * dropped and counted.
+ *
+ * @param <E>
+ *            the type of the events
+ */
+public class EventRingBuffer<E> {
+
+	private final int capacity;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<E> elements;
+
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param capacity
+	 *            the minimum number of events which can be buffered. This is
+	 *            rounded up to a power of two.
+	 */
+	public EventRingBuffer(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("invalid capacity: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		this.capacity = size < capacity ? size << 1 : size;
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<E>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Returns the number of events which can be buffered.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds an event without blocking.
+	 *
+	 * @param event
+	 *            the event
+	 * @return true if the event has been added, false if it has been dropped
+	 *         because the buffer is full
+	 */
+	public boolean offer(E event) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, event);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				dropped.incrementAndGet();
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the buffered events in the order they were added. This must be
+	 * called by one thread at a time.
+	 *
+	 * @param events
+	 *            the list which the events are added to
+	 * @param max
+	 *            the maximum number of events to remove
+	 * @return the number of the removed events
+	 */
+	public int drain(List<? super E> events, int max) {
+		long position = head.get();
+		int count = 0;
+		while (count < max) {
+			int index = (int) position & mask;
+			if (sequences.get(index) != position + 1) {
+				break;
+			}
+			events.add(elements.get(index));
+			elements.lazySet(index, null);
+			sequences.set(index, position + capacity);
+			position++;
+			count++;
+		}
+		head.set(position);
+		return count;
+	}
+
+	/**
+	 * Returns the number of the buffered events. The value is approximate
+	 * while the events are being added or removed.
+	 *
+	 * @return the number of the events
+	 */
+	public int size() {
+		return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+	}
+
+	/**
+	 * Returns the number of the events which have been dropped because the
+	 * buffer was full.
+	 *
+	 * @return the number of the dropped events
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
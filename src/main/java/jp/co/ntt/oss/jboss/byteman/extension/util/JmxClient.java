@@ -0,0 +1,182 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * The JSR-160 client of the JMX connector of JBoss EAP5.
+ *
+ * One connection is opened at the first call and reused by the following
+ * calls, so checking the state of the server does not start a JVM such as
+ * twiddle.sh and shutdown.sh do. The connection is dropped when a call fails
+ * with an I/O error, and opened again by the next call.
+ */
+public class JmxClient {
+
+	/**
+	 * The name of the MBean of the server.
+	 */
+	public static final String SERVER = "jboss.system:type=Server";
+
+	protected final JMXServiceURL url;
+
+	private final Map<String, Object> environment = new HashMap<String, Object>();
+
+	private JMXConnector connector;
+
+	private MBeanServerConnection connection;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param url
+	 *            the service URL of the connector, such as
+	 *            service:jmx:rmi:///jndi/rmi://host:1090/jmxrmi
+	 * @param username
+	 *            the JMX user, or null if the connector is not secured
+	 * @param password
+	 *            the password of the user
+	 * @throws MalformedURLException
+	 *             if the URL is invalid
+	 */
+	public JmxClient(String url, String username, String password) throws MalformedURLException {
+		this.url = new JMXServiceURL(url);
+		if (username != null) {
+			environment.put(JMXConnector.CREDENTIALS, new String[] { username, password });
+		}
+	}
+
+	/**
+	 * Reads an attribute of an MBean.
+	 *
+	 * @param name
+	 *            the object name of the MBean
+	 * @param attribute
+	 *            the attribute name
+	 * @return the attribute value
+	 * @throws IOException
+	 *             if the connector is not available
+	 * @throws JMException
+	 *             if the attribute could not be read
+	 */
+	public Object getAttribute(String name, String attribute) throws IOException, JMException {
+		MBeanServerConnection current = connect();
+		try {
+			return current.getAttribute(new ObjectName(name), attribute);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Invokes an operation without parameters of an MBean.
+	 *
+	 * @param name
+	 *            the object name of the MBean
+	 * @param operation
+	 *            the operation name
+	 * @return the result of the operation
+	 * @throws IOException
+	 *             if the connector is not available
+	 * @throws JMException
+	 *             if the operation failed
+	 */
+	public Object invoke(String name, String operation) throws IOException, JMException {
+		MBeanServerConnection current = connect();
+		try {
+			return current.invoke(new ObjectName(name), operation, new Object[0], new String[0]);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns whether the server has finished starting, which is the Started
+	 * attribute of the server MBean.
+	 *
+	 * @return true if the server has started
+	 * @throws IOException
+	 *             if the connector is not available
+	 * @throws JMException
+	 *             if the attribute could not be read
+	 */
+	public boolean isStarted() throws IOException, JMException {
+		return Boolean.TRUE.equals(getAttribute(SERVER, "Started"));
+	}
+
+	/**
+	 * Requests the server to shut down. The server exits after this returns,
+	 * and the connection is closed.
+	 *
+	 * @throws IOException
+	 *             if the connector is not available
+	 * @throws JMException
+	 *             if the operation failed
+	 */
+	public void shutdown() throws IOException, JMException {
+		try {
+			invoke(SERVER, "shutdown");
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Closes the connection if it is open.
+	 */
+	public synchronized void close() {
+		if (connector != null) {
+			try {
+				connector.close();
+			} catch (IOException e) {
+				// the connection is already broken
+			}
+			connector = null;
+			connection = null;
+		}
+	}
+
+	private synchronized MBeanServerConnection connect() throws IOException {
+		if (connection == null) {
+			JMXConnector opened = JMXConnectorFactory.connect(url, environment);
+			try {
+				connection = opened.getMBeanServerConnection();
+			} catch (IOException e) {
+				opened.close();
+				throw e;
+			}
+			connector = opened;
+		}
+		return connection;
+	}
+}
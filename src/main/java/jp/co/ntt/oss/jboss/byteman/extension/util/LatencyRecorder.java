@@ -0,0 +1,159 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records latency samples by name and summarizes them by percentiles.
+ *
+ * The instance is thread safe, so it can be shared by the controllers which
+ * run in parallel.
+ */
+public class LatencyRecorder {
+
+	/**
+	 * The header of the summary written by {@link #writeSummary}.
+	 */
+	public static final String SUMMARY_HEADER = "name,count,min,p50,p95,max";
+
+	private final Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+
+	/**
+	 * Records a sample.
+	 *
+	 * @param name
+	 *            the name of the measured operation
+	 * @param millis
+	 *            the latency in milliseconds
+	 */
+	public synchronized void record(String name, long millis) {
+		List<Long> values = samples.get(name);
+		if (values == null) {
+			values = new ArrayList<Long>();
+			samples.put(name, values);
+		}
+		values.add(millis);
+	}
+
+	/**
+	 * Returns the names which have samples, in the order of the first record.
+	 *
+	 * @return the names
+	 */
+	public synchronized List<String> getNames() {
+		return new ArrayList<String>(samples.keySet());
+	}
+
+	/**
+	 * Returns the samples of a name in the order of the records.
+	 *
+	 * @param name
+	 *            the name of the measured operation
+	 * @return the samples in milliseconds
+	 */
+	public synchronized List<Long> getSamples(String name) {
+		List<Long> values = samples.get(name);
+		return values == null ? new ArrayList<Long>() : new ArrayList<Long>(values);
+	}
+
+	/**
+	 * Returns the percentile of the samples of a name by the nearest-rank
+	 * method.
+	 *
+	 * @param name
+	 *            the name of the measured operation
+	 * @param percentile
+	 *            the percentile from 0 to 100
+	 * @return the latency in milliseconds, or -1 if there is no sample
+	 */
+	public long getPercentile(String name, double percentile) {
+		List<Long> values = getSamples(name);
+		if (values.isEmpty()) {
+			return -1;
+		}
+		Collections.sort(values);
+		int rank = (int) Math.ceil(percentile / 100 * values.size());
+		return values.get(Math.min(values.size(), Math.max(1, rank)) - 1);
+	}
+
+	/**
+	 * Writes the summary of all names in the CSV format with the header
+	 * {@value #SUMMARY_HEADER}.
+	 *
+	 * @param file
+	 *            the output file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void writeSummary(File file) throws IOException {
+		PrintWriter out = open(file);
+		try {
+			out.print(SUMMARY_HEADER + "\n");
+			for (String name : getNames()) {
+				out.print(String.format("%s,%d,%d,%d,%d,%d\n", name, getSamples(name).size(),
+						getPercentile(name, 0), getPercentile(name, 50), getPercentile(name, 95),
+						getPercentile(name, 100)));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes all samples in the CSV format with the header name,sequence,millis.
+	 *
+	 * @param file
+	 *            the output file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void writeSamples(File file) throws IOException {
+		PrintWriter out = open(file);
+		try {
+			out.print("name,sequence,millis\n");
+			for (String name : getNames()) {
+				List<Long> values = getSamples(name);
+				for (int i = 0; i < values.size(); i++) {
+					out.print(String.format("%s,%d,%d\n", name, i, values.get(i)));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static PrintWriter open(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException(String.format("failed to create %s", parent));
+		}
+		return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+}
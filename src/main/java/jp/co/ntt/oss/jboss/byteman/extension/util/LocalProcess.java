@@ -0,0 +1,148 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server process which is launched on the local host as a child process of
+ * the controller.
+ *
+ * The standard output and the standard error are written to a file while the
+ * process is running, and the exit is detected as soon as the output is
+ * closed and the process has been reaped, without polling a pidfile.
+ */
+public class LocalProcess {
+
+	private final Process process;
+
+	private final CountDownLatch exited = new CountDownLatch(1);
+
+	private volatile int exitValue = -1;
+
+	/**
+	 * Launches a command by bash.
+	 *
+	 * @param command
+	 *            the command line. Use exec for the last command so that the
+	 *            process is the server itself.
+	 * @param output
+	 *            the file which the standard output and the standard error
+	 *            are written to. It is truncated.
+	 * @return the launched process
+	 * @throws IOException
+	 *             if the process could not be launched
+	 */
+	public static LocalProcess start(String command, File output) throws IOException {
+		File dir = output.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(String.format("failed to create %s", dir));
+		}
+		OutputStream out = new FileOutputStream(output);
+		Process process;
+		try {
+			process = new ProcessBuilder("bash", "-c", command).redirectErrorStream(true).start();
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		return new LocalProcess(process, out, output.getName());
+	}
+
+	private LocalProcess(Process process, final OutputStream out, String name) throws IOException {
+		this.process = process;
+		process.getOutputStream().close();
+		final InputStream in = process.getInputStream();
+		Thread thread = new Thread("local-process-" + name) {
+			@Override
+			public void run() {
+				try {
+					byte[] buffer = new byte[8192];
+					int length;
+					while ((length = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, length);
+					}
+				} catch (IOException e) {
+					// the output is lost, but the exit is still detected
+				} finally {
+					try {
+						out.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+				try {
+					exitValue = LocalProcess.this.process.waitFor();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exited.countDown();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns whether the process is running.
+	 *
+	 * @return true if the process has not exited
+	 */
+	public boolean isAlive() {
+		return exited.getCount() > 0;
+	}
+
+	/**
+	 * Waits for the process to exit.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the process has exited, false if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted
+	 */
+	public boolean awaitExit(long timeout, TimeUnit unit) throws InterruptedException {
+		return exited.await(timeout, unit);
+	}
+
+	/**
+	 * Returns the exit value of the process.
+	 *
+	 * @return the exit value, or -1 if the process has not exited
+	 */
+	public int getExitValue() {
+		return exitValue;
+	}
+
+	/**
+	 * Kills the process.
+	 */
+	public void destroy() {
+		process.destroy();
+	}
+}
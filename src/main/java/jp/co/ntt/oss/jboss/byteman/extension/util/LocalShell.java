@@ -0,0 +1,221 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Executes commands on the local host by bash, in the same way as
+ * {@link RemoteShell} executes them on a node.
+ *
+ * This is used when the server runs on the same host as the controller, so
+ * that no SSH server and credentials are needed and no connection is made
+ * per command.
+ */
+public class LocalShell extends RemoteShell {
+
+	/**
+	 * Constructs a new instance.
+	 */
+	public LocalShell() {
+		super("localhost", 0, System.getProperty("user.name"), null);
+	}
+
+	/**
+	 * Executes a command and waits for it to exit.
+	 *
+	 * @param command
+	 *            the command line
+	 * @return the result of the command
+	 * @throws IOException
+	 *             if the command could not be executed
+	 */
+	@Override
+	public CommandResult execute(String command) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitStatus = execute(command, output, error);
+		return new CommandResult(exitStatus, output.toString("UTF-8"), error.toString("UTF-8"));
+	}
+
+	/**
+	 * Executes a command and writes its standard output to a stream as it is
+	 * read.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param out
+	 *            the stream which the standard output is written to
+	 * @return the result of the command, whose output is empty
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	@Override
+	public CommandResult execute(String command, OutputStream out) throws IOException {
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitStatus = execute(command, out, error);
+		return new CommandResult(exitStatus, "", error.toString("UTF-8"));
+	}
+
+	/**
+	 * Executes a command and sends the content of a stream to its standard
+	 * input.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param in
+	 *            the stream which is sent to the standard input
+	 * @return the result of the command
+	 * @throws IOException
+	 *             if the command could not be executed
+	 */
+	@Override
+	public CommandResult execute(String command, InputStream in) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitStatus = execute(command, in, output, error);
+		return new CommandResult(exitStatus, output.toString("UTF-8"), error.toString("UTF-8"));
+	}
+
+	/**
+	 * Executes a command, sends the content of a stream to its standard input
+	 * and writes its standard output to a stream as it is read.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param in
+	 *            the stream which is sent to the standard input
+	 * @param out
+	 *            the stream which the standard output is written to
+	 * @return the result of the command, whose output is empty
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	@Override
+	public CommandResult execute(String command, InputStream in, OutputStream out) throws IOException {
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitStatus = execute(command, in, out, error);
+		return new CommandResult(exitStatus, "", error.toString("UTF-8"));
+	}
+
+	/**
+	 * Does nothing, because this shell has no session.
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean open() {
+		return false;
+	}
+
+	/**
+	 * Executes a command by bash and copies its output to the streams.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param output
+	 *            the stream which the standard output is written to
+	 * @param error
+	 *            the stream which the standard error is written to
+	 * @return the exit status of the command
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	protected int execute(String command, OutputStream output, OutputStream error) throws IOException {
+		return execute(command, null, output, error);
+	}
+
+	/**
+	 * Executes a command by bash, sends a stream to its standard input and
+	 * copies its output to the streams.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param input
+	 *            the stream which is sent to the standard input, or null
+	 * @param output
+	 *            the stream which the standard output is written to
+	 * @param error
+	 *            the stream which the standard error is written to
+	 * @return the exit status of the command
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	protected int execute(String command, InputStream input, OutputStream output, OutputStream error)
+			throws IOException {
+		Process process = new ProcessBuilder("bash", "-c", command).start();
+		try {
+			if (input == null) {
+				process.getOutputStream().close();
+			} else {
+				pump(input, process.getOutputStream(), true);
+			}
+			Thread errorPump = pump(process.getErrorStream(), error, false);
+			copy(process.getInputStream(), output);
+			int exitStatus = process.waitFor();
+			errorPump.join();
+			return exitStatus;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("interrupted while executing a command on %s", host), e);
+		} finally {
+			process.destroy();
+		}
+	}
+
+	private static Thread pump(final InputStream in, final OutputStream out, final boolean close) {
+		Thread thread = new Thread("local-shell-pump") {
+			@Override
+			public void run() {
+				try {
+					copy(in, out);
+				} catch (IOException e) {
+					// the process has been destroyed
+				} finally {
+					if (close) {
+						try {
+							out.close();
+						} catch (IOException e) {
+							// the process has exited
+						}
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, length);
+		}
+	}
+}
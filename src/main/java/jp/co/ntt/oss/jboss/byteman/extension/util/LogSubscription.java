@@ -0,0 +1,383 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows log files on a node and receives the lines which match patterns.
+ *
+ * One long-running command follows the files by tail -F and filters them
+ * by grep on the node, so only the matching lines are sent back. The files
+ * are followed by name, so a rotated file is read from the beginning of the
+ * new file, and a file which does not exist yet is read when it appears.
+ *
+ * The patterns are used by grep -E on the node and by
+ * {@link java.util.regex.Pattern} on the controller, so they should be
+ * written in the syntax common to both. The listeners and the futures are
+ * notified by the thread which reads the command output, so they should
+ * return quickly.
+ */
+public class LogSubscription {
+
+	/**
+	 * The receiver of the matching lines.
+	 */
+	public interface Listener {
+
+		/**
+		 * Receives a line which matches one of the patterns of the
+		 * subscription.
+		 *
+		 * @param file
+		 *            the path of the log file on the node
+		 * @param line
+		 *            the line without the line separator
+		 */
+		void onLine(String file, String line);
+	}
+
+	/**
+	 * The time to wait for tail to open the existing files, in milliseconds.
+	 */
+	private static final long READY_TIMEOUT = 5000;
+
+	private static final Pattern HEADER = Pattern.compile("^==> (.+) <==$");
+
+	protected final RemoteShell shell;
+
+	protected final List<String> files;
+
+	protected final List<String> patterns;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final List<Match> matches = new ArrayList<Match>();
+
+	private final CountDownLatch ready = new CountDownLatch(1);
+
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private Thread reader;
+
+	private volatile boolean active;
+
+	private volatile Throwable failure;
+
+	private String file;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param shell
+	 *            the shell of the node
+	 * @param files
+	 *            the paths of the log files on the node
+	 * @param patterns
+	 *            the regular expressions of the lines to receive
+	 */
+	public LogSubscription(RemoteShell shell, List<String> files, String... patterns) {
+		if (patterns.length == 0) {
+			throw new IllegalArgumentException("no pattern is specified");
+		}
+		this.shell = shell;
+		this.files = new ArrayList<String>(files);
+		this.patterns = Arrays.asList(patterns);
+	}
+
+	/**
+	 * Adds a listener which receives all matching lines.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the future of the next line which matches a pattern.<br>
+	 * Only the lines received after this call are examined, so this should
+	 * be called before the operation which writes the line. The line must
+	 * also match one of the patterns of the subscription to be sent back.
+	 *
+	 * @param regex
+	 *            the regular expression which is searched for in the line
+	 * @return the future of the line. It fails if the subscription ends
+	 *         before the line is received.
+	 */
+	public Future<String> next(String regex) {
+		Match match = new Match(Pattern.compile(regex));
+		synchronized (matches) {
+			if (active) {
+				matches.add(match);
+				return match;
+			}
+		}
+		match.fail(new IOException("the subscription is not active"));
+		return match;
+	}
+
+	/**
+	 * Starts following the files, and waits until tail has opened the files
+	 * which exist. If tail has not opened them in time, the subscription is
+	 * closed.
+	 *
+	 * @throws IOException
+	 *             if the subscription has already been started, the command
+	 *             has failed, or tail has not opened the files in time
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized void start() throws IOException, InterruptedException {
+		if (reader != null) {
+			throw new IOException("the subscription has already been started");
+		}
+		final String command = getCommand();
+		active = true;
+		reader = new Thread("log-subscription-" + shell.host) {
+			@Override
+			public void run() {
+				Throwable cause = null;
+				try {
+					CommandResult result = shell.execute(command, new HoldingInputStream(), new LineOutputStream());
+					if (closed.getCount() > 0) {
+						cause = new IOException(String.format("tail exited with %d: %s",
+								result.getExitStatus(), result.getError()));
+					}
+				} catch (Throwable t) {
+					cause = t;
+				} finally {
+					end(cause);
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		if (!ready.await(READY_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			close(READY_TIMEOUT, TimeUnit.MILLISECONDS);
+			throw new IOException(String.format("tail has not opened the files on %s in %d ms", shell.host,
+					READY_TIMEOUT));
+		}
+		if (!active) {
+			throw new IOException(String.format("the subscription on %s has ended while starting", shell.host),
+					failure);
+		}
+	}
+
+	/**
+	 * Returns whether the files are being followed.
+	 *
+	 * @return true if the command is running
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Stops following the files and waits until the command has exited. The
+	 * pending futures fail.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return true if the command has exited, false if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+		closed.countDown();
+		Thread thread;
+		synchronized (this) {
+			thread = reader;
+		}
+		if (thread != null) {
+			thread.join(unit.toMillis(timeout));
+		}
+		return !active;
+	}
+
+	/**
+	 * Returns the command which follows the files and filters the lines.<br>
+	 * The headers of tail tell which file the following lines come from, and
+	 * the first header tells that tail has opened the existing files. If no
+	 * file exists, a header is printed instead, because there are no lines to
+	 * miss.
+	 * tail exits when the shell exits, which happens when the standard input
+	 * is closed.
+	 *
+	 * @return the command line
+	 */
+	protected String getCommand() {
+		StringBuilder command = new StringBuilder("tail -v -n 0 -F --pid=$$");
+		for (String path : files) {
+			command.append(' ').append(quote(path));
+		}
+		StringBuilder regex = new StringBuilder("^==> .+ <==$");
+		for (String pattern : patterns) {
+			regex.append("|(").append(pattern).append(')');
+		}
+		StringBuilder none = new StringBuilder();
+		for (String path : files) {
+			none.append("[ -e ").append(quote(path)).append(" ] || ");
+		}
+		return none.append("echo '==> (none) <=='; ").append(command)
+				.append(" 2>/dev/null | grep --line-buffered -E ").append(quote(regex.toString()))
+				.append(" & cat > /dev/null").toString();
+	}
+
+	private static String quote(String value) {
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+
+	private void receive(String line) {
+		Matcher header = HEADER.matcher(line);
+		if (header.matches()) {
+			file = header.group(1);
+			ready.countDown();
+			return;
+		}
+		for (Listener listener : listeners) {
+			try {
+				listener.onLine(file, line);
+			} catch (RuntimeException e) {
+				// a failing listener does not stop the others
+			}
+		}
+		synchronized (matches) {
+			for (Iterator<Match> i = matches.iterator(); i.hasNext();) {
+				Match match = i.next();
+				if (match.pattern.matcher(line).find()) {
+					match.complete(line);
+					i.remove();
+				}
+			}
+		}
+	}
+
+	private void end(Throwable cause) {
+		failure = cause;
+		List<Match> pending;
+		synchronized (matches) {
+			active = false;
+			pending = new ArrayList<Match>(matches);
+			matches.clear();
+		}
+		ready.countDown();
+		for (Match match : pending) {
+			match.fail(cause != null ? cause : new IOException("the subscription has been closed"));
+		}
+	}
+
+	/**
+	 * The future which is completed by a line.
+	 */
+	private static class Match extends FutureTask<String> {
+
+		private final Pattern pattern;
+
+		Match(Pattern pattern) {
+			super(new Callable<String>() {
+				public String call() {
+					throw new UnsupportedOperationException();
+				}
+			});
+			this.pattern = pattern;
+		}
+
+		void complete(String line) {
+			set(line);
+		}
+
+		void fail(Throwable cause) {
+			setException(cause);
+		}
+	}
+
+	/**
+	 * The standard input of the command, which ends when the subscription is
+	 * closed.
+	 */
+	private class HoldingInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			try {
+				closed.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The standard output of the command, which is split into lines.
+	 */
+	private class LineOutputStream extends OutputStream {
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			if (b != '\n') {
+				line.write(b);
+				return;
+			}
+			String text = line.toString("UTF-8");
+			line.reset();
+			receive(text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+	}
+}
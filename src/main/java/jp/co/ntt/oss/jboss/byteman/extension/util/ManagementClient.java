@@ -0,0 +1,348 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The client of the HTTP management interface of JBoss EAP6.
+ *
+ * Operations are sent as JSON to the /management context. The credentials of
+ * the management realm are sent by each instance on its own connections: the
+ * first request is answered with the challenge of the digest authentication,
+ * and the request is sent again with the credentials. The following requests
+ * reuse the challenge. Basic authentication is answered as well. The default
+ * {@link java.net.Authenticator} of the JVM is not used.
+ */
+public class ManagementClient {
+
+	private static final int TIMEOUT = 10000;
+
+	private static final Pattern SUCCESS = Pattern.compile("\"outcome\"\\s*:\\s*\"success\"");
+
+	private static final Pattern RESULT = Pattern.compile("\"result\"\\s*:\\s*\"([^\"]*)\"");
+
+	private static final Pattern FAILURE = Pattern.compile("\"failure-description\"\\s*:\\s*(\"[^\"]*\"|\\{[^}]*\\})");
+
+	private static final Pattern PARAMETER = Pattern.compile("([\\w-]+)\\s*=\\s*(?:\"([^\"]*)\"|([^,\\s]*))");
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	protected final URL url;
+
+	private final String username;
+
+	private final String password;
+
+	private final AtomicInteger nonceCount = new AtomicInteger();
+
+	private volatile String challenge;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param host
+	 *            the address which the management interface is bound to
+	 * @param port
+	 *            the HTTP management port
+	 * @param username
+	 *            the user of the management realm, or null if the interface
+	 *            is not secured
+	 * @param password
+	 *            the password of the user
+	 * @throws MalformedURLException
+	 *             if the host is invalid
+	 */
+	public ManagementClient(String host, int port, String username, String password)
+			throws MalformedURLException {
+		this.url = new URL("http", host, port, "/management");
+		this.username = username;
+		this.password = password == null ? "" : password;
+	}
+
+	/**
+	 * Executes an operation and returns the response.
+	 *
+	 * @param operation
+	 *            the operation in the JSON format
+	 * @return the response in the JSON format
+	 * @throws IOException
+	 *             if the request failed or the outcome of the operation is not
+	 *             success
+	 */
+	public String execute(String operation) throws IOException {
+		HttpURLConnection connection = post(operation);
+		try {
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_UNAUTHORIZED && username != null) {
+				String authenticate = selectChallenge(connection.getHeaderFields());
+				if (authenticate != null) {
+					InputStream error = connection.getErrorStream();
+					if (error != null) {
+						read(error);
+					}
+					connection.disconnect();
+					challenge = authenticate;
+					nonceCount.set(0);
+					connection = post(operation);
+					status = connection.getResponseCode();
+				}
+			}
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			String response = in == null ? "" : read(in);
+			if (!SUCCESS.matcher(response).find()) {
+				Matcher failure = FAILURE.matcher(response);
+				throw new IOException(String.format("%s failed with HTTP %d: %s", operation, status,
+						failure.find() ? failure.group(1) : response));
+			}
+			return response;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Sends an operation, with the credentials if a challenge has been
+	 * received.
+	 *
+	 * @param operation
+	 *            the operation in the JSON format
+	 * @return the connection whose request has been sent
+	 * @throws IOException
+	 *             if the request could not be sent
+	 */
+	private HttpURLConnection post(String operation) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "application/json");
+		String authorization = getAuthorization();
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		try {
+			out.write(operation.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return connection;
+	}
+
+	/**
+	 * Returns the challenge of the WWW-Authenticate headers to answer,
+	 * preferring the digest authentication.
+	 *
+	 * @param headers
+	 *            the response headers
+	 * @return the challenge, or null if no challenge is supported
+	 */
+	private static String selectChallenge(Map<String, List<String>> headers) {
+		String basic = null;
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (!"WWW-Authenticate".equalsIgnoreCase(header.getKey())) {
+				continue;
+			}
+			for (String challenge : header.getValue()) {
+				if (challenge.regionMatches(true, 0, "Digest ", 0, 7)) {
+					return challenge;
+				} else if (challenge.regionMatches(true, 0, "Basic", 0, 5)) {
+					basic = challenge;
+				}
+			}
+		}
+		return basic;
+	}
+
+	/**
+	 * Returns the value of the Authorization header which answers the last
+	 * challenge.
+	 *
+	 * @return the header value, or null if no challenge has been received
+	 * @throws IOException
+	 *             if the credentials could not be encoded
+	 */
+	private String getAuthorization() throws IOException {
+		String current = challenge;
+		if (current == null) {
+			return null;
+		}
+		if (current.regionMatches(true, 0, "Basic", 0, 5)) {
+			return "Basic " + base64((username + ":" + password).getBytes("UTF-8"));
+		}
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		Matcher parameter = PARAMETER.matcher(current.substring(7));
+		while (parameter.find()) {
+			parameters.put(parameter.group(1).toLowerCase(),
+					parameter.group(2) != null ? parameter.group(2) : parameter.group(3));
+		}
+		String realm = parameters.get("realm");
+		String nonce = parameters.get("nonce");
+		String algorithm = parameters.get("algorithm");
+		String qop = parameters.get("qop");
+		byte[] random = new byte[8];
+		RANDOM.nextBytes(random);
+		String cnonce = hex(random);
+
+		String ha1 = md5(username + ":" + realm + ":" + password);
+		if ("MD5-sess".equalsIgnoreCase(algorithm)) {
+			ha1 = md5(ha1 + ":" + nonce + ":" + cnonce);
+		}
+		String ha2 = md5("POST:" + url.getPath());
+		StringBuilder authorization = new StringBuilder(String.format(
+				"Digest username=\"%s\", realm=\"%s\", nonce=\"%s\", uri=\"%s\"",
+				username, realm, nonce, url.getPath()));
+		if (qop != null && qop.matches("(.*,)?\\s*auth\\s*(,.*)?")) {
+			String nc = String.format("%08x", nonceCount.incrementAndGet());
+			authorization.append(String.format(", qop=auth, nc=%s, cnonce=\"%s\", response=\"%s\"", nc, cnonce,
+					md5(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":auth:" + ha2)));
+		} else {
+			authorization.append(String.format(", response=\"%s\"", md5(ha1 + ":" + nonce + ":" + ha2)));
+		}
+		if (algorithm != null) {
+			authorization.append(", algorithm=").append(algorithm);
+		}
+		if (parameters.containsKey("opaque")) {
+			authorization.append(String.format(", opaque=\"%s\"", parameters.get("opaque")));
+		}
+		return authorization.toString();
+	}
+
+	private static String md5(String value) throws IOException {
+		try {
+			return hex(MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	private static String base64(byte[] bytes) {
+		StringBuilder encoded = new StringBuilder();
+		for (int i = 0; i < bytes.length; i += 3) {
+			int n = (bytes[i] & 0xff) << 16;
+			if (i + 1 < bytes.length) {
+				n |= (bytes[i + 1] & 0xff) << 8;
+			}
+			if (i + 2 < bytes.length) {
+				n |= bytes[i + 2] & 0xff;
+			}
+			encoded.append(BASE64[(n >> 18) & 0x3f]).append(BASE64[(n >> 12) & 0x3f]);
+			encoded.append(i + 1 < bytes.length ? BASE64[(n >> 6) & 0x3f] : '=');
+			encoded.append(i + 2 < bytes.length ? BASE64[n & 0x3f] : '=');
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * Reads an attribute of the server.
+	 *
+	 * @param name
+	 *            the attribute name
+	 * @return the attribute value
+	 * @throws IOException
+	 *             if the operation failed
+	 */
+	public String readAttribute(String name) throws IOException {
+		Matcher result = RESULT.matcher(execute(String.format(
+				"{\"operation\":\"read-attribute\",\"name\":\"%s\",\"address\":[]}", name)));
+		return result.find() ? result.group(1) : null;
+	}
+
+	/**
+	 * Requests the server to reload its configuration without restarting the
+	 * JVM.
+	 *
+	 * @throws IOException
+	 *             if the operation failed
+	 */
+	public void reload() throws IOException {
+		execute("{\"operation\":\"reload\",\"address\":[]}");
+	}
+
+	/**
+	 * Redeploys a deployment and waits for the result.
+	 *
+	 * @param deployment
+	 *            the deployment name such as example.war
+	 * @throws IOException
+	 *             if the operation failed
+	 */
+	public void redeploy(String deployment) throws IOException {
+		execute(String.format("{\"operation\":\"redeploy\",\"address\":[{\"deployment\":\"%s\"}]}",
+				deployment));
+	}
+
+	/**
+	 * Returns whether the server state is running.
+	 *
+	 * @return true if the server is running, false if it is not or the
+	 *         management interface is not available
+	 */
+	public boolean isRunning() {
+		try {
+			return "running".equals(readAttribute("server-state"));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, length);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the metrics of a JVM on a node at a fixed interval and writes them
+ * to time-series files.
+ *
+ * One remote command is kept running for the whole sampling. It runs
+ * {@code jstat -gc} and {@code jstat -class}, which read the performance
+ * counters of the JVM without attaching to it, and reads /proc/&lt;pid&gt;/stat
+ * for CPU time, threads and RSS. Each line is stamped with the controller
+ * time when it arrives and with the current phase set by {@link #mark}.<br>
+ * The following files are written with the given prefix:
+ * <ul>
+ * <li>&lt;prefix&gt;-gc.csv: the columns of jstat -gc, such as heap and
+ * metaspace capacities and usages, GC counts and cumulative GC times</li>
+ * <li>&lt;prefix&gt;-class.csv: the columns of jstat -class</li>
+ * <li>&lt;prefix&gt;-proc.csv: CPU usage, CPU ticks, threads and RSS</li>
+ * </ul>
+ * Every row begins with the timestamp in milliseconds and the phase.
+ */
+public class MetricsSampler {
+
+	private static final long STOP_TIMEOUT = 10000;
+
+	protected final RemoteShell shell;
+
+	protected final String pid;
+
+	protected final String jstat;
+
+	protected final long interval;
+
+	protected final File dir;
+
+	protected final String prefix;
+
+	private volatile String phase = "";
+
+	private volatile String samplerPid;
+
+	private long tick = 100;
+
+	private long pageSize = 4096;
+
+	private long lastCpuTicks = -1;
+
+	private long lastCpuTime;
+
+	private PrintWriter gc;
+
+	private PrintWriter classes;
+
+	private PrintWriter proc;
+
+	private Thread thread;
+
+	private volatile Exception failure;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param shell
+	 *            the shell of the node
+	 * @param pid
+	 *            the shell expression which prints the process id of the JVM
+	 * @param jstat
+	 *            the path of the jstat command on the node
+	 * @param interval
+	 *            the sampling interval
+	 * @param unit
+	 *            the time unit of the interval
+	 * @param dir
+	 *            the local directory which the files are written to
+	 * @param prefix
+	 *            the prefix of the file names
+	 */
+	public MetricsSampler(RemoteShell shell, String pid, String jstat, long interval, TimeUnit unit, File dir,
+			String prefix) {
+		this.shell = shell;
+		this.pid = pid;
+		this.jstat = jstat;
+		this.interval = Math.max(1, unit.toMillis(interval));
+		this.dir = dir;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Starts the sampling in a daemon thread.
+	 *
+	 * @throws IOException
+	 *             if the files could not be created
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			throw new IllegalStateException("the sampler has already been started");
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(String.format("failed to create %s", dir));
+		}
+		gc = open("gc");
+		classes = open("class");
+		proc = open("proc");
+		proc.print("timestamp,phase,cpu_percent,user_ticks,system_ticks,threads,rss_kb\n");
+		proc.flush();
+
+		thread = new Thread("metrics-sampler-" + shell.host) {
+			@Override
+			public void run() {
+				try {
+					CommandResult result = shell.execute(getCommand(), null, new LineOutputStream());
+					if (!result.isSuccess() && samplerPid == null) {
+						failure = new IOException(String.format("failed to sample %s on %s: %s", pid, shell.host,
+								result.getError()));
+					}
+				} catch (Exception e) {
+					failure = e;
+				} finally {
+					close();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sets the phase which is written to the following rows.
+	 *
+	 * @param phase
+	 *            the phase name
+	 */
+	public void mark(String phase) {
+		this.phase = phase == null ? "" : phase;
+	}
+
+	/**
+	 * Stops the remote command and waits for the files to be closed.
+	 *
+	 * @throws Exception
+	 *             if the sampling failed
+	 */
+	public void stop() throws Exception {
+		if (thread == null) {
+			return;
+		}
+		if (samplerPid != null && thread.isAlive()) {
+			shell.execute(String.format("kill %s", samplerPid));
+		}
+		thread.join(STOP_TIMEOUT);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns the remote command. It prints the shell process id, the clock
+	 * ticks and the page size first, and then the prefixed lines of the
+	 * sources until the JVM exits or the shell is killed.<br>
+	 * The command is POSIX sh, because it runs in the login shell of the
+	 * user. The fields of /proc/[pid]/stat are counted after the command
+	 * name, which can contain spaces.
+	 *
+	 * @return the remote command
+	 */
+	protected String getCommand() {
+		String seconds = String.format("%d.%03d", interval / 1000, interval % 1000);
+		return String.format(
+				"PID=%1$s; if [ -z \"$PID\" ]; then echo 'process not found' >&2; exit 1; fi; " +
+				"echo \"SAMPLER $$ `getconf CLK_TCK` `getconf PAGESIZE`\"; " +
+				"trap 'kill `jobs -p` 2>/dev/null' EXIT; trap exit TERM; " +
+				"%2$s -gc $PID %3$d | sed -u 's/^/GC /' & " +
+				"%2$s -class $PID %3$d | sed -u 's/^/CLASS /' & " +
+				"while kill -0 $PID 2>/dev/null; do " +
+				"S=`cat /proc/$PID/stat` && set -- ${S##*) } && echo \"PROC ${12} ${13} ${18} ${22}\"; " +
+				"sleep %4$s; done",
+				pid, jstat, interval, seconds);
+	}
+
+	/**
+	 * Handles a line of the remote command.
+	 *
+	 * @param timestamp
+	 *            the controller time when the line arrived, in milliseconds
+	 * @param line
+	 *            the line
+	 */
+	protected void handleLine(long timestamp, String line) {
+		String[] fields = line.trim().split("\\s+");
+		if (fields[0].equals("SAMPLER") && fields.length == 4) {
+			samplerPid = fields[1];
+			tick = Long.parseLong(fields[2]);
+			pageSize = Long.parseLong(fields[3]);
+		} else if (fields[0].equals("GC")) {
+			write(gc, timestamp, fields);
+		} else if (fields[0].equals("CLASS")) {
+			write(classes, timestamp, fields);
+		} else if (fields[0].equals("PROC") && fields.length == 5) {
+			long cpuTicks = Long.parseLong(fields[1]) + Long.parseLong(fields[2]);
+			String cpu = "";
+			if (lastCpuTicks >= 0 && timestamp > lastCpuTime) {
+				cpu = String.format(Locale.ROOT, "%.1f", (cpuTicks - lastCpuTicks) * 1000.0 / tick * 100
+						/ (timestamp - lastCpuTime));
+			}
+			lastCpuTicks = cpuTicks;
+			lastCpuTime = timestamp;
+			proc.print(String.format("%d,%s,%s,%s,%s,%s,%d\n", timestamp, phase, cpu, fields[1], fields[2],
+					fields[3], Long.parseLong(fields[4]) * pageSize / 1024));
+			proc.flush();
+		}
+	}
+
+	private void write(PrintWriter out, long timestamp, String[] fields) {
+		StringBuilder row = new StringBuilder();
+		if (isHeader(fields)) {
+			row.append("timestamp,phase");
+		} else {
+			row.append(timestamp).append(",").append(phase);
+		}
+		for (int i = 1; i < fields.length; i++) {
+			row.append(",").append(fields[i]);
+		}
+		out.print(row.append("\n").toString());
+		out.flush();
+	}
+
+	private static boolean isHeader(String[] fields) {
+		return fields.length > 1 && !Character.isDigit(fields[1].charAt(0)) && fields[1].charAt(0) != '-';
+	}
+
+	private PrintWriter open(String name) throws IOException {
+		return new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, prefix + "-" + name
+				+ ".csv")), "UTF-8"));
+	}
+
+	private void close() {
+		gc.close();
+		classes.close();
+		proc.close();
+	}
+
+	/**
+	 * Splits the output of the remote command into lines.
+	 */
+	private class LineOutputStream extends OutputStream {
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			if (b == '\n') {
+				handleLine(System.currentTimeMillis(), line.toString("UTF-8"));
+				line.reset();
+			} else {
+				line.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+	}
+}
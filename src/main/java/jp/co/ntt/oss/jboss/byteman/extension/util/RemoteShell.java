@@ -0,0 +1,593 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Executes commands on a node over SSH and returns their output.
+ *
+ * A pooled instance keeps one authenticated session to the node open and
+ * executes each command on its own channel of that session, so concurrent
+ * commands to the same node share the connection. Use {@link #getInstance}
+ * to share the session between controllers. An instance which is not pooled
+ * connects a new session for each command and disconnects it after the
+ * command. A long-running command which streams its output, such as tail
+ * -F, is executed on a session of its own, so that it does not hold one of
+ * the channels of the shared session.
+ *
+ * The host key of the node is checked against ~/.ssh/known_hosts by default,
+ * and a node whose key is not in the file is rejected. Set another file by
+ * {@link #setKnownHosts}, or accept any key by {@link #setHostKeyChecking}.
+ */
+public class RemoteShell {
+
+	/**
+	 * The default SSH port.
+	 */
+	public static final int DEFAULT_PORT = 22;
+
+	/**
+	 * The maximum number of channels which are opened at the same time on a
+	 * session. This is kept under the default MaxSessions of OpenSSH.
+	 */
+	public static final int MAX_CHANNELS = 8;
+
+	/**
+	 * The default maximum time in milliseconds to wait for a channel of the
+	 * session to be free.
+	 */
+	public static final long DEFAULT_CHANNEL_TIMEOUT = 120000;
+
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	private static final int KEEPALIVE_INTERVAL = 30000;
+
+	private static final int KEEPALIVE_COUNT_MAX = 3;
+
+	/**
+	 * The default known hosts file, which is the one of OpenSSH.
+	 */
+	public static final String DEFAULT_KNOWN_HOSTS = System.getProperty("user.home") + "/.ssh/known_hosts";
+
+	private static final String DEFAULT_HOST_KEY_CHECKING = "yes";
+
+	private static final Map<String, RemoteShell> shells = new HashMap<String, RemoteShell>();
+
+	protected final String host;
+
+	protected final int port;
+
+	protected final String username;
+
+	protected final String password;
+
+	protected final boolean pooled;
+
+	private volatile String hostKeyChecking = DEFAULT_HOST_KEY_CHECKING;
+
+	private volatile String knownHosts = DEFAULT_KNOWN_HOSTS;
+
+	private volatile long channelTimeout = DEFAULT_CHANNEL_TIMEOUT;
+
+	private final Semaphore channels = new Semaphore(MAX_CHANNELS);
+
+	private Session session;
+
+	private final List<Session> streams = new ArrayList<Session>();
+
+	/**
+	 * Returns the shared shell for a node, creating it if necessary.
+	 *
+	 * @param host
+	 *            the host name or address of the node
+	 * @param port
+	 *            the SSH port of the node
+	 * @param username
+	 *            the SSH user name
+	 * @param password
+	 *            the SSH user password
+	 * @return the shared shell
+	 */
+	public static RemoteShell getInstance(String host, int port, String username, String password) {
+		String key = String.format("%s@%s:%d", username, host, port);
+		synchronized (shells) {
+			RemoteShell shell = shells.get(key);
+			if (shell == null) {
+				shell = new RemoteShell(host, port, username, password);
+				shells.put(key, shell);
+			}
+			return shell;
+		}
+	}
+
+	/**
+	 * Closes all shared shells.
+	 */
+	public static void closeAll() {
+		List<RemoteShell> closing;
+		synchronized (shells) {
+			closing = new ArrayList<RemoteShell>(shells.values());
+			shells.clear();
+		}
+		for (RemoteShell shell : closing) {
+			shell.close();
+		}
+	}
+
+	/**
+	 * Constructs a new pooled instance.
+	 *
+	 * @param host
+	 *            the host name or address of the node
+	 * @param port
+	 *            the SSH port of the node
+	 * @param username
+	 *            the SSH user name
+	 * @param password
+	 *            the SSH user password
+	 */
+	public RemoteShell(String host, int port, String username, String password) {
+		this(host, port, username, password, true);
+	}
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param host
+	 *            the host name or address of the node
+	 * @param port
+	 *            the SSH port of the node
+	 * @param username
+	 *            the SSH user name
+	 * @param password
+	 *            the SSH user password
+	 * @param pooled
+	 *            If true then the session is kept open for the following
+	 *            commands, otherwise a session is connected for each command.
+	 */
+	public RemoteShell(String host, int port, String username, String password, boolean pooled) {
+		this.host = host;
+		this.port = port;
+		this.username = username;
+		this.password = password;
+		this.pooled = pooled;
+	}
+
+	/**
+	 * Sets the policy of checking the host key of the node, which is applied
+	 * to the sessions connected after this call.
+	 *
+	 * @param hostKeyChecking
+	 *            yes to reject the node whose key is not in the known hosts
+	 *            file, no to accept any key. default is yes.
+	 */
+	public void setHostKeyChecking(String hostKeyChecking) {
+		if (!"yes".equals(hostKeyChecking) && !"no".equals(hostKeyChecking)) {
+			throw new IllegalArgumentException(String.format("unknown host key checking: %s", hostKeyChecking));
+		}
+		this.hostKeyChecking = hostKeyChecking;
+	}
+
+	/**
+	 * Sets the known hosts file which the host key of the node is checked
+	 * against, which is applied to the sessions connected after this call.
+	 *
+	 * @param knownHosts
+	 *            the path of the file, or null not to read any file. default
+	 *            is {@link #DEFAULT_KNOWN_HOSTS}.
+	 */
+	public void setKnownHosts(String knownHosts) {
+		this.knownHosts = knownHosts;
+	}
+
+	/**
+	 * Sets the maximum time to wait for one of the {@link #MAX_CHANNELS}
+	 * channels of the session to be free. If no channel is free within the
+	 * time, the command fails.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setChannelTimeout(long timeout, TimeUnit unit) {
+		this.channelTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Executes a command and waits for it to exit.<br>
+	 * If the session has been dropped, it is reconnected once.
+	 *
+	 * @param command
+	 *            the command line
+	 * @return the result of the command
+	 * @throws IOException
+	 *             if the command could not be executed
+	 */
+	public CommandResult execute(String command) throws IOException {
+		acquireChannel();
+		try {
+			Session current = getSession();
+			try {
+				return execute(current, command);
+			} catch (IOException e) {
+				if (current.isConnected()) {
+					throw e;
+				}
+			} finally {
+				release(current);
+			}
+			Session reconnected = getSession();
+			try {
+				return execute(reconnected, command);
+			} finally {
+				release(reconnected);
+			}
+		} finally {
+			releaseChannel();
+		}
+	}
+
+	/**
+	 * Executes a command and writes its standard output to a stream as it is
+	 * read, so that large outputs such as archives are not held in memory.<br>
+	 * Unlike {@link #execute(String)}, the command is not retried, because a
+	 * part of the output may have been written already.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param out
+	 *            the stream which the standard output is written to
+	 * @return the result of the command, whose output is empty
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	public CommandResult execute(String command, OutputStream out) throws IOException {
+		acquireChannel();
+		try {
+			Session current = getSession();
+			try {
+				ByteArrayOutputStream error = new ByteArrayOutputStream();
+				int exitStatus = execute(current, command, out, error);
+				return new CommandResult(exitStatus, "", error.toString("UTF-8"));
+			} finally {
+				release(current);
+			}
+		} finally {
+			releaseChannel();
+		}
+	}
+
+	/**
+	 * Executes a command and sends the content of a stream to its standard
+	 * input. The standard input is closed at the end of the stream.<br>
+	 * The command is not retried, because a part of the input may have been
+	 * consumed already.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param in
+	 *            the stream which is sent to the standard input
+	 * @return the result of the command
+	 * @throws IOException
+	 *             if the command could not be executed
+	 */
+	public CommandResult execute(String command, InputStream in) throws IOException {
+		acquireChannel();
+		try {
+			Session current = getSession();
+			try {
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				ByteArrayOutputStream error = new ByteArrayOutputStream();
+				int exitStatus = execute(current, command, in, output, error);
+				return new CommandResult(exitStatus, output.toString("UTF-8"), error.toString("UTF-8"));
+			} finally {
+				release(current);
+			}
+		} finally {
+			releaseChannel();
+		}
+	}
+
+	/**
+	 * Executes a command, sends the content of a stream to its standard input
+	 * and writes its standard output to a stream as it is read. This is
+	 * intended for long-running commands, which can be ended by ending the
+	 * input or by killing the command.<br>
+	 * The command is executed on a session of its own, which is disconnected
+	 * when the command exits or this shell is closed, so that it does not
+	 * hold one of the channels of the shared session.
+	 *
+	 * @param command
+	 *            the command line
+	 * @param in
+	 *            the stream which is sent to the standard input, or null
+	 * @param out
+	 *            the stream which the standard output is written to
+	 * @return the result of the command, whose output is empty
+	 * @throws IOException
+	 *             if the command could not be executed or the output could
+	 *             not be written
+	 */
+	public CommandResult execute(String command, InputStream in, OutputStream out) throws IOException {
+		Session stream = connect();
+		synchronized (streams) {
+			streams.add(stream);
+		}
+		try {
+			ByteArrayOutputStream error = new ByteArrayOutputStream();
+			int exitStatus = execute(stream, command, in, out, error);
+			return new CommandResult(exitStatus, "", error.toString("UTF-8"));
+		} finally {
+			synchronized (streams) {
+				streams.remove(stream);
+			}
+			stream.disconnect();
+		}
+	}
+
+	/**
+	 * Connects the session to the node if it is not connected. An instance
+	 * which is not pooled connects a session for each command instead.
+	 *
+	 * @return true if the session has been connected by this call, false if
+	 *         it was already connected or the instance is not pooled
+	 * @throws IOException
+	 *             if the connection or the authentication failed
+	 */
+	public synchronized boolean open() throws IOException {
+		if (!pooled || (session != null && session.isConnected())) {
+			return false;
+		}
+		getSession();
+		return true;
+	}
+
+	/**
+	 * Closes the session to the node and the sessions of the long-running
+	 * commands.
+	 */
+	public synchronized void close() {
+		if (session != null) {
+			session.disconnect();
+			session = null;
+		}
+		List<Session> closing;
+		synchronized (streams) {
+			closing = new ArrayList<Session>(streams);
+		}
+		for (Session stream : closing) {
+			stream.disconnect();
+		}
+	}
+
+	/**
+	 * Waits for one of the channels of the pooled session to be free.
+	 *
+	 * @throws IOException
+	 *             if no channel has been free within the timeout or
+	 *             interrupted while waiting
+	 */
+	protected void acquireChannel() throws IOException {
+		if (!pooled) {
+			return;
+		}
+		long timeout = channelTimeout;
+		try {
+			if (!channels.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException(String.format(
+						"all %d channels of the session to %s@%s:%d have been busy for %d ms",
+						MAX_CHANNELS, username, host, port, timeout));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("interrupted while executing a command on %s", host), e);
+		}
+	}
+
+	/**
+	 * Frees the channel which has been acquired by {@link #acquireChannel}.
+	 */
+	protected void releaseChannel() {
+		if (pooled) {
+			channels.release();
+		}
+	}
+
+	/**
+	 * Returns the session to the node, connecting it if it is not connected.
+	 * An instance which is not pooled connects a new session, which is
+	 * disconnected by {@link #release}.
+	 *
+	 * @return the connected session
+	 * @throws IOException
+	 *             if the connection or the authentication failed
+	 */
+	protected synchronized Session getSession() throws IOException {
+		if (!pooled) {
+			return connect();
+		}
+		if (session == null || !session.isConnected()) {
+			session = connect();
+		}
+		return session;
+	}
+
+	/**
+	 * Releases the session which has been returned by {@link #getSession}.
+	 * The session is disconnected unless the instance is pooled.
+	 *
+	 * @param session
+	 *            the session
+	 */
+	protected void release(Session session) {
+		if (!pooled) {
+			session.disconnect();
+		}
+	}
+
+	/**
+	 * Opens a new authenticated session to the node.
+	 *
+	 * @return the session
+	 * @throws IOException
+	 *             if the connection or the authentication failed
+	 */
+	protected Session connect() throws IOException {
+		try {
+			Session session = createSession();
+			session.connect(CONNECT_TIMEOUT);
+			return session;
+		} catch (JSchException e) {
+			throw new IOException(String.format("failed to connect to %s@%s:%d", username, host, port), e);
+		}
+	}
+
+	/**
+	 * Creates a session to the node which is not connected yet, with the
+	 * host key policy of this instance.
+	 *
+	 * @return the session
+	 * @throws JSchException
+	 *             if the known hosts file could not be read
+	 */
+	protected Session createSession() throws JSchException {
+		JSch jsch = new JSch();
+		if (knownHosts != null) {
+			jsch.setKnownHosts(knownHosts);
+		}
+		Session session = jsch.getSession(username, host, port);
+		session.setPassword(password);
+		session.setConfig("StrictHostKeyChecking", hostKeyChecking);
+		session.setServerAliveInterval(KEEPALIVE_INTERVAL);
+		session.setServerAliveCountMax(KEEPALIVE_COUNT_MAX);
+		session.setDaemonThread(true);
+		return session;
+	}
+
+	/**
+	 * Executes a command on an exec channel of the session.
+	 *
+	 * @param session
+	 *            the connected session
+	 * @param command
+	 *            the command line
+	 * @return the result of the command
+	 * @throws IOException
+	 *             if the channel could not be opened
+	 */
+	protected CommandResult execute(Session session, String command) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitStatus = execute(session, command, output, error);
+		return new CommandResult(exitStatus, output.toString("UTF-8"), error.toString("UTF-8"));
+	}
+
+	/**
+	 * Executes a command on an exec channel of the session and copies its
+	 * output to the streams.
+	 *
+	 * @param session
+	 *            the connected session
+	 * @param command
+	 *            the command line
+	 * @param output
+	 *            the stream which the standard output is written to
+	 * @param error
+	 *            the stream which the standard error is written to
+	 * @return the exit status of the command
+	 * @throws IOException
+	 *             if the channel could not be opened or the output could not
+	 *             be written
+	 */
+	protected int execute(Session session, String command, OutputStream output, OutputStream error)
+			throws IOException {
+		return execute(session, command, null, output, error);
+	}
+
+	/**
+	 * Executes a command on an exec channel of the session, sends a stream to
+	 * its standard input and copies its output to the streams.
+	 *
+	 * @param session
+	 *            the connected session
+	 * @param command
+	 *            the command line
+	 * @param input
+	 *            the stream which is sent to the standard input, or null
+	 * @param output
+	 *            the stream which the standard output is written to
+	 * @param error
+	 *            the stream which the standard error is written to
+	 * @return the exit status of the command
+	 * @throws IOException
+	 *             if the channel could not be opened or the output could not
+	 *             be written
+	 */
+	protected int execute(Session session, String command, InputStream input, OutputStream output,
+			OutputStream error) throws IOException {
+		ChannelExec channel = null;
+		try {
+			channel = (ChannelExec) session.openChannel("exec");
+			channel.setCommand(command);
+			if (input != null) {
+				channel.setInputStream(input, true);
+			}
+			channel.setErrStream(error);
+			InputStream in = channel.getInputStream();
+			channel.connect(CONNECT_TIMEOUT);
+
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) >= 0) {
+				output.write(buffer, 0, length);
+			}
+			while (!channel.isClosed()) {
+				Thread.sleep(10);
+			}
+			return channel.getExitStatus();
+		} catch (JSchException e) {
+			throw new IOException(String.format("failed to execute a command on %s", host), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("interrupted while executing a command on %s", host), e);
+		} finally {
+			if (channel != null) {
+				channel.disconnect();
+			}
+		}
+	}
+}
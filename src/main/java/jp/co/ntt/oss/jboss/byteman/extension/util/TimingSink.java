@@ -0,0 +1,44 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+/**
+ * Receives the timings of the commands which the controllers send to the
+ * nodes, such as an adapter of an external metrics system.
+ *
+ * The methods are called by the threads which execute the commands, so an
+ * implementation must be thread safe and should return quickly.
+ */
+public interface TimingSink {
+
+	/**
+	 * Records the timing of a step of a controller operation.
+	 *
+	 * @param identifier
+	 *            the node identifier
+	 * @param operation
+	 *            the controller operation, such as start or stop
+	 * @param step
+	 *            the kind of the step, such as connect or command
+	 * @param millis
+	 *            the elapsed time in milliseconds
+	 */
+	void record(String identifier, String operation, String step, long millis);
+}
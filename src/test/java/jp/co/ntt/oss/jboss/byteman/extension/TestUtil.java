@@ -31,12 +31,7 @@ public class TestUtil {
 			clazz = clazz.getSuperclass();
 		}
 
-		Field field = null;
-		try {
-			field = clazz.getDeclaredField(fieldName);
-		} catch (NoSuchFieldException e) {
-			field = clazz.getSuperclass().getDeclaredField(fieldName);
-		}
+		Field field = getField(clazz, fieldName);
 		field.setAccessible(true);
 		return field.get(target);
 	}
@@ -49,13 +44,19 @@ public class TestUtil {
 			clazz = clazz.getSuperclass();
 		}
 
-		Field field = null;
-		try {
-			field = clazz.getDeclaredField(fieldName);
-		} catch (NoSuchFieldException e) {
-			field = clazz.getSuperclass().getDeclaredField(fieldName);
-		}
+		Field field = getField(clazz, fieldName);
 		field.setAccessible(true);
 		field.set(target, value);
 	}
+
+	private static Field getField(Class<?> clazz, String fieldName) throws Exception {
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			try {
+				return c.getDeclaredField(fieldName);
+			} catch (NoSuchFieldException e) {
+				// searches the super class
+			}
+		}
+		throw new NoSuchFieldException(fieldName);
+	}
 }
@@ -0,0 +1,393 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.Artifact;
+import jp.co.ntt.oss.jboss.byteman.extension.util.TimingSink;
+import jp.co.ntt.oss.jboss.byteman.framework.controller.AbstractNodeController;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ClusterControllerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void start() throws Exception {
+		AbstractNodeController node1 = mock(AbstractNodeController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+
+		cluster.start();
+
+		verify(node1).start();
+		verify(node2).start();
+	}
+
+	@Test
+	public void stop() throws Exception {
+		AbstractNodeController node1 = mock(AbstractNodeController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+
+		cluster.stop();
+
+		verify(node1).stop();
+		verify(node2).stop();
+	}
+
+	@Test
+	public void start_failure() throws Exception {
+		AbstractNodeController node1 = mock(AbstractNodeController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		IllegalStateException cause = new IllegalStateException("boot failed");
+		doThrow(cause).when(node2).start();
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+
+		try {
+			cluster.start();
+			fail();
+		} catch (Exception e) {
+			assertEquals("node2 failed to start", e.getMessage());
+			assertSame(cause, e.getCause());
+		}
+	}
+
+	@Test
+	public void start_awaitStarted() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		when(node1.awaitStarted(60000, TimeUnit.MILLISECONDS)).thenReturn(true);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+
+		cluster.setStartTimeout(60, TimeUnit.SECONDS);
+		cluster.start();
+
+		verify(node1).start();
+		verify(node1).awaitStarted(60000, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void start_timeout() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		when(node1.awaitStarted(60000, TimeUnit.MILLISECONDS)).thenReturn(false);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+
+		cluster.setStartTimeout(60, TimeUnit.SECONDS);
+		try {
+			cluster.start();
+			fail();
+		} catch (Exception e) {
+			assertEquals("node1 failed to start", e.getMessage());
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	@Test
+	public void setMaxThreads() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		Answer<Void> answer = new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				int current = running.incrementAndGet();
+				synchronized (maxRunning) {
+					maxRunning.set(Math.max(maxRunning.get(), current));
+				}
+				Thread.sleep(50);
+				running.decrementAndGet();
+				return null;
+			}
+		};
+		ClusterController cluster = new ClusterController();
+		for (int i = 0; i < 6; i++) {
+			AbstractNodeController node = mock(AbstractNodeController.class);
+			doAnswer(answer).when(node).start();
+			cluster.addController("node" + i, node);
+		}
+
+		cluster.setMaxThreads(2);
+		cluster.start();
+
+		assertEquals(2, maxRunning.get());
+	}
+
+	@Test
+	public void stop_commandTimings() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		TimingSink sink = mock(TimingSink.class);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.setTimingSink(sink);
+
+		cluster.stop();
+
+		verify(node1).setTimingSink(sink);
+		InOrder order = inOrder(node1);
+		order.verify(node1).stop();
+		order.verify(node1).writeCommandTimings();
+		verify(node2).stop();
+	}
+
+	@Test
+	public void preflight() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		JBossController node3 = mock(JBossController.class);
+		PreflightReport report1 = new PreflightReport("node1",
+				Arrays.asList(new PreflightReport.Check("node.jboss.eap6.home /opt/jboss is a directory", true)));
+		PreflightReport report3 = new PreflightReport("node3",
+				Arrays.asList(new PreflightReport.Check("run.sh /opt/jboss/bin/run.sh is readable", false)));
+		when(node1.preflight()).thenReturn(report1);
+		when(node3.preflight()).thenReturn(report3);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.addController("node3", node3);
+
+		Map<String, PreflightReport> reports = cluster.preflight();
+
+		assertEquals(Arrays.asList("node1", "node3"), Arrays.asList(reports.keySet().toArray()));
+		assertTrue(reports.get("node1").isPassed());
+		assertFalse(reports.get("node3").isPassed());
+		assertEquals(1, reports.get("node3").getFailures().size());
+	}
+
+	@Test
+	public void deploy() throws Exception {
+		final List<Artifact> artifacts = Collections.synchronizedList(new ArrayList<Artifact>());
+		Answer<DeploymentReport> answer = new Answer<DeploymentReport>() {
+			public DeploymentReport answer(InvocationOnMock invocation) throws Throwable {
+				artifacts.add((Artifact) invocation.getArguments()[2]);
+				return new DeploymentReport("node", Arrays.asList(
+						new DeploymentReport.Deployment("app.war", DeploymentReport.Status.DEPLOYED, null)));
+			}
+		};
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		JBossEAP6StandaloneController node3 = mock(JBossEAP6StandaloneController.class);
+		when(node1.deploy(eq(60L), eq(TimeUnit.SECONDS), any(Artifact.class))).thenAnswer(answer);
+		when(node3.deploy(eq(60L), eq(TimeUnit.SECONDS), any(Artifact.class))).thenAnswer(answer);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.addController("node3", node3);
+
+		Map<String, DeploymentReport> reports = cluster.deploy(60, TimeUnit.SECONDS, folder.newFile("app.war"));
+
+		assertEquals(Arrays.asList("node1", "node3"), Arrays.asList(reports.keySet().toArray()));
+		assertTrue(reports.get("node3").isSucceeded());
+		assertEquals(2, artifacts.size());
+		assertSame(artifacts.get(0), artifacts.get(1));
+	}
+
+	@Test
+	public void distributeJars() throws Exception {
+		Map<String, String> paths = Collections.singletonMap("node.byteman.jar", "/tmp/byteman-cache/0a/byteman.jar");
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		JBossController node3 = mock(JBossController.class);
+		when(node1.distributeJars()).thenReturn(paths);
+		when(node3.distributeJars()).thenReturn(paths);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.addController("node3", node3);
+
+		Map<String, Map<String, String>> results = cluster.distributeJars();
+
+		assertEquals(Arrays.asList("node1", "node3"), Arrays.asList(results.keySet().toArray()));
+		assertEquals(paths, results.get("node3"));
+		verify(node1).distributeJars();
+		verify(node3).distributeJars();
+	}
+
+	@Test
+	public void stopRecording() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		JBossController node3 = mock(JBossController.class);
+		when(node1.stopRecording("steady")).thenReturn(new File("node1/node1-steady.jfr"));
+		when(node3.stopRecording("steady")).thenReturn(new File("node3/node3-steady.jfr"));
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.addController("node3", node3);
+
+		cluster.startRecording("steady");
+		Map<String, File> files = cluster.stopRecording("steady");
+
+		verify(node1).startRecording("steady");
+		verify(node3).startRecording("steady");
+		assertEquals(Arrays.asList("node1", "node3"), Arrays.asList(files.keySet().toArray()));
+		assertEquals("node3-steady.jfr", files.get("node3").getName());
+	}
+
+	@Test
+	public void rollingRestart() throws Exception {
+		final AtomicInteger down = new AtomicInteger();
+		final AtomicInteger maxDown = new AtomicInteger();
+		ClusterController cluster = new ClusterController();
+		List<JBossEAP6StandaloneController> nodes = new ArrayList<JBossEAP6StandaloneController>();
+		for (int i = 0; i < 5; i++) {
+			JBossEAP6StandaloneController node = mock(JBossEAP6StandaloneController.class);
+			doAnswer(new Answer<Void>() {
+				public Void answer(InvocationOnMock invocation) throws Throwable {
+					int current = down.incrementAndGet();
+					synchronized (maxDown) {
+						maxDown.set(Math.max(maxDown.get(), current));
+					}
+					return null;
+				}
+			}).when(node).stop();
+			when(node.awaitStopped(60000, TimeUnit.MILLISECONDS)).thenReturn(true);
+			when(node.awaitStarted(60000, TimeUnit.MILLISECONDS)).thenAnswer(new Answer<Boolean>() {
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(50);
+					down.decrementAndGet();
+					return true;
+				}
+			});
+			cluster.addController("node" + i, node);
+			nodes.add(node);
+		}
+		final List<String> reconfigured = Collections.synchronizedList(new ArrayList<String>());
+
+		cluster.setMaxUnavailable(2);
+		cluster.setStartTimeout(60, TimeUnit.SECONDS);
+		cluster.setStopTimeout(60, TimeUnit.SECONDS);
+		cluster.rollingRestart(new ClusterController.NodeTask<Void>() {
+			public Void execute(AbstractNodeController controller) throws Exception {
+				reconfigured.add(controller.toString());
+				return null;
+			}
+		}, null);
+
+		assertEquals(2, maxDown.get());
+		assertEquals(5, reconfigured.size());
+		for (JBossEAP6StandaloneController node : nodes) {
+			InOrder inOrder = inOrder(node);
+			inOrder.verify(node).stop();
+			inOrder.verify(node).awaitStopped(60000, TimeUnit.MILLISECONDS);
+			inOrder.verify(node).start();
+			inOrder.verify(node).awaitStarted(60000, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Test
+	public void rollingRestart_rollback() throws Exception {
+		JBossEAP6StandaloneController node1 = mock(JBossEAP6StandaloneController.class);
+		JBossEAP6StandaloneController node2 = mock(JBossEAP6StandaloneController.class);
+		JBossEAP6StandaloneController node3 = mock(JBossEAP6StandaloneController.class);
+		IllegalStateException cause = new IllegalStateException("node2 exited while starting");
+		for (JBossEAP6StandaloneController node : Arrays.asList(node1, node2, node3)) {
+			when(node.awaitStopped(60000, TimeUnit.MILLISECONDS)).thenReturn(true);
+			when(node.awaitStarted(60000, TimeUnit.MILLISECONDS)).thenReturn(true);
+		}
+		when(node2.awaitStarted(60000, TimeUnit.MILLISECONDS)).thenThrow(cause).thenReturn(true);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+		cluster.addController("node3", node3);
+		final List<AbstractNodeController> reconfigured = new ArrayList<AbstractNodeController>();
+		final List<AbstractNodeController> reverted = new ArrayList<AbstractNodeController>();
+
+		cluster.setStartTimeout(60, TimeUnit.SECONDS);
+		cluster.setStopTimeout(60, TimeUnit.SECONDS);
+		try {
+			cluster.rollingRestart(new ClusterController.NodeTask<Void>() {
+				public Void execute(AbstractNodeController controller) throws Exception {
+					reconfigured.add(controller);
+					return null;
+				}
+			}, new ClusterController.NodeTask<Void>() {
+				public Void execute(AbstractNodeController controller) throws Exception {
+					reverted.add(controller);
+					return null;
+				}
+			});
+			fail();
+		} catch (Exception e) {
+			assertEquals("node2 failed to restart, and 2 nodes were rolled back", e.getMessage());
+			assertSame(cause, e.getCause());
+		}
+
+		assertEquals(Arrays.<AbstractNodeController> asList(node1, node2), reconfigured);
+		assertEquals(Arrays.<AbstractNodeController> asList(node2, node1), reverted);
+		verify(node1, times(2)).start();
+		verify(node2, times(2)).start();
+		verifyZeroInteractions(node3);
+	}
+
+	@Test
+	public void rollingRestart_notReady() throws Exception {
+		AbstractNodeController node1 = mock(AbstractNodeController.class);
+		AbstractNodeController node2 = mock(AbstractNodeController.class);
+		ClusterController cluster = new ClusterController();
+		cluster.addController("node1", node1);
+		cluster.addController("node2", node2);
+
+		cluster.setStartTimeout(200, TimeUnit.MILLISECONDS);
+		cluster.setReadinessCheck(new ClusterController.NodeTask<Boolean>() {
+			public Boolean execute(AbstractNodeController controller) throws Exception {
+				return false;
+			}
+		});
+		try {
+			cluster.rollingRestart();
+			fail();
+		} catch (Exception e) {
+			assertEquals("node1 failed to restart, and the rolling restart was aborted after 0 nodes",
+					e.getMessage());
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+
+		verify(node1).stop();
+		verify(node1).start();
+		verifyZeroInteractions(node2);
+	}
+}
@@ -19,11 +19,18 @@
 
 package jp.co.ntt.oss.jboss.byteman.extension.controller;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.JmxClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LocalShell;
+import jp.co.ntt.oss.jboss.byteman.extension.util.RemoteShell;
 import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
 import jp.co.ntt.oss.jboss.byteman.framework.util.ServerCommandManager;
 
@@ -37,6 +44,12 @@ public class JBossControllerTest {
 	@Mock
 	private ServerCommandManager commandManager;
 
+	@Mock
+	private RemoteShell remoteShell;
+
+	@Mock
+	private JmxClient jmxClient;
+
 	private DistributedConfig distributedConfig = DistributedConfig.getConfig();
 	
 	@Before
@@ -97,10 +110,112 @@ public class JBossControllerTest {
 		TestUtil.setValue(controller, "commandManager", commandManager);
 		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
 
+		TestUtil.setValue(controller, "jmxClient", jmxClient);
+
 		controller.stop();
 
-		verify(commandManager).execute("server2",
-				"bash -c \"nohup /opt/jboss-5.1.2/jboss-as/bin/shutdown.sh -S -s 127.0.2.1 -u user -p password > /dev/null 2>&1 &\"");
+		verify(jmxClient).shutdown();
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test
+	public void stop_2() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "STOP:killed\n", ""));
+
+		controller.setStopGracePeriod(5, TimeUnit.SECONDS);
+		controller.stop();
+
+		verify(remoteShell).execute(
+				"PID=`pgrep -f '[o]rg.jboss.Main -c it -b 127.0.2.1'`; " +
+				"if [ -n \"$PID\" ] && kill -15 $PID 2>/dev/null; then " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 50 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"if kill -0 $PID 2>/dev/null; then kill -9 $PID; " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 100 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"echo STOP:killed; " +
+				"else echo STOP:exited; fi; " +
+				"else echo STOP:none; fi");
+		verifyZeroInteractions(commandManager);
+		verify(jmxClient, never()).shutdown();
+	}
+
+	@Test
+	public void getServerPid() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+
+		CommandResult result = new LocalShell().execute(String.format(
+				"PID=%s; echo \"PID:$PID\"", controller.getServerPid()));
+
+		assertEquals("PID:", result.getOutput().trim());
+	}
+
+	@Test
+	public void getJmxClient() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+
+		JmxClient client = controller.getJmxClient();
+
+		assertEquals("service:jmx:rmi:///jndi/rmi://127.0.2.1:1090/jmxrmi", TestUtil.getValue(client, "url").toString());
+		assertSame(client, controller.getJmxClient());
+	}
+
+	@Test
+	public void awaitStarted() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		TestUtil.setValue(controller, "jmxClient", jmxClient);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "PID:alive\n", ""));
+		when(jmxClient.isStarted()).thenThrow(new IOException("refused")).thenReturn(false).thenReturn(true);
+
+		assertTrue(controller.awaitStarted(10, TimeUnit.SECONDS));
+
+		verify(jmxClient, times(3)).isStarted();
+		verify(remoteShell).execute(
+				"PID=`pgrep -f '[o]rg.jboss.Main -c it -b 127.0.2.1'`; " +
+				"if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then echo PID:alive; else echo PID:none; fi");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void awaitStarted_exited() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		TestUtil.setValue(controller, "jmxClient", jmxClient);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "PID:alive\n", ""))
+				.thenReturn(new CommandResult(0, "PID:none\n", ""));
+		when(jmxClient.isStarted()).thenThrow(new IOException("refused"));
+
+		controller.awaitStarted(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void setSessionPooled() throws Exception {
+		JBossController controller = spy(new JBossController("server2"));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "", ""));
+
+		controller.setSessionPooled(true);
+		controller.start();
+
+		verify(remoteShell).execute(
+				"mkdir /opt/jboss-5.1.2/jboss-as/server/it/log ; " +
+				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=sys:/opt/byteman-framework.jar," +
+				  "address:127.0.2.1," +
+				  "port:9091," +
+				  "prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=127.0.0.1," +
+				  "prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				  "script:/opt/bytemanScript1.btm," +
+				  "script:/opt/bytemanScript2.btm\" ; " +
+				"bash -c \"nohup /opt/jboss-5.1.2/jboss-as/bin/run.sh -c it -b 127.0.2.1 &> /opt/jboss-5.1.2/jboss-as/server/it/log/stdout.log &\"");
+		verifyZeroInteractions(commandManager);
 	}
 
 	@Test
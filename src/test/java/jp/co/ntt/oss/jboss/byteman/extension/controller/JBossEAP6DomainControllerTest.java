@@ -0,0 +1,256 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.RemoteShell;
+import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
+import jp.co.ntt.oss.jboss.byteman.framework.util.ServerCommandManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class JBossEAP6DomainControllerTest {
+
+	@Mock
+	private ServerCommandManager commandManager;
+
+	@Mock
+	private RemoteShell remoteShell;
+
+	private DistributedConfig distributedConfig = DistributedConfig.getConfig();
+
+	@Before
+	public void setup() {
+		try {
+			MockitoAnnotations.initMocks(this);
+
+			distributedConfig = DistributedConfig.getConfig();
+			Method method = DistributedConfig.class.getDeclaredMethod("init", String.class);
+			method.setAccessible(true);
+			method.invoke(distributedConfig, "byteman-framework-domain.properties");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private JBossEAP6DomainController createController(String nodeId) throws Exception {
+		JBossEAP6DomainController controller = spy(new JBossEAP6DomainController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		return controller;
+	}
+
+	@Test
+	public void start_1() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+
+		controller.setCleanLogs(false);
+		controller.addModuleSystemPackage("my.test.package");
+		controller.start();
+
+		verify(commandManager).execute("myhost1",
+				"mkdir -p /opt/jboss-eap-6.0/domain/log; " +
+				"echo `stat -c %s /opt/jboss-eap-6.0/domain/servers/server-one/log/server.log 2>/dev/null || echo 0` " +
+				"> /opt/jboss-eap-6.0/domain/log/byteman-server-one.offset; " +
+				"echo `stat -c %s /opt/jboss-eap-6.0/domain/servers/server-two/log/server.log 2>/dev/null || echo 0` " +
+				"> /opt/jboss-eap-6.0/domain/log/byteman-server-two.offset; " +
+				"printf '%s\\n'" +
+				" 'if (outcome == success) of /host=master/server-config=server-one/jvm=default:read-resource'" +
+				" '/host=master/server-config=server-one/jvm=default:remove'" +
+				" 'end-if'" +
+				" '/host=master/server-config=server-one/jvm=default:add(jvm-options=[" +
+				"\"-javaagent:/opt/byteman.jar=sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.21,port:9091,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				"script:/opt/framework-test/myhost1.btm\"," +
+				"\"-Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework,my.test.package\"])'" +
+				" 'if (outcome == success) of /host=master/server-config=server-two/jvm=default:read-resource'" +
+				" '/host=master/server-config=server-two/jvm=default:remove'" +
+				" 'end-if'" +
+				" '/host=master/server-config=server-two/jvm=default:add(jvm-options=[" +
+				"\"-javaagent:/opt/byteman.jar=sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.21,port:9092,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				"script:/opt/framework-test/myhost1.btm\"," +
+				"\"-Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework,my.test.package\"])'" +
+				" '/host=master/server-config=server-one:start'" +
+				" '/host=master/server-config=server-two:start'" +
+				" > /opt/jboss-eap-6.0/domain/log/byteman-servers.cli; " +
+				"printf '%s\\n'" +
+				" 'export LAUNCH_JBOSS_IN_BACKGROUND=true'" +
+				" 'export JBOSS_PIDFILE=/opt/jboss-eap-6.0/domain/log/jboss.pid'" +
+				" '/opt/jboss-eap-6.0/bin/domain.sh -b 192.168.1.21 -bmanagement=192.168.1.21" +
+				" --domain-config=domain.xml --host-config=host.xml -Djboss.domain.base.dir=/opt/jboss-eap-6.0/domain &'" +
+				" 'I=0'" +
+				" 'until (exec 3<>/dev/tcp/192.168.1.21/9999) 2>/dev/null; do I=$(($I + 1)); [ $I -ge 600 ] && exit 1; sleep 0.5; done'" +
+				" '/opt/jboss-eap-6.0/bin/jboss-cli.sh --connect --controller=192.168.1.21:9999" +
+				" --file=/opt/jboss-eap-6.0/domain/log/byteman-servers.cli'" +
+				" 'wait'" +
+				" > /opt/jboss-eap-6.0/domain/log/byteman-domain.sh; " +
+				"bash -c \"nohup bash /opt/jboss-eap-6.0/domain/log/byteman-domain.sh &> /opt/jboss-eap-6.0/domain/log/stdout.log &\"");
+	}
+
+	@Test
+	public void start_2() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost2");
+
+		controller.start();
+
+		verify(commandManager).execute("myhost2",
+				"mkdir -p /opt/jboss-eap-6.0/mydomain/log; " +
+				"rm -rf /opt/jboss-eap-6.0/mydomain/log/* /opt/jboss-eap-6.0/mydomain/servers/*/log/*; " +
+				"printf '%s\\n'" +
+				" 'if (outcome == success) of /host=slave/server-config=server-three/jvm=default:read-resource'" +
+				" '/host=slave/server-config=server-three/jvm=default:remove'" +
+				" 'end-if'" +
+				" '/host=slave/server-config=server-three/jvm=default:add(jvm-options=[" +
+				"\"-javaagent:/opt/byteman.jar=sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.22,port:9091,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099\"," +
+				"\"-Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework\"])'" +
+				" '/server-group=other-server-group:start-servers'" +
+				" > /opt/jboss-eap-6.0/mydomain/log/byteman-servers.cli; " +
+				"printf '%s\\n'" +
+				" 'export LAUNCH_JBOSS_IN_BACKGROUND=true'" +
+				" 'export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mydomain/log/jboss.pid'" +
+				" '/opt/jboss-eap-6.0/bin/domain.sh -b 192.168.1.22 -bmanagement=192.168.1.22" +
+				" --domain-config=mydomain.xml --host-config=host-slave.xml -Djboss.domain.base.dir=/opt/jboss-eap-6.0/mydomain &'" +
+				" 'I=0'" +
+				" 'until (exec 3<>/dev/tcp/192.168.1.22/9999) 2>/dev/null; do I=$(($I + 1)); [ $I -ge 600 ] && exit 1; sleep 0.5; done'" +
+				" '/opt/jboss-eap-6.0/bin/jboss-cli.sh --connect --controller=192.168.1.22:9999" +
+				" --file=/opt/jboss-eap-6.0/mydomain/log/byteman-servers.cli'" +
+				" 'wait'" +
+				" > /opt/jboss-eap-6.0/mydomain/log/byteman-domain.sh; " +
+				"bash -c \"nohup bash /opt/jboss-eap-6.0/mydomain/log/byteman-domain.sh &> /opt/jboss-eap-6.0/mydomain/log/stdout.log &\"");
+	}
+
+	@Test
+	public void stop_1() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+
+		controller.stop();
+
+		verify(commandManager).execute("myhost1",
+				"bash -c \"kill -15 `cat /opt/jboss-eap-6.0/domain/log/jboss.pid`\"");
+	}
+
+	@Test
+	public void startServerGroup() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "{\"outcome\" => \"success\"}\n", ""));
+
+		controller.startServerGroup("main-server-group");
+
+		verify(remoteShell).execute(
+				"/opt/jboss-eap-6.0/bin/jboss-cli.sh --connect --controller=192.168.1.21:9999" +
+				" --command='/server-group=main-server-group:start-servers'");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void stopServer() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(1, "{\"outcome\" => \"failed\"}\n", ""));
+
+		controller.stopServer("server-one");
+	}
+
+	@Test
+	public void awaitStarted() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:none\n", ""),
+				new CommandResult(0, "PID:alive\nSTARTED:server-one:JBAS015874: JBoss EAP 6.0.0.GA started in 3000ms\n", ""),
+				new CommandResult(0, "PID:alive\nSTARTED:server-one:JBAS015874: JBoss EAP 6.0.0.GA started in 3000ms\n" +
+						"STARTED:server-two:JBAS015874: JBoss EAP 6.0.0.GA started in 3500ms\n", ""));
+
+		assertTrue(controller.awaitStarted(10, TimeUnit.SECONDS));
+
+		verify(remoteShell, times(3)).execute(
+				"if [ -f /opt/jboss-eap-6.0/domain/log/jboss.pid ]; then " +
+				"if kill -0 `cat /opt/jboss-eap-6.0/domain/log/jboss.pid` 2>/dev/null; then echo PID:alive; else echo PID:dead; fi; " +
+				"else echo PID:none; fi; " +
+				"O=`cat /opt/jboss-eap-6.0/domain/log/byteman-server-one.offset 2>/dev/null`; " +
+				"[ `stat -c %s /opt/jboss-eap-6.0/domain/servers/server-one/log/server.log 2>/dev/null || echo 0` -ge ${O:=0} ] " +
+				"|| O=0; tail -c +$(($O + 1)) /opt/jboss-eap-6.0/domain/servers/server-one/log/server.log 2>/dev/null " +
+				"| grep -E 'JBAS015874|JBAS015875' | sed 's/^/STARTED:server-one:/'; " +
+				"O=`cat /opt/jboss-eap-6.0/domain/log/byteman-server-two.offset 2>/dev/null`; " +
+				"[ `stat -c %s /opt/jboss-eap-6.0/domain/servers/server-two/log/server.log 2>/dev/null || echo 0` -ge ${O:=0} ] " +
+				"|| O=0; tail -c +$(($O + 1)) /opt/jboss-eap-6.0/domain/servers/server-two/log/server.log 2>/dev/null " +
+				"| grep -E 'JBAS015874|JBAS015875' | sed 's/^/STARTED:server-two:/'");
+	}
+
+	@Test
+	public void awaitStarted_withErrors() throws Exception {
+		JBossEAP6DomainController controller = createController("myhost1");
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:alive\nSTARTED:server-one:JBAS015874: JBoss EAP 6.0.0.GA started in 3000ms\n" +
+						"STARTED:server-two:JBAS015875: JBoss EAP 6.0.0.GA started (with errors) in 3500ms\n", ""));
+
+		try {
+			controller.awaitStarted(10, TimeUnit.SECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("server-two of myhost1 started with errors: " +
+					"JBAS015875: JBoss EAP 6.0.0.GA started (with errors) in 3500ms", e.getMessage());
+		}
+		verify(remoteShell, times(1)).execute(anyString());
+	}
+
+	@Test
+	public void startSampler() throws Exception {
+		JBossEAP6DomainController controller = new JBossEAP6DomainController("myhost1");
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("myhost1"));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+
+		assertFalse(controller.supportsSampling());
+		assertFalse(controller.supportsRecording());
+		assertTrue(controller.supportsLogSubscription());
+		try {
+			controller.startSampler(1, TimeUnit.SECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("JBossEAP6DomainController of myhost1 can not sample the metrics, " +
+					"because it does not know the server process", e.getMessage());
+		}
+		try {
+			controller.startRecording("steady");
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("JBossEAP6DomainController of myhost1 can not record, " +
+					"because it does not know the server process", e.getMessage());
+		}
+		verifyZeroInteractions(remoteShell);
+	}
+}
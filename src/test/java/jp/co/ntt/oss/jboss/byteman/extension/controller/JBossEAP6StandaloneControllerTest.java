@@ -19,25 +19,74 @@
 
 package jp.co.ntt.oss.jboss.byteman.extension.controller;
 
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+import jp.co.ntt.oss.jboss.byteman.extension.util.Artifact;
+import jp.co.ntt.oss.jboss.byteman.extension.util.BytemanAgentClient;
+import jp.co.ntt.oss.jboss.byteman.extension.controller.DeploymentReport.Status;
+import jp.co.ntt.oss.jboss.byteman.extension.util.CommandResult;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LatencyRecorder;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LocalShell;
+import jp.co.ntt.oss.jboss.byteman.extension.util.ManagementClient;
+import jp.co.ntt.oss.jboss.byteman.extension.util.RemoteShell;
+import jp.co.ntt.oss.jboss.byteman.extension.util.TimingSink;
 import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
 import jp.co.ntt.oss.jboss.byteman.framework.util.ServerCommandManager;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class JBossEAP6StandaloneControllerTest {
 
 	@Mock
 	private ServerCommandManager commandManager;
 
+	@Mock
+	private RemoteShell remoteShell;
+
+	@Mock
+	private ManagementClient managementClient;
+
+	@Mock
+	private BytemanAgentClient agentClient;
+
+	@Rule
+	public TemporaryFolder resultDir = new TemporaryFolder();
+
 	private DistributedConfig distributedConfig = DistributedConfig.getConfig();
 
 	@Before
@@ -69,7 +118,93 @@ public class JBossEAP6StandaloneControllerTest {
 				"rm -rf /opt/jboss-eap-6.0/mytarget/log/*");
 		verify(commandManager).execute("mytarget1",
 				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
-				"export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
+				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
+				"sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.11,port:9091,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				"script:/opt/framework-test/mytarget1.btm -Djboss.modules.system.pkgs=org.jboss.byteman," +
+				"jp.co.ntt.oss.jboss.byteman.framework\" && " +
+				"bash -c \"nohup /opt/my-jboss-eap-6.0/bin/standalone.sh -b app1" +
+				" -bmanagement=app1 -c mystandalone.xml&> /opt/jboss-eap-6.0/mytarget/log/stdout.log &\"");
+	}
+
+	@Test
+	public void start_agentDisabled() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+
+		controller.setCleanLogs(false);
+		controller.setAgentEnabled(false);
+		controller.start();
+
+		verify(commandManager).execute("mytarget1",
+				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
+				"export JAVA_OPTS=\"$JAVA_OPTS -Djboss.modules.system.pkgs=org.jboss.byteman," +
+				"jp.co.ntt.oss.jboss.byteman.framework\" && " +
+				"bash -c \"nohup /opt/my-jboss-eap-6.0/bin/standalone.sh -b app1" +
+				" -bmanagement=app1 -c mystandalone.xml&> /opt/jboss-eap-6.0/mytarget/log/stdout.log &\"");
+	}
+
+	@Test
+	public void start_reuseRunningServer_1() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		String fingerprint = controller.getLaunchSpec().getFingerprint();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "LAUNCH:same\n", ""));
+
+		controller.setReuseRunningServer(true);
+		controller.start();
+
+		verify(remoteShell).execute(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then " +
+				"if [ \"`cat /opt/jboss-eap-6.0/mytarget/log/jboss.fingerprint 2>/dev/null`\" = \"" + fingerprint + "\" ]; " +
+				"then echo LAUNCH:same; else echo LAUNCH:changed; fi; " +
+				"else echo LAUNCH:none; fi");
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test
+	public void start_reuseRunningServer_2() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		String fingerprint = controller.getLaunchSpec().getFingerprint();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "LAUNCH:changed\n", ""),
+				new CommandResult(0, "STOP:exited\n", ""));
+
+		controller.setReuseRunningServer(true);
+		controller.setCleanLogs(false);
+		controller.start();
+
+		verify(remoteShell).execute(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$PID\" ] && kill -15 $PID 2>/dev/null; then " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 600 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"if kill -0 $PID 2>/dev/null; then kill -9 $PID; " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 100 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"echo STOP:killed; else echo STOP:exited; fi; " +
+				"else echo STOP:none; fi; rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid");
+		verify(commandManager).execute("mytarget1",
+				"mkdir -p /opt/jboss-eap-6.0/mytarget/log; " +
+				"echo " + fingerprint + " > /opt/jboss-eap-6.0/mytarget/log/jboss.fingerprint; " +
+				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
 				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
 				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
 				"sys:/opt/framework-test/byteman-framework.jar," +
@@ -81,6 +216,155 @@ public class JBossEAP6StandaloneControllerTest {
 				" -bmanagement=app1 -c mystandalone.xml&> /opt/jboss-eap-6.0/mytarget/log/stdout.log &\"");
 	}
 
+	@Test
+	public void getLaunchSpec() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+
+		LaunchSpec spec = controller.getLaunchSpec();
+
+		assertEquals(spec, controller.getLaunchSpec());
+		assertEquals(spec.getFingerprint(), controller.getLaunchSpec().getFingerprint());
+		assertEquals(40, spec.getFingerprint().length());
+
+		controller.addModuleSystemPackage("my.test.package");
+
+		assertFalse(spec.equals(controller.getLaunchSpec()));
+		assertFalse(spec.getFingerprint().equals(controller.getLaunchSpec().getFingerprint()));
+	}
+
+	@Test
+	public void start_classDataSharing() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+		String fingerprint = controller.getLaunchSpec().getFingerprint();
+
+		controller.setCleanLogs(false);
+		controller.setClassDataSharing(true);
+		LaunchSpec spec = controller.getLaunchSpec();
+		controller.start();
+
+		assertFalse(fingerprint.equals(spec.getFingerprint()));
+		assertEquals("/opt/jboss-eap-6.0/mytarget/cds", spec.get("cdsDir"));
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("jbossHome", spec.get("jbossHome"));
+		entries.put("javaOptions", spec.get("javaOptions"));
+		String key = new LaunchSpec(entries).getFingerprint();
+		verify(commandManager).execute("mytarget1",
+				"CDS=/opt/jboss-eap-6.0/mytarget/cds; mkdir -p $CDS; " +
+				"JVM=$(readlink -f \"$(command -v ${JAVA_HOME:+$JAVA_HOME/bin/}java)\"); JDK=${JVM%/bin/java}; " +
+				"V=$(sed -n 's/^JAVA_VERSION=\"\\([0-9]*\\).*/\\1/p' $JDK/release 2>/dev/null); " +
+				"KEY=$( (echo " + key + "; cat $JDK/release; stat -L -c '%n %s %Y' $JVM $JDK/lib/modules " +
+				"/opt/my-jboss-eap-6.0/jboss-modules.jar /opt/byteman.jar /opt/framework-test/byteman-framework.jar) 2>/dev/null " +
+				"| sha1sum | cut -c1-40); CDS_OPTS=; " +
+				"if [ \"${V:-0}\" -ge 13 ]; then " +
+				"if [ ! -s $CDS/$KEY.jsa ]; then ls -t $CDS/*.jsa 2>/dev/null | tail -n +3 | xargs -r rm -f; fi; " +
+				"if [ $V -ge 19 ]; then CDS_OPTS=\"-XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=$CDS/$KEY.jsa\"; " +
+				"elif [ -s $CDS/$KEY.jsa ]; then CDS_OPTS=\"-XX:SharedArchiveFile=$CDS/$KEY.jsa\"; " +
+				"else CDS_OPTS=\"-XX:ArchiveClassesAtExit=$CDS/$KEY.jsa\"; fi; fi; " +
+				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
+				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
+				"sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.11,port:9091,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				"script:/opt/framework-test/mytarget1.btm -Djboss.modules.system.pkgs=org.jboss.byteman," +
+				"jp.co.ntt.oss.jboss.byteman.framework $CDS_OPTS\" && " +
+				"bash -c \"nohup /opt/my-jboss-eap-6.0/bin/standalone.sh -b app1" +
+				" -bmanagement=app1 -c mystandalone.xml&> /opt/jboss-eap-6.0/mytarget/log/stdout.log &\"");
+	}
+
+	@Test
+	public void start_provisionBaseDir() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		doReturn("20130401-120000-000").when(controller).getRotationSuffix();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "", ""));
+
+		controller.setProvisionBaseDir(true);
+		controller.setCleanLogs(false);
+		controller.start();
+
+		verify(remoteShell).execute(
+				"mkdir -p /opt/jboss-eap-6.0/mytarget-runs && " +
+				"mkdir /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000 || exit 1; " +
+				"for F in /opt/jboss-eap-6.0/mytarget/* /opt/jboss-eap-6.0/mytarget/.[!.]*; do [ -e \"$F\" ] || continue; " +
+				"case ${F##*/} in log|tmp|data|configuration) " +
+				"cp -a --reflink=auto \"$F\" /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/ ;; " +
+				"*) cp -al \"$F\" /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/ ;; esac " +
+				"|| exit 1; done; " +
+				"mkdir -p /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/log " +
+				"/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/tmp " +
+				"/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/data; " +
+				"(for D in `ls -dt /opt/jboss-eap-6.0/mytarget-runs/mytarget1-" +
+				"[0-9][0-9][0-9][0-9][0-9][0-9][0-9][0-9]-[0-9][0-9][0-9][0-9][0-9][0-9]-[0-9][0-9][0-9]/ " +
+				"| tail -n +5`; " +
+				"do P=`cat $D/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$P\" ] && kill -0 $P 2>/dev/null; then continue; fi; nice -n 10 rm -rf $D; done) " +
+				"> /dev/null 2>&1 &");
+		verify(commandManager).execute("mytarget1",
+				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/log/jboss.pid;" +
+				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000;" +
+				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
+				"sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.11,port:9091,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099," +
+				"script:/opt/framework-test/mytarget1.btm -Djboss.modules.system.pkgs=org.jboss.byteman," +
+				"jp.co.ntt.oss.jboss.byteman.framework\" && " +
+				"bash -c \"nohup /opt/my-jboss-eap-6.0/bin/standalone.sh -b app1" +
+				" -bmanagement=app1 -c mystandalone.xml" +
+				"&> /opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/log/stdout.log &\"");
+		assertEquals("/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000", controller.getBaseDir());
+		assertEquals("/opt/jboss-eap-6.0/mytarget-runs/mytarget1-20130401-120000-000/log", controller.getLogDir());
+	}
+
+	@Test
+	public void start_rotateLogs() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		doReturn("20261017-101500-000").when(controller).getRotationSuffix();
+		doReturn(resultDir.getRoot()).when(controller).getResultDir();
+		doAnswer(new Answer<CommandResult>() {
+			public CommandResult answer(InvocationOnMock invocation) throws Throwable {
+				((OutputStream) invocation.getArguments()[1]).write("archive".getBytes("UTF-8"));
+				return new CommandResult(0, "", "");
+			}
+		}).when(remoteShell).execute(anyString(), any(OutputStream.class));
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "", ""));
+
+		controller.setRotateLogs(true);
+		controller.start();
+		List<File> archives = controller.awaitArchives(10, TimeUnit.SECONDS);
+
+		verify(commandManager).execute("mytarget1",
+				"if [ -d /opt/jboss-eap-6.0/mytarget/log ]; then " +
+				"mv /opt/jboss-eap-6.0/mytarget/log /opt/jboss-eap-6.0/mytarget/log.20261017-101500-000; fi; " +
+				"mkdir -p /opt/jboss-eap-6.0/mytarget/log");
+		verify(remoteShell).execute(eq(
+				"[ -d /opt/jboss-eap-6.0/mytarget/log.20261017-101500-000 ] || exit 3; " +
+				"cd /opt/jboss-eap-6.0/mytarget/log.20261017-101500-000/.. && " +
+				"nice -n 10 tar czf - log.20261017-101500-000"), any(OutputStream.class));
+		verify(remoteShell).execute("rm -rf /opt/jboss-eap-6.0/mytarget/log.20261017-101500-000");
+		assertEquals(Arrays.asList(new File(resultDir.getRoot(), "log.20261017-101500-000.tar.gz")), archives);
+		assertEquals(7, archives.get(0).length());
+	}
+
 	@Test
 	public void start_2() throws Exception {
 		String nodeId = "mytarget2";
@@ -94,7 +378,7 @@ public class JBossEAP6StandaloneControllerTest {
 
 		verify(commandManager).execute("mytarget2",
 				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
-				"export JBOSS_PIDFILE=/opt/jboss-eap-6.0/standalone/log/jboss.pid;" +
+				"rm -f /opt/jboss-eap-6.0/standalone/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/standalone/log/jboss.pid;" +
 				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/standalone;" +
 				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
 				"sys:/opt/framework-test/byteman-framework.jar," +
@@ -106,6 +390,36 @@ public class JBossEAP6StandaloneControllerTest {
 				" -bmanagement=192.168.1.12 -c standalone-full.xml&> /opt/jboss-eap-6.0/standalone/log/stdout.log &\"");
 	}
 
+	@Test
+	public void start_portOffset() throws Exception {
+		String nodeId = "mytarget3";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+
+		controller.setCleanLogs(false);
+		controller.start();
+
+		verify(commandManager).execute("mytarget3",
+				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget3/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget3/log/jboss.pid;" +
+				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget3;" +
+				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
+				"sys:/opt/framework-test/byteman-framework.jar," +
+				"address:192.168.1.11,port:9191,prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.host=192.168.1.1," +
+				"prop:org.jboss.byteman.jp.co.ntt.oss.jboss.byteman.framework.port=1099" +
+				" -Djboss.modules.system.pkgs=org.jboss.byteman," +
+				"jp.co.ntt.oss.jboss.byteman.framework -Djboss.socket.binding.port-offset=100\" && " +
+				"bash -c \"nohup /opt/jboss-eap-6.0/bin/standalone.sh -b 192.168.1.11" +
+				" -bmanagement=192.168.1.11 -c standalone-full.xml&> /opt/jboss-eap-6.0/mytarget3/log/stdout.log &\"");
+		assertEquals(10090, controller.managementPort);
+		List<BytemanAgentClient> clients = controller.getAgentClients();
+		assertEquals(1, clients.size());
+		assertEquals("192.168.1.11", clients.get(0).getHost());
+		assertEquals(9191, clients.get(0).getPort());
+	}
+
 	@Test
 	public void stop_1() throws Exception {
 		String nodeId = "mytarget1";
@@ -120,6 +434,52 @@ public class JBossEAP6StandaloneControllerTest {
 				"bash -c \"kill -15 `cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid`\"");
 	}
 
+	@Test
+	public void stop_2() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "STOP:exited\n", ""));
+
+		controller.setStopGracePeriod(30, TimeUnit.SECONDS);
+		controller.stop();
+
+		verify(remoteShell).execute(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$PID\" ] && kill -15 $PID 2>/dev/null; then " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 300 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"if kill -0 $PID 2>/dev/null; then kill -9 $PID; " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 100 ]; do sleep 0.1; I=$(($I + 1)); done; " +
+				"echo STOP:killed; " +
+				"else echo STOP:exited; fi; " +
+				"else echo STOP:none; fi; rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid");
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test
+	public void awaitStopped() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "RUNNING\n", ""), new CommandResult(0, "STOPPED\n", ""));
+
+		assertFalse(controller.awaitStopped(1, TimeUnit.SECONDS));
+		assertTrue(controller.awaitStopped(1, TimeUnit.SECONDS));
+
+		verify(remoteShell, times(2)).execute(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; " +
+				"if [ -n \"$PID\" ]; then " +
+				"I=0; while kill -0 $PID 2>/dev/null && [ $I -lt 10 ]; do sleep 0.1; I=$(($I + 1)); done; fi; " +
+				"if [ -n \"$PID\" ] && kill -0 $PID 2>/dev/null; then echo RUNNING; else echo STOPPED; fi");
+	}
+
 	@Test
 	public void setOptions() throws Exception {
 		String nodeId = "mytarget1";
@@ -134,7 +494,7 @@ public class JBossEAP6StandaloneControllerTest {
 
 		verify(commandManager).execute("mytarget1",
 				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
-				"export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
 				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
 				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
 				"sys:/opt/framework-test/byteman-framework.jar," +
@@ -160,7 +520,7 @@ public class JBossEAP6StandaloneControllerTest {
 
 		verify(commandManager).execute("mytarget1",
 				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
-				"export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
 				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
 				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
 				"sys:/opt/framework-test/byteman-framework.jar," +
@@ -186,7 +546,7 @@ public class JBossEAP6StandaloneControllerTest {
 
 		verify(commandManager).execute("mytarget1",
 				"export LAUNCH_JBOSS_IN_BACKGROUND=true;" +
-				"export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
+				"rm -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid;export JBOSS_PIDFILE=/opt/jboss-eap-6.0/mytarget/log/jboss.pid;" +
 				"export JBOSS_BASE_DIR=/opt/jboss-eap-6.0/mytarget;" +
 				"export JAVA_OPTS=\"$JAVA_OPTS -javaagent:/opt/byteman.jar=" +
 				"sys:/opt/framework-test/byteman-framework.jar," +
@@ -197,4 +557,606 @@ public class JBossEAP6StandaloneControllerTest {
 				"bash -c \"nohup /opt/my-jboss-eap-6.0/bin/standalone.sh -b app1" +
 				" -bmanagement=app1 -c mystandalone.xml&> /opt/jboss-eap-6.0/mytarget/log/stdout.log &\"");
 	}
+
+	@Test
+	public void setSessionPooled() throws Exception {
+		String nodeId = "mytarget2";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "", ""));
+
+		controller.setSessionPooled(true);
+		controller.stop();
+
+		verify(remoteShell).execute(
+				"bash -c \"kill -15 `cat /opt/jboss-eap-6.0/standalone/log/jboss.pid`\"");
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test
+	public void getRemoteShell() throws Exception {
+		JBossEAP6StandaloneController controller = new JBossEAP6StandaloneController("mytarget1");
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("mytarget1"));
+		JBossEAP6StandaloneController pooled = new JBossEAP6StandaloneController("mytarget2");
+		TestUtil.setValue(pooled, "config", distributedConfig.getNodeConfig("mytarget2"));
+		pooled.setSessionPooled(true);
+
+		try {
+			RemoteShell shell = controller.getRemoteShell();
+			assertFalse((Boolean) TestUtil.getValue(shell, "pooled"));
+			assertEquals("no", TestUtil.getValue(shell, "hostKeyChecking"));
+			assertEquals("/home/me/.ssh/known_hosts", TestUtil.getValue(shell, "knownHosts"));
+			assertNotSame(RemoteShell.getInstance("192.168.1.11", 22, "me", "mypass"), shell);
+
+			shell = pooled.getRemoteShell();
+			assertTrue((Boolean) TestUtil.getValue(shell, "pooled"));
+			assertEquals("yes", TestUtil.getValue(shell, "hostKeyChecking"));
+			assertEquals(RemoteShell.DEFAULT_KNOWN_HOSTS, TestUtil.getValue(shell, "knownHosts"));
+			assertSame(RemoteShell.getInstance("192.168.1.12", 22, "jboss", "password"), shell);
+		} finally {
+			RemoteShell.closeAll();
+		}
+	}
+
+	@Test
+	public void awaitStarted_1() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:none\nMANAGEMENT:down\nSIZE:0\n", ""),
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:2048\n", ""),
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:4096\n" +
+						"12:00:00,000 INFO  [org.jboss.as] (Controller Boot Thread) " +
+						"JBAS015874: JBoss EAP 6.0.0.GA (AS 7.1.2.Final-redhat-1) started in 3000ms\n", ""));
+
+		assertTrue(controller.awaitStarted(10, TimeUnit.SECONDS));
+
+		verify(remoteShell).execute(
+				"if [ -f /opt/jboss-eap-6.0/mytarget/log/jboss.pid ]; then " +
+				"if kill -0 `cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid` 2>/dev/null; then echo PID:alive; else echo PID:dead; fi; " +
+				"else echo PID:none; fi; " +
+				"if bash -c 'exec 3<>/dev/tcp/app1/9990' 2>/dev/null; " +
+				"then echo MANAGEMENT:up; else echo MANAGEMENT:down; fi; " +
+				"SIZE=`stat -c %s /opt/jboss-eap-6.0/mytarget/log/stdout.log 2>/dev/null || echo 0`; echo SIZE:$SIZE; " +
+				"[ $SIZE -ge 1024 ] && tail -c +1025 /opt/jboss-eap-6.0/mytarget/log/stdout.log | head -c $(($SIZE - 1024)) | " +
+				"grep -E 'JBAS015874|JBAS015875'");
+		assertEquals(3072L, TestUtil.getValue(controller, "logOffset"));
+	}
+
+	@Test
+	public void awaitStarted_2() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:alive\nMANAGEMENT:down\nSIZE:512\n", ""));
+
+		assertFalse(controller.awaitStarted(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void awaitStarted_messageBeforeManagement() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:alive\nMANAGEMENT:down\nSIZE:4096\n" +
+						"12:00:00,000 INFO  [org.jboss.as] (Controller Boot Thread) " +
+						"JBAS015874: JBoss EAP 6.0.0.GA (AS 7.1.2.Final-redhat-1) started in 3000ms\n", ""),
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:8192\n", ""));
+
+		assertTrue(controller.awaitStarted(10, TimeUnit.SECONDS));
+		verify(remoteShell, times(2)).execute(anyString());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void awaitStarted_3() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:dead\nMANAGEMENT:down\nSIZE:512\n", ""));
+
+		controller.awaitStarted(10, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void awaitStarted_4() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:4096\n" +
+						"JBAS015875: JBoss EAP 6.0.0.GA (AS 7.1.2.Final-redhat-1) started (with errors) in 3000ms\n", ""));
+
+		controller.awaitStarted(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void reload() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "managementClient", managementClient);
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "SIZE:4096\n", ""),
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:8192\n" +
+						"12:10:00,000 INFO  [org.jboss.as] (Controller Boot Thread) " +
+						"JBAS015874: JBoss EAP 6.0.0.GA (AS 7.1.2.Final-redhat-1) started in 1500ms\n", ""));
+
+		controller.reload(30, TimeUnit.SECONDS);
+
+		verify(remoteShell).execute("echo SIZE:`stat -c %s /opt/jboss-eap-6.0/mytarget/log/stdout.log 2>/dev/null || echo 0`");
+		verify(managementClient).reload();
+		verify(remoteShell).execute(contains("[ $SIZE -ge 4096 ] && tail -c +4097 /opt/jboss-eap-6.0/mytarget/log/stdout.log"));
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void reload_timeout() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "managementClient", managementClient);
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(
+				new CommandResult(0, "SIZE:4096\n", ""),
+				new CommandResult(0, "PID:alive\nMANAGEMENT:up\nSIZE:4096\n", ""));
+
+		controller.reload(300, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void applyRules() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+		doReturn(Arrays.asList(agentClient)).when(controller).getAgentClients();
+		Map<String, String> installed = new LinkedHashMap<String, String>();
+		installed.put("keep", "RULE keep\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"keep\")\nENDRULE\n");
+		installed.put("change", "RULE change\nCLASS Foo\nMETHOD baz\nIF true\nDO traceln(\"change\")\nENDRULE\n");
+		installed.put("remove", "RULE remove\nCLASS Foo\nMETHOD quux\nIF true\nDO traceln(\"remove\")\nENDRULE\n");
+		when(agentClient.listRules()).thenReturn(installed);
+
+		controller.applyRules(getClass().getResource("/rules-test.btm").getPath());
+
+		Map<String, String> loaded = new LinkedHashMap<String, String>();
+		loaded.put("change", "RULE change\nCLASS Foo\nMETHOD baz\nIF true\nDO throw new java.io.IOException(\"changed\")\nENDRULE\n");
+		loaded.put("add", "RULE add\nCLASS Foo\nMETHOD qux\nIF true\nDO traceln(\"add\")\nENDRULE\n");
+		verify(agentClient).deleteRules(Arrays.asList(installed.get("remove")));
+		verify(agentClient).loadRules(loaded);
+		verifyZeroInteractions(commandManager);
+	}
+
+	@Test
+	public void applyRules_listedLayout() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+		doReturn(Arrays.asList(agentClient)).when(controller).getAgentClients();
+		when(agentClient.listRules()).thenReturn(BytemanAgentClient.parseRules(
+				"# File /opt/framework-test/rules-test.btm line 1\n" +
+				"RULE keep\n" +
+				"# the constructor is traced by another rule\n" +
+				"CLASS  Foo\n" +
+				"\tMETHOD bar\n" +
+				"IF true   # always\n" +
+				"DO traceln(\"keep\")ENDRULE\n" +
+				"Transformed in:\n" +
+				"loader: sun.misc.Launcher$AppClassLoader@4aa298b7\n" +
+				"trigger method: Foo.bar() void\n" +
+				"compiled successfully\n" +
+				"# File /opt/framework-test/rules-test.btm line 8\n" +
+				"RULE change\n" +
+				"CLASS Foo\n" +
+				"METHOD baz\n" +
+				"IF true\n" +
+				"DO throw new java.io.IOException(\"original\")\n" +
+				"ENDRULE\n" +
+				"# File /opt/framework-test/rules-test.btm line 15\n" +
+				"RULE add\n" +
+				"CLASS Foo\n" +
+				"METHOD qux\n" +
+				"IF true\n" +
+				"DO traceln(\"add\")\n" +
+				"ENDRULE\n"));
+
+		controller.applyRules(getClass().getResource("/rules-test.btm").getPath());
+
+		Map<String, String> loaded = new LinkedHashMap<String, String>();
+		loaded.put("change", "RULE change\nCLASS Foo\nMETHOD baz\nIF true\nDO throw new java.io.IOException(\"changed\")\nENDRULE\n");
+		verify(agentClient).loadRules(loaded);
+		verify(agentClient, never()).deleteRules(anyCollectionOf(String.class));
+	}
+
+	@Test
+	public void getAgentClients() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+
+		BytemanAgentClient client = controller.getAgentClients().get(0);
+
+		assertEquals("192.168.1.11", TestUtil.getValue(client, "host"));
+		assertEquals(9091, TestUtil.getValue(client, "port"));
+	}
+
+	@Test
+	public void preflight() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0,
+				"CHECK:0:ok\nCHECK:1:ok\nCHECK:2:ok\nCHECK:3:ok\nCHECK:4:ok\nCHECK:5:ng\n" +
+				"CHECK:6:ok\nCHECK:7:ok\nCHECK:8:ng\n", ""));
+
+		PreflightReport report = controller.preflight();
+
+		verify(remoteShell).execute(
+				"if [ -r /opt/byteman.jar ]; then echo CHECK:0:ok; else echo CHECK:0:ng; fi; " +
+				"if [ -r /opt/framework-test/byteman-framework.jar ]; then echo CHECK:1:ok; else echo CHECK:1:ng; fi; " +
+				"if [ -r /opt/framework-test/mytarget1.btm ]; then echo CHECK:2:ok; else echo CHECK:2:ng; fi; " +
+				"if ! bash -c 'exec 3<>/dev/tcp/192.168.1.11/9091' 2>/dev/null; then echo CHECK:3:ok; else echo CHECK:3:ng; fi; " +
+				"if [ -d /opt/my-jboss-eap-6.0 ]; then echo CHECK:4:ok; else echo CHECK:4:ng; fi; " +
+				"if [ -r /opt/my-jboss-eap-6.0/bin/standalone.sh ]; then echo CHECK:5:ok; else echo CHECK:5:ng; fi; " +
+				"if [ -d /opt/jboss-eap-6.0/mytarget ]; then echo CHECK:6:ok; else echo CHECK:6:ng; fi; " +
+				"if [ -r /opt/jboss-eap-6.0/mytarget/configuration/mystandalone.xml ]; then echo CHECK:7:ok; else echo CHECK:7:ng; fi; " +
+				"if ! bash -c 'exec 3<>/dev/tcp/app1/9990' 2>/dev/null; then echo CHECK:8:ok; else echo CHECK:8:ng; fi; " +
+				"true");
+		assertFalse(report.isPassed());
+		assertEquals(9, report.getChecks().size());
+		assertEquals("standalone.sh /opt/my-jboss-eap-6.0/bin/standalone.sh is readable",
+				report.getFailures().get(0).getName());
+		assertEquals("management port app1:9990 is free", report.getFailures().get(1).getName());
+	}
+
+	@Test
+	public void preflight_classDataSharing() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		controller.setClassDataSharing(true);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0,
+				"CHECK:0:ok\nCHECK:1:ok\nCHECK:2:ok\nCHECK:3:ok\nCHECK:4:ok\nCHECK:5:ok\n" +
+				"CHECK:6:ok\nCHECK:7:ok\nCHECK:8:ok\nCHECK:9:ng\n", ""));
+
+		PreflightReport report = controller.preflight();
+
+		verify(remoteShell).execute(contains(
+				"if ( JVM=$(readlink -f \"$(command -v ${JAVA_HOME:+$JAVA_HOME/bin/}java)\"); JDK=${JVM%/bin/java}; " +
+				"V=$(sed -n 's/^JAVA_VERSION=\"\\([0-9]*\\).*/\\1/p' $JDK/release 2>/dev/null); " +
+				"[ \"${V:-0}\" -ge 13 ] ); then echo CHECK:9:ok; else echo CHECK:9:ng; fi; "));
+		assertEquals(1, report.getFailures().size());
+		assertEquals("class data sharing requires JDK 13 or later", report.getFailures().get(0).getName());
+	}
+
+	@Test
+	public void commandTimings() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TimingSink sink = mock(TimingSink.class);
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		controller.setTimingSink(sink);
+		doReturn(resultDir.getRoot()).when(controller).getResultDir();
+		when(remoteShell.open()).thenReturn(true, false);
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "", ""));
+
+		controller.preflight();
+		controller.preflight();
+		controller.start();
+		File summary = controller.writeCommandTimings();
+
+		LatencyRecorder timings = controller.getCommandTimings();
+		assertEquals(Arrays.asList("preflight:connect", "preflight:command", "start:ssh"), timings.getNames());
+		assertEquals(1, timings.getSamples("preflight:connect").size());
+		assertEquals(2, timings.getSamples("preflight:command").size());
+		assertEquals(2, timings.getSamples("start:ssh").size());
+		verify(sink).record(eq(nodeId), eq("preflight"), eq("connect"), anyLong());
+		verify(sink, times(2)).record(eq(nodeId), eq("start"), eq("ssh"), anyLong());
+		assertEquals(new File(resultDir.getRoot(), "command-timings-summary.csv"), summary);
+		assertTrue(summary.isFile());
+		assertTrue(new File(resultDir.getRoot(), "command-timings-samples.csv").isFile());
+	}
+
+	@Test
+	public void commandTimings_operation() throws Exception {
+		String nodeId = "mytarget1";
+		final JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "commandManager", commandManager);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+
+		boolean begun = controller.beginOperation("warmup");
+		try {
+			controller.start();
+		} finally {
+			controller.endOperation(begun);
+		}
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					controller.start();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+		thread.join();
+
+		LatencyRecorder timings = controller.getCommandTimings();
+		assertEquals(Arrays.asList("warmup:ssh", "start:ssh"), timings.getNames());
+		assertEquals("unknown", controller.getOperation());
+	}
+
+	@Test
+	public void startRecording() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		when(remoteShell.execute(anyString())).thenReturn(new CommandResult(0, "12345:\nStarted recording 1.\n", ""));
+
+		controller.startRecording("steady");
+
+		verify(remoteShell).execute(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; [ -n \"$PID\" ] || exit 3; " +
+				"jcmd $PID VM.unlock_commercial_features > /dev/null 2>&1; " +
+				"jcmd $PID JFR.start name=steady settings=profile");
+	}
+
+	@Test
+	public void stopRecording() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		doReturn(resultDir.getRoot()).when(controller).getResultDir();
+		when(remoteShell.execute(anyString(), any(OutputStream.class))).thenAnswer(new Answer<CommandResult>() {
+			public CommandResult answer(InvocationOnMock invocation) throws Throwable {
+				((OutputStream) invocation.getArguments()[1]).write("FLR".getBytes("UTF-8"));
+				return new CommandResult(0, "", "Stopped recording 1.\n");
+			}
+		});
+
+		File file = controller.stopRecording("steady");
+
+		verify(remoteShell).execute(eq(
+				"PID=`cat /opt/jboss-eap-6.0/mytarget/log/jboss.pid 2>/dev/null`; [ -n \"$PID\" ] || exit 3; " +
+				"jcmd $PID JFR.stop name=steady filename=/tmp/mytarget1-steady.jfr >&2 && " +
+				"[ -s /tmp/mytarget1-steady.jfr ] && cat /tmp/mytarget1-steady.jfr; " +
+				"S=$?; rm -f /tmp/mytarget1-steady.jfr; exit $S"), any(OutputStream.class));
+		assertEquals(new File(resultDir.getRoot(), "mytarget1-steady.jfr"), file);
+		assertEquals(3, file.length());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void stopRecording_notRunning() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", remoteShell);
+		controller.init();
+		doReturn(resultDir.getRoot()).when(controller).getResultDir();
+		when(remoteShell.execute(anyString(), any(OutputStream.class))).thenReturn(new CommandResult(3, "", ""));
+
+		try {
+			controller.stopRecording("steady");
+		} finally {
+			assertFalse(new File(resultDir.getRoot(), "mytarget1-steady.jfr").exists());
+		}
+	}
+
+	@Test
+	public void start_startupRecording() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+		controller.setStartupRecording("boot");
+		controller.setRecordingSettings("default");
+
+		assertTrue(controller.getLaunchSpec().get("javaOptions").endsWith(
+				" -Djboss.modules.system.pkgs=org.jboss.byteman,jp.co.ntt.oss.jboss.byteman.framework"));
+		assertTrue(controller.getLaunchSpec().get("javaOptions").contains(
+				" -XX:StartFlightRecording=name=boot,settings=default "));
+	}
+
+	@Test
+	public void distributeJars() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		LocalShell shell = spy(new LocalShell());
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", shell);
+		controller.init();
+		File agent = writeFile(resultDir.newFile("byteman.jar"), "agent");
+		File framework = writeFile(resultDir.newFile("byteman-framework.jar"), "framework");
+		Map<String, File> jars = new LinkedHashMap<String, File>();
+		jars.put("node.byteman.jar", agent);
+		jars.put("node.bytemanframework.jar", framework);
+		doReturn(jars).when(controller).getLocalJars();
+		String cache = resultDir.newFolder("cache").getPath();
+		doReturn(cache).when(controller).getJarCacheDir();
+
+		Map<String, String> paths = controller.distributeJars();
+
+		String agentPath = cache + "/" + new Artifact(agent).getChecksum() + "/byteman.jar";
+		String frameworkPath = cache + "/" + new Artifact(framework).getChecksum() + "/byteman-framework.jar";
+		assertEquals(agentPath, paths.get("node.byteman.jar"));
+		assertEquals(frameworkPath, paths.get("node.bytemanframework.jar"));
+		assertEquals("agent", shell.execute("cat " + agentPath).getOutput());
+		assertEquals("framework", shell.execute("cat " + frameworkPath).getOutput());
+		assertTrue(controller.getLaunchSpec().get("javaOptions").startsWith(
+				"-javaagent:" + agentPath + "=sys:" + frameworkPath + ",address:"));
+
+		writeFile(framework, "framework2");
+		paths = controller.distributeJars();
+
+		assertEquals("framework2", shell.execute("cat " + paths.get("node.bytemanframework.jar")).getOutput());
+		assertEquals("agent", shell.execute("cat " + agentPath).getOutput());
+		verify(controller, times(3)).sendJar(any(Artifact.class));
+	}
+
+	@Test
+	public void deploy() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		LocalShell shell = spy(new LocalShell());
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", shell);
+		controller.init();
+		TestUtil.setValue(controller, "runDir", resultDir.getRoot().getPath());
+		File deployments = resultDir.newFolder("deployments");
+		File app = writeFile(resultDir.newFile("app.war"), "app");
+		File broken = writeFile(resultDir.newFile("broken.war"), "broken");
+		Thread scanner = startScanner(deployments);
+		try {
+			DeploymentReport report = controller.deploy(10, TimeUnit.SECONDS, app, broken);
+
+			assertFalse(report.isSucceeded());
+			assertEquals(Status.DEPLOYED, report.getDeployments().get(0).getStatus());
+			assertEquals(Status.FAILED, report.getDeployments().get(1).getStatus());
+			assertEquals("broken.war failed", report.getDeployments().get(1).getMessage());
+			assertEquals("app", shell.execute("cat " + deployments + "/app.war").getOutput());
+
+			writeFile(broken, "fixed");
+			report = controller.deploy(10, TimeUnit.SECONDS, app, broken);
+
+			assertTrue(report.isSucceeded());
+			assertEquals(Status.UNCHANGED, report.getDeployments().get(0).getStatus());
+			assertEquals(Status.DEPLOYED, report.getDeployments().get(1).getStatus());
+			verify(shell, times(3)).execute(anyString(), any(InputStream.class));
+		} finally {
+			scanner.interrupt();
+			scanner.join();
+		}
+
+		writeFile(app, "changed");
+		DeploymentReport report = controller.deploy(300, TimeUnit.MILLISECONDS, app);
+
+		assertEquals(Status.PENDING, report.getDeployments().get(0).getStatus());
+		assertEquals(1, report.getFailures().size());
+		assertTrue(new File(deployments, "app.war.dodeploy").exists());
+	}
+
+	@Test
+	public void deploy_undeployed() throws Exception {
+		String nodeId = "mytarget1";
+		JBossEAP6StandaloneController controller = spy(new JBossEAP6StandaloneController(nodeId));
+		LocalShell shell = spy(new LocalShell());
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		TestUtil.setValue(controller, "remoteShell", shell);
+		controller.init();
+		TestUtil.setValue(controller, "runDir", resultDir.getRoot().getPath());
+		File deployments = resultDir.newFolder("deployments");
+		File template = writeFile(resultDir.newFile("template.sha1"), "0000");
+		writeFile(new File(deployments, "app.war"), "app");
+		writeFile(new File(deployments, "other.war"), "old");
+		shell.execute(String.format("ln %s %s/.other.war.sha1", template, deployments));
+		File app = writeFile(resultDir.newFile("app.war"), "app");
+		File other = writeFile(resultDir.newFile("other.war"), "other");
+		Thread scanner = startScanner(deployments);
+		try {
+			DeploymentReport report = controller.deploy(10, TimeUnit.SECONDS, app, other);
+
+			assertTrue(report.isSucceeded());
+			verify(shell, times(1)).execute(anyString(), any(InputStream.class));
+			assertEquals("other", shell.execute("cat " + deployments + "/other.war").getOutput());
+			assertEquals(new Artifact(other).getChecksum() + "\n",
+					shell.execute("cat " + deployments + "/.other.war.sha1").getOutput());
+			assertEquals("0000", shell.execute("cat " + template).getOutput());
+		} finally {
+			scanner.interrupt();
+			scanner.join();
+		}
+	}
+
+	private static File writeFile(File file, String content) throws Exception {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Starts a thread which replaces the .dodeploy markers like the
+	 * deployment scanner. The files named broken fail to deploy.
+	 */
+	private static Thread startScanner(final File dir) {
+		Thread scanner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						for (File marker : dir.listFiles()) {
+							String name = marker.getName();
+							if (name.endsWith(".dodeploy") && marker.delete()) {
+								name = name.substring(0, name.length() - ".dodeploy".length());
+								new File(dir, name + ".deployed").delete();
+								if (name.startsWith("broken")
+										&& new LocalShell().execute("cat " + dir + "/" + name).getOutput().equals("broken")) {
+									writeFile(new File(dir, name + ".failed"), name + "\nfailed\n");
+								} else {
+									writeFile(new File(dir, name + ".deployed"), name);
+								}
+							}
+						}
+						Thread.sleep(50);
+					}
+				} catch (InterruptedException e) {
+					// stopped
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		scanner.start();
+		return scanner;
+	}
 }
@@ -0,0 +1,90 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalJBossControllerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DistributedConfig distributedConfig = DistributedConfig.getConfig();
+
+	@Before
+	public void setup() throws Exception {
+		distributedConfig = DistributedConfig.getConfig();
+		Method method = DistributedConfig.class.getDeclaredMethod("init", String.class);
+		method.setAccessible(true);
+		method.invoke(distributedConfig, "byteman-framework.properties");
+	}
+
+	@Test
+	public void awaitStopped() throws Exception {
+		LocalJBossController controller = createController();
+		File log = new File(folder.getRoot(), "stdout.log");
+
+		controller.launch("", "sleep 30", log.getPath());
+
+		assertTrue(controller.getProcess().isAlive());
+		assertFalse(controller.awaitStopped(100, TimeUnit.MILLISECONDS));
+
+		controller.getProcess().destroy();
+
+		assertTrue(controller.awaitStopped(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void awaitStarted_exit() throws Exception {
+		LocalJBossController controller = createController();
+		File log = new File(folder.getRoot(), "stdout.log");
+
+		controller.launch("", "bash -c \"echo 'failed to boot'; exit 1\"", log.getPath());
+
+		long begin = System.nanoTime();
+		try {
+			controller.awaitStarted(60, TimeUnit.SECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("server2 exited with 1 while starting", e.getMessage());
+		}
+		assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(10));
+		assertEquals("failed to boot\n",
+				controller.executeWithResult(String.format("cat %s", log.getPath())).getOutput());
+	}
+
+	private LocalJBossController createController() throws Exception {
+		LocalJBossController controller = new LocalJBossController("server2");
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig("server2"));
+		return controller;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+import jp.co.ntt.oss.jboss.byteman.extension.util.LogSubscription;
+import jp.co.ntt.oss.jboss.byteman.framework.util.DistributedConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalJBossEAP6StandaloneControllerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DistributedConfig distributedConfig = DistributedConfig.getConfig();
+
+	private ServerSocket management;
+
+	@Before
+	public void setup() throws Exception {
+		distributedConfig = DistributedConfig.getConfig();
+		Method method = DistributedConfig.class.getDeclaredMethod("init", String.class);
+		method.setAccessible(true);
+		method.invoke(distributedConfig, "byteman-framework-eap6.properties");
+
+		management = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+
+	@After
+	public void teardown() throws Exception {
+		management.close();
+	}
+
+	@Test
+	public void start() throws Exception {
+		LocalJBossEAP6StandaloneController controller = createController(
+				"echo \"$JAVA_OPTS\" > $JBOSS_BASE_DIR/java.opts; echo $$ > $JBOSS_PIDFILE; sleep 0.2; " +
+				"echo 'JBAS015874: JBoss EAP 6.0.0.GA started'; exec sleep 30");
+		controller.setStopGracePeriod(10, TimeUnit.SECONDS);
+
+		controller.start();
+
+		assertTrue(controller.awaitStarted(10, TimeUnit.SECONDS));
+		assertTrue(controller.getProcess().isAlive());
+		assertFalse(controller.awaitStopped(100, TimeUnit.MILLISECONDS));
+		String javaOptions = controller.executeWithResult(
+				String.format("cat %s/java.opts", controller.baseDir)).getOutput();
+		assertTrue(javaOptions.contains("-javaagent:/opt/byteman.jar=sys:/opt/framework-test/byteman-framework.jar"));
+		assertTrue(new File(controller.pidfile).isFile());
+
+		controller.stop();
+
+		assertTrue(controller.awaitStopped(10, TimeUnit.SECONDS));
+		assertFalse(controller.getProcess().isAlive());
+		assertFalse(new File(controller.pidfile).exists());
+	}
+
+	@Test
+	public void subscribeLogs() throws Exception {
+		LocalJBossEAP6StandaloneController controller = createController(
+				"echo $$ > $JBOSS_PIDFILE; sleep 0.2; " +
+				"echo 'JBAS015874: JBoss EAP 6.0.0.GA started'; exec sleep 30");
+		LogSubscription logs = controller.subscribeLogs("JBAS0158");
+		try {
+			Future<String> started = logs.next("JBAS015874");
+
+			controller.start();
+
+			assertEquals("JBAS015874: JBoss EAP 6.0.0.GA started", started.get(10, TimeUnit.SECONDS));
+		} finally {
+			logs.close(10, TimeUnit.SECONDS);
+			controller.getProcess().destroy();
+		}
+	}
+
+	@Test
+	public void start_exit() throws Exception {
+		LocalJBossEAP6StandaloneController controller = createController("echo 'failed to boot'; exit 1");
+
+		controller.start();
+
+		long begin = System.nanoTime();
+		try {
+			controller.awaitStarted(60, TimeUnit.SECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("mytarget1 exited with 1 while starting", e.getMessage());
+		}
+		assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(10));
+		assertEquals("failed to boot\n", controller.executeWithResult(
+				String.format("cat %s/stdout.log", controller.getLogDir())).getOutput());
+	}
+
+	private LocalJBossEAP6StandaloneController createController(String script) throws Exception {
+		String nodeId = "mytarget1";
+		LocalJBossEAP6StandaloneController controller = new LocalJBossEAP6StandaloneController(nodeId);
+		TestUtil.setValue(controller, "config", distributedConfig.getNodeConfig(nodeId));
+		controller.init();
+
+		File home = folder.newFolder("jboss");
+		File bin = new File(home, "bin");
+		bin.mkdirs();
+		File standalone = new File(bin, "standalone.sh");
+		FileWriter writer = new FileWriter(standalone);
+		try {
+			writer.write("#!/bin/bash\n" + script + "\n");
+		} finally {
+			writer.close();
+		}
+		standalone.setExecutable(true);
+
+		String baseDir = home.getPath() + "/standalone";
+		TestUtil.setValue(controller, "jbossHome", home.getPath());
+		TestUtil.setValue(controller, "baseDir", baseDir);
+		TestUtil.setValue(controller, "logDir", baseDir + "/log");
+		TestUtil.setValue(controller, "pidfile", baseDir + "/log/jboss.pid");
+		TestUtil.setValue(controller, "address", "127.0.0.1");
+		TestUtil.setValue(controller, "managementPort", management.getLocalPort());
+		return controller;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class StandbyPoolTest {
+
+	@Mock
+	private JBossEAP6StandaloneController standby1;
+
+	@Mock
+	private JBossEAP6StandaloneController standby2;
+
+	@Mock
+	private JBossEAP6StandaloneController standby3;
+
+	private StandbyPool pool = new StandbyPool();
+
+	@Before
+	public void setup() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		for (JBossEAP6StandaloneController controller : new JBossEAP6StandaloneController[] { standby1, standby2,
+				standby3 }) {
+			when(controller.awaitStarted(anyLong(), any(TimeUnit.class))).thenReturn(true);
+			when(controller.awaitStopped(anyLong(), any(TimeUnit.class))).thenReturn(true);
+			pool.addController(controller);
+		}
+	}
+
+	@Test
+	public void lease() throws Exception {
+		pool.setSize(1);
+		pool.start();
+
+		JBossEAP6StandaloneController first = pool.lease(10, TimeUnit.SECONDS);
+		JBossEAP6StandaloneController second = pool.lease(10, TimeUnit.SECONDS);
+
+		assertSame(standby1, first);
+		assertSame(standby2, second);
+		verify(standby1).start();
+		verify(standby2).start();
+		verify(standby1, never()).stop();
+		while (pool.getReadyCount() == 0) {
+			Thread.sleep(10);
+		}
+
+		pool.close();
+
+		verify(standby3).start();
+		verify(standby3).stop();
+		assertEquals(0, pool.getReadyCount());
+	}
+
+	@Test
+	public void release() throws Exception {
+		pool.setSize(1);
+		pool.start();
+		JBossEAP6StandaloneController first = pool.lease(10, TimeUnit.SECONDS);
+		pool.lease(10, TimeUnit.SECONDS);
+		pool.lease(10, TimeUnit.SECONDS);
+
+		pool.release(first);
+
+		assertSame(first, pool.lease(10, TimeUnit.SECONDS));
+		verify(first).stop();
+		verify(first, times(2)).start();
+	}
+
+	@Test
+	public void release_withoutRestart() throws Exception {
+		pool.setSize(1);
+		pool.setRestartOnRelease(false);
+		pool.start();
+		JBossEAP6StandaloneController first = pool.lease(10, TimeUnit.SECONDS);
+		pool.lease(10, TimeUnit.SECONDS);
+		pool.lease(10, TimeUnit.SECONDS);
+
+		pool.release(first);
+
+		assertSame(first, pool.lease(10, TimeUnit.SECONDS));
+		verify(first).unloadRules();
+		verify(first, never()).stop();
+		verify(first).start();
+	}
+
+	@Test
+	public void lease_failed() throws Exception {
+		when(standby1.awaitStarted(anyLong(), any(TimeUnit.class))).thenThrow(
+				new IllegalStateException("standby1 exited while starting"));
+		pool.setSize(1);
+		pool.start();
+
+		try {
+			pool.lease(1, TimeUnit.SECONDS);
+			fail();
+		} catch (TimeoutException e) {
+			assertEquals("standby1 exited while starting", e.getCause().getMessage());
+		}
+		verify(standby1).stop();
+		while (pool.getReadyCount() == 0) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, pool.getBootingCount());
+	}
+
+	@Test
+	public void lease_afterFailure() throws Exception {
+		when(standby1.awaitStarted(anyLong(), any(TimeUnit.class))).thenThrow(
+				new IllegalStateException("standby1 exited while starting"));
+		pool.setSize(1);
+		pool.start();
+		try {
+			pool.lease(1, TimeUnit.SECONDS);
+			fail();
+		} catch (TimeoutException e) {
+			// the boot of standby1 has failed
+		}
+
+		assertSame(standby2, pool.lease(10, TimeUnit.SECONDS));
+		verify(standby2).start();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void release_notLeased() throws Exception {
+		pool.start();
+
+		pool.release(standby1);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.controller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.calls;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.ntt.oss.jboss.byteman.extension.util.LatencyRecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StartupBenchmarkTest {
+
+	@Mock
+	private JBossEAP6StandaloneController eap6Controller;
+
+	@Mock
+	private AbstractJBossController plainController;
+
+	@Rule
+	public TemporaryFolder resultDir = new TemporaryFolder();
+
+	@Test
+	public void run() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(eap6Controller.awaitStarted(anyLong(), any(TimeUnit.class))).thenReturn(true);
+		when(eap6Controller.getResultDir()).thenReturn(resultDir.getRoot());
+
+		StartupBenchmark benchmark = new StartupBenchmark(eap6Controller);
+		benchmark.setIterations(3);
+		LatencyRecorder recorder = benchmark.run();
+
+		InOrder order = inOrder(eap6Controller);
+		order.verify(eap6Controller).setAgentEnabled(true);
+		order.verify(eap6Controller, calls(3)).start();
+		order.verify(eap6Controller).setAgentEnabled(false);
+		order.verify(eap6Controller, calls(3)).start();
+		order.verify(eap6Controller).setAgentEnabled(true);
+		verify(eap6Controller, times(6)).stop();
+		verify(eap6Controller).setStopGracePeriod(StartupBenchmark.DEFAULT_STOP_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+		assertEquals(Arrays.asList("agent.dispatch", "agent.boot", "agent.ready", "agent.stop",
+				"noagent.dispatch", "noagent.boot", "noagent.ready", "noagent.stop"), recorder.getNames());
+		assertEquals(3, recorder.getSamples("noagent.boot").size());
+
+		File summary = benchmark.writeResults();
+		BufferedReader reader = new BufferedReader(new FileReader(summary));
+		try {
+			assertEquals(LatencyRecorder.SUMMARY_HEADER, reader.readLine());
+			assertTrue(reader.readLine().startsWith("agent.dispatch,3,"));
+		} finally {
+			reader.close();
+		}
+		assertEquals(2, resultDir.getRoot().list().length);
+	}
+
+	@Test
+	public void run_url() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		final AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/example", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(requests.incrementAndGet() % 3 == 0 ? 200 : 404, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		try {
+			StartupBenchmark benchmark = new StartupBenchmark(plainController);
+			benchmark.setIterations(2);
+			benchmark.setWithoutAgent(false);
+			benchmark.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/example");
+			LatencyRecorder recorder = benchmark.run();
+
+			verify(plainController, times(2)).start();
+			assertEquals(Arrays.asList("agent.dispatch", "agent.deploy", "agent.ready", "agent.stop"),
+					recorder.getNames());
+			assertEquals(6, requests.get());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void run_noReadiness() throws Exception {
+		MockitoAnnotations.initMocks(this);
+
+		new StartupBenchmark(plainController).run();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArtifactTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void getChecksum() throws Exception {
+		File file = folder.newFile("app.war");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("app".getBytes("UTF-8"));
+		out.close();
+		Artifact artifact = new Artifact(file);
+
+		assertEquals("app.war", artifact.getName());
+		assertEquals("7d1043473d55bfa90e8530d35801d4e381bc69f0", artifact.getChecksum());
+	}
+
+	@Test
+	public void openCompressed() throws Exception {
+		byte[] content = new byte[1024 * 1024];
+		new Random(0).nextBytes(content);
+		File file = folder.newFile("app.ear");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content);
+		out.close();
+
+		InputStream in = new GZIPInputStream(new Artifact(file).openCompressed());
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) >= 0) {
+				decompressed.write(buffer, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+
+		assertArrayEquals(content, decompressed.toByteArray());
+	}
+}
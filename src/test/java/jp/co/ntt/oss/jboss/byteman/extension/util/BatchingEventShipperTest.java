@@ -0,0 +1,80 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BatchingEventShipperTest {
+
+	@Test
+	public void close() throws Exception {
+		final List<List<String>> batches = new ArrayList<List<String>>();
+		BatchingEventShipper<String> shipper = new BatchingEventShipper<String>(
+				new BatchingEventShipper.Sender<String>() {
+					public void send(List<String> events) throws Exception {
+						synchronized (batches) {
+							batches.add(events);
+						}
+					}
+				}, 16, 4, 1, TimeUnit.HOURS);
+		for (int i = 0; i < 10; i++) {
+			shipper.offer("event" + i);
+		}
+
+		shipper.start();
+		assertTrue(shipper.close(10, TimeUnit.SECONDS));
+
+		assertEquals(3, batches.size());
+		assertEquals(4, batches.get(0).size());
+		assertEquals(2, batches.get(2).size());
+		assertEquals("event9", batches.get(2).get(1));
+		assertEquals(10, shipper.getShipped());
+		assertEquals(0, shipper.getPending());
+	}
+
+	@Test
+	public void send_failed() throws Exception {
+		BatchingEventShipper<String> shipper = new BatchingEventShipper<String>(
+				new BatchingEventShipper.Sender<String>() {
+					public void send(List<String> events) throws Exception {
+						throw new IOException("unreachable");
+					}
+				}, 4, 2, 10, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 5; i++) {
+			shipper.offer("event" + i);
+		}
+
+		shipper.start();
+		assertTrue(shipper.close(10, TimeUnit.SECONDS));
+
+		assertEquals(0, shipper.getShipped());
+		assertEquals(1, shipper.getDropped());
+		assertEquals(2, shipper.getFailedBatches());
+		assertEquals(4, shipper.getLost());
+		assertEquals("shipped=0,dropped=1,failedBatches=2,lost=4,pending=0", shipper.toString());
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BytemanAgentClientTest {
+
+	private ServerSocket serverSocket;
+
+	private StringBuffer request = new StringBuffer();
+
+	private String response;
+
+	@Before
+	public void setup() throws Exception {
+		serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Thread listener = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = serverSocket.accept();
+					try {
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+						String line;
+						while ((line = in.readLine()) != null) {
+							request.append(line).append("\n");
+							if (line.equals("LIST") || line.startsWith("END") && !line.equals("ENDSCRIPT")
+									&& !line.equals("ENDRULE")) {
+								break;
+							}
+						}
+						OutputStream out = socket.getOutputStream();
+						out.write(response.getBytes("UTF-8"));
+						out.flush();
+					} finally {
+						socket.close();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	@After
+	public void teardown() throws Exception {
+		serverSocket.close();
+	}
+
+	private BytemanAgentClient createClient() {
+		return new BytemanAgentClient("127.0.0.1", serverSocket.getLocalPort());
+	}
+
+	@Test
+	public void listRules() throws Exception {
+		response = "# File rules.btm line 1\n" +
+				"RULE trace open\n" +
+				"CLASS java.io.FileInputStream\n" +
+				"METHOD <init>(java.io.File)\n" +
+				"IF true\n" +
+				"DO traceln(\"open\")\n" +
+				"ENDRULE\n" +
+				"Transformed in:\n" +
+				"loader: sun.misc.Launcher$AppClassLoader@1\n" +
+				"trigger method: java.io.FileInputStream.<init>(java.io.File) void\n" +
+				"compiled successfully\n" +
+				"OK\n";
+
+		Map<String, String> rules = createClient().listRules();
+
+		assertEquals("LIST\n", request.toString());
+		assertEquals(1, rules.size());
+		assertEquals("RULE trace open\n" +
+				"CLASS java.io.FileInputStream\n" +
+				"METHOD <init>(java.io.File)\n" +
+				"IF true\n" +
+				"DO traceln(\"open\")\n" +
+				"ENDRULE\n", rules.get("trace open"));
+	}
+
+	@Test
+	public void loadRules() throws Exception {
+		response = "install rule throw error\nOK\n";
+		Map<String, String> rules = new LinkedHashMap<String, String>();
+		rules.put("throw error", "RULE throw error\nCLASS Foo\nMETHOD bar\nIF true\nDO throw new Error()\nENDRULE\n");
+
+		assertEquals("install rule throw error\n", createClient().loadRules(rules));
+		assertEquals("LOAD\n" +
+				"SCRIPT throw error\n" +
+				"RULE throw error\nCLASS Foo\nMETHOD bar\nIF true\nDO throw new Error()\nENDRULE\n" +
+				"ENDSCRIPT\n" +
+				"ENDLOAD\n", request.toString());
+	}
+
+	@Test
+	public void deleteRules() throws Exception {
+		response = "uninstall RULE throw error\nOK\n";
+
+		createClient().deleteRules(Arrays.asList(
+				"RULE throw error\nCLASS Foo\nMETHOD bar\nIF true\nDO throw new Error()\nENDRULE\n"));
+
+		assertEquals("DELETE\n" +
+				"SCRIPT throw error\n" +
+				"RULE throw error\nCLASS Foo\nMETHOD bar\nIF true\nDO throw new Error()\nENDRULE\n" +
+				"ENDSCRIPT\n" +
+				"ENDDELETE\n", request.toString());
+	}
+
+	@Test(expected = IOException.class)
+	public void loadRules_failure() throws Exception {
+		response = "EXCEPTION java.lang.Exception: org.jboss.byteman.rule.exception.ParseException\nOK\n";
+		Map<String, String> rules = new LinkedHashMap<String, String>();
+		rules.put("broken", "RULE broken\nENDRULE\n");
+
+		createClient().loadRules(rules);
+	}
+
+	@Test
+	public void parseRules() throws Exception {
+		Map<String, String> rules = BytemanAgentClient.parseRules(
+				"# comment\n" +
+				"\n" +
+				"RULE first\n" +
+				"  CLASS Foo\n" +
+				"  METHOD bar\n" +
+				"  # inner comment\n" +
+				"  IF true\n" +
+				"  DO traceln(\"first\")\n" +
+				"ENDRULE\n" +
+				"\n" +
+				"RULE second\n" +
+				"CLASS Foo\n" +
+				"METHOD baz\n" +
+				"IF true\n" +
+				"DO traceln(\"second\")\n" +
+				"ENDRULE\n");
+
+		assertEquals(Arrays.asList("first", "second"), Arrays.asList(rules.keySet().toArray()));
+		assertEquals("RULE first\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"first\")\nENDRULE\n",
+				rules.get("first"));
+	}
+
+	@Test
+	public void parseRules_endOnBodyLine() throws Exception {
+		Map<String, String> rules = BytemanAgentClient.parseRules(
+				"RULE first\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"first\")ENDRULE\n");
+
+		assertEquals("RULE first\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"first\")\nENDRULE\n",
+				rules.get("first"));
+	}
+
+	@Test
+	public void normalizeRule() throws Exception {
+		String expected = "RULE first CLASS Foo METHOD bar IF true DO traceln(\"a  # b\")";
+
+		assertEquals(expected, BytemanAgentClient.normalizeRule(
+				"RULE first\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"a  # b\")\nENDRULE\n"));
+		assertEquals(expected, BytemanAgentClient.normalizeRule(
+				"RULE  first\n# comment\n\tCLASS Foo\r\nMETHOD bar # trailing comment\nIF true\n" +
+				"DO traceln(\"a  # b\")ENDRULE"));
+		assertFalse(expected.equals(BytemanAgentClient.normalizeRule(
+				"RULE first\nCLASS Foo\nMETHOD bar\nIF true\nDO traceln(\"a # b\")\nENDRULE\n")));
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class EventRingBufferTest {
+
+	@Test
+	public void offer() {
+		EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(3);
+
+		assertEquals(4, buffer.getCapacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(1, buffer.getDropped());
+		assertEquals(4, buffer.size());
+
+		List<Integer> events = new ArrayList<Integer>();
+		assertEquals(3, buffer.drain(events, 3));
+		assertTrue(buffer.offer(5));
+		assertEquals(2, buffer.drain(events, 10));
+		assertEquals("[0, 1, 2, 3, 5]", events.toString());
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void offer_concurrent() throws Exception {
+		final EventRingBuffer<Long> buffer = new EventRingBuffer<Long>(1024);
+		final int producers = 4;
+		final int count = 50000;
+		final AtomicLong accepted = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(producers);
+		for (int p = 0; p < producers; p++) {
+			final long base = (long) p * count;
+			new Thread() {
+				@Override
+				public void run() {
+					for (long i = 0; i < count; i++) {
+						if (buffer.offer(base + i)) {
+							accepted.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+
+		List<Long> events = new ArrayList<Long>();
+		while (done.getCount() > 0) {
+			buffer.drain(events, 100);
+		}
+		buffer.drain(events, Integer.MAX_VALUE);
+
+		assertEquals(accepted.get(), events.size());
+		assertEquals(producers * count, events.size() + buffer.getDropped());
+		Set<Long> unique = new HashSet<Long>(events);
+		assertEquals(events.size(), unique.size());
+	}
+}
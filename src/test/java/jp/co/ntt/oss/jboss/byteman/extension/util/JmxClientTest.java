@@ -0,0 +1,146 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.remote.JMXAuthenticator;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXPrincipal;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmxClientTest {
+
+	public interface ServerMBean {
+
+		boolean isStarted();
+
+		void shutdown();
+	}
+
+	public static class Server implements ServerMBean {
+
+		private volatile boolean started;
+
+		private volatile boolean shutdown;
+
+		public boolean isStarted() {
+			return started;
+		}
+
+		public void shutdown() {
+			shutdown = true;
+		}
+	}
+
+	private final Server server = new Server();
+
+	private Registry registry;
+
+	private JMXConnectorServer connectorServer;
+
+	private String url;
+
+	@Before
+	public void setup() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		registry = LocateRegistry.createRegistry(port);
+
+		MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+		mbeanServer.registerMBean(new StandardMBean(server, ServerMBean.class), new ObjectName(JmxClient.SERVER));
+		Map<String, Object> environment = new HashMap<String, Object>();
+		environment.put(JMXConnectorServer.AUTHENTICATOR, new JMXAuthenticator() {
+			public Subject authenticate(Object credentials) {
+				if (!Arrays.equals(new String[] { "admin", "secret" }, (String[]) credentials)) {
+					throw new SecurityException("invalid credentials");
+				}
+				return new Subject(true, Collections.singleton(new JMXPrincipal("admin")),
+						Collections.emptySet(), Collections.emptySet());
+			}
+		});
+		url = "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi";
+		connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL(url), environment,
+				mbeanServer);
+		connectorServer.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connectorServer.stop();
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	@Test
+	public void isStarted() throws Exception {
+		JmxClient client = new JmxClient(url, "admin", "secret");
+		try {
+			assertFalse(client.isStarted());
+			server.started = true;
+			assertTrue(client.isStarted());
+			assertEquals(1, connectorServer.getConnectionIds().length);
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void shutdown() throws Exception {
+		JmxClient client = new JmxClient(url, "admin", "secret");
+
+		client.shutdown();
+
+		assertTrue(server.shutdown);
+		assertEquals(0, connectorServer.getConnectionIds().length);
+	}
+
+	@Test(expected = SecurityException.class)
+	public void isStarted_invalidCredentials() throws Exception {
+		new JmxClient(url, "admin", "wrong").isStarted();
+	}
+
+	@Test(expected = IOException.class)
+	public void isStarted_unavailable() throws Exception {
+		connectorServer.stop();
+
+		new JmxClient(url, "admin", "secret").isStarted();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LatencyRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void getPercentile() {
+		LatencyRecorder recorder = new LatencyRecorder();
+		for (long i = 20; i > 0; i--) {
+			recorder.record("boot", i * 100);
+		}
+
+		assertEquals(100, recorder.getPercentile("boot", 0));
+		assertEquals(1000, recorder.getPercentile("boot", 50));
+		assertEquals(1900, recorder.getPercentile("boot", 95));
+		assertEquals(2000, recorder.getPercentile("boot", 100));
+		assertEquals(-1, recorder.getPercentile("stop", 50));
+	}
+
+	@Test
+	public void writeSummary() throws Exception {
+		LatencyRecorder recorder = new LatencyRecorder();
+		recorder.record("dispatch", 30);
+		recorder.record("dispatch", 10);
+		recorder.record("boot", 5000);
+		File file = new File(folder.getRoot(), "result/summary.csv");
+
+		recorder.writeSummary(file);
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			assertEquals("name,count,min,p50,p95,max", reader.readLine());
+			assertEquals("dispatch,2,10,10,30,30", reader.readLine());
+			assertEquals("boot,1,5000,5000,5000,5000", reader.readLine());
+			assertNull(reader.readLine());
+		} finally {
+			reader.close();
+		}
+	}
+}
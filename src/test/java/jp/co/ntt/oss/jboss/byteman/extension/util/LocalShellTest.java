@@ -0,0 +1,95 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalShellTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void execute() throws Exception {
+		LocalShell shell = new LocalShell();
+
+		CommandResult result = shell.execute("echo LINE:1; echo LINE:2; echo error >&2; exit 3");
+
+		assertEquals(3, result.getExitStatus());
+		assertEquals(Arrays.asList("LINE:1", "LINE:2"), result.getOutputLines());
+		assertEquals("error\n", result.getError());
+	}
+
+	@Test
+	public void execute_stream() throws Exception {
+		LocalShell shell = new LocalShell();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		CommandResult result = shell.execute("printf 'a%.0s' `seq 100000`", out);
+
+		assertTrue(result.isSuccess());
+		assertEquals("", result.getOutput());
+		assertEquals(100000, out.size());
+	}
+
+	@Test
+	public void execute_input() throws Exception {
+		LocalShell shell = new LocalShell();
+
+		CommandResult result = shell.execute("tr a-z A-Z",
+				new ByteArrayInputStream("line1\nline2\n".getBytes("UTF-8")));
+
+		assertTrue(result.isSuccess());
+		assertEquals(Arrays.asList("LINE1", "LINE2"), result.getOutputLines());
+	}
+
+	@Test
+	public void localProcess() throws Exception {
+		File log = new File(folder.getRoot(), "log/stdout.log");
+
+		LocalProcess process = LocalProcess.start("echo started; echo warning >&2; exec sleep 30", log);
+
+		assertTrue(process.isAlive());
+		assertFalse(process.awaitExit(200, TimeUnit.MILLISECONDS));
+		process.destroy();
+		assertTrue(process.awaitExit(10, TimeUnit.SECONDS));
+		assertFalse(process.isAlive());
+		assertEquals(143, process.getExitValue());
+		assertEquals("started\nwarning\n", new LocalShell().execute("cat " + log.getPath()).getOutput());
+	}
+
+	@Test
+	public void localProcess_exit() throws Exception {
+		LocalProcess process = LocalProcess.start("exit 3", new File(folder.getRoot(), "stdout.log"));
+
+		assertTrue(process.awaitExit(10, TimeUnit.SECONDS));
+		assertEquals(3, process.getExitValue());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogSubscriptionTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void subscribe() throws Exception {
+		File server = append(new File(folder.getRoot(), "server.log"), "ERROR before the subscription\n");
+		File stdout = new File(folder.getRoot(), "stdout.log");
+		final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+		LogSubscription subscription = new LogSubscription(new LocalShell(),
+				Arrays.asList(server.getPath(), stdout.getPath()), "ERROR", "WARN");
+		subscription.addListener(new LogSubscription.Listener() {
+			public void onLine(String file, String line) {
+				lines.add(new File(file).getName() + ":" + line);
+			}
+		});
+		subscription.start();
+		try {
+			Future<String> error = subscription.next("ERROR");
+
+			append(server, "INFO ignored\nERROR 1\n");
+
+			assertEquals("ERROR 1", error.get(10, TimeUnit.SECONDS));
+
+			error = subscription.next("ERROR 2");
+			append(stdout, "WARN it's created\n");
+			assertTrue(server.renameTo(new File(folder.getRoot(), "server.log.1")));
+			append(server, "ERROR 2\n");
+
+			assertEquals("ERROR 2", error.get(10, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("server.log:ERROR 1", "stdout.log:WARN it's created", "server.log:ERROR 2"),
+					lines);
+			assertTrue(subscription.isActive());
+		} finally {
+			assertTrue(subscription.close(10, TimeUnit.SECONDS));
+		}
+		assertFalse(subscription.isActive());
+		try {
+			subscription.next("ERROR").get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals("the subscription is not active", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void close() throws Exception {
+		LogSubscription subscription = new LogSubscription(new LocalShell(),
+				Arrays.asList(new File(folder.getRoot(), "server.log").getPath()), "ERROR");
+		long begin = System.nanoTime();
+		subscription.start();
+		Future<String> error = subscription.next("ERROR");
+
+		assertTrue(subscription.close(10, TimeUnit.SECONDS));
+
+		assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(4));
+		try {
+			error.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals("the subscription has been closed", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void start_failed() throws Exception {
+		LogSubscription subscription = new LogSubscription(new LocalShell(),
+				Arrays.asList(new File(folder.getRoot(), "server.log").getPath()), "ERROR") {
+			@Override
+			protected String getCommand() {
+				return "echo 'tail: unrecognized option' >&2; exit 2";
+			}
+		};
+
+		try {
+			subscription.start();
+			fail();
+		} catch (IOException e) {
+			assertEquals("the subscription on localhost has ended while starting", e.getMessage());
+			assertEquals("tail exited with 2: tail: unrecognized option\n", e.getCause().getMessage());
+		}
+		assertFalse(subscription.isActive());
+	}
+
+	@Test
+	public void start_timeout() throws Exception {
+		LogSubscription subscription = new LogSubscription(new LocalShell(),
+				Arrays.asList(new File(folder.getRoot(), "server.log").getPath()), "ERROR") {
+			@Override
+			protected String getCommand() {
+				return "cat > /dev/null";
+			}
+		};
+
+		try {
+			subscription.start();
+			fail();
+		} catch (IOException e) {
+			assertEquals("tail has not opened the files on localhost in 5000 ms", e.getMessage());
+		}
+		assertFalse(subscription.isActive());
+	}
+
+	private static File append(File file, String text) throws Exception {
+		FileWriter writer = new FileWriter(file, true);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ManagementClientTest {
+
+	private HttpServer server;
+
+	private List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+	private List<String> responses = Collections.synchronizedList(new LinkedList<String>());
+
+	private List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+	private volatile String authenticate;
+
+	@Before
+	public void setup() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/management", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				ByteArrayOutputStream request = new ByteArrayOutputStream();
+				int b;
+				while ((b = in.read()) >= 0) {
+					request.write(b);
+				}
+				requests.add(request.toString("UTF-8"));
+
+				String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+				authorizations.add(authorization);
+				if (authenticate != null && authorization == null) {
+					exchange.getResponseHeaders().add("WWW-Authenticate", authenticate);
+					exchange.sendResponseHeaders(401, -1);
+					exchange.close();
+					return;
+				}
+				String response = responses.size() > 1 ? responses.remove(0) : responses.get(0);
+				byte[] body = response.getBytes("UTF-8");
+				exchange.sendResponseHeaders(response.contains("\"success\"") ? 200 : 500, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void teardown() {
+		server.stop(0);
+	}
+
+	private ManagementClient createClient() throws Exception {
+		return new ManagementClient("127.0.0.1", server.getAddress().getPort(), null, null);
+	}
+
+	@Test
+	public void readAttribute() throws Exception {
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"running\"}");
+
+		assertEquals("running", createClient().readAttribute("server-state"));
+		assertEquals("{\"operation\":\"read-attribute\",\"name\":\"server-state\",\"address\":[]}",
+				requests.get(0));
+	}
+
+	@Test
+	public void reload() throws Exception {
+		responses.add("{\"outcome\" : \"success\"}");
+
+		createClient().reload();
+
+		assertEquals(Arrays.asList("{\"operation\":\"reload\",\"address\":[]}"), requests);
+	}
+
+	@Test
+	public void isRunning() throws Exception {
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"reload-required\"}");
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"running\"}");
+		ManagementClient client = createClient();
+
+		assertFalse(client.isRunning());
+		assertTrue(client.isRunning());
+	}
+
+	@Test
+	public void redeploy() throws Exception {
+		responses.add("{\"outcome\" : \"success\"}");
+
+		createClient().redeploy("example.war");
+
+		assertEquals("{\"operation\":\"redeploy\",\"address\":[{\"deployment\":\"example.war\"}]}",
+				requests.get(0));
+	}
+
+	@Test
+	public void execute_digest() throws Exception {
+		authenticate = "Digest realm=\"ManagementRealm\",domain=\"/management\",nonce=\"abc123\"," +
+				"opaque=\"00000000000000000000000000000000\",algorithm=MD5,qop=\"auth\"";
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"running\"}");
+		ManagementClient client = new ManagementClient("127.0.0.1", server.getAddress().getPort(), "admin",
+				"secret");
+
+		assertEquals("running", client.readAttribute("server-state"));
+		assertEquals("running", client.readAttribute("server-state"));
+
+		assertEquals(3, authorizations.size());
+		assertNull(authorizations.get(0));
+		assertDigest(authorizations.get(1), "abc123", "00000001");
+		assertDigest(authorizations.get(2), "abc123", "00000002");
+	}
+
+	@Test
+	public void execute_digestAuthInt() throws Exception {
+		String nonce = "Dk3cMsBiVdMNMTM4NTQ0ODc3MDA3NkSMqeg8dNBmKc2DGX5jpKQ=";
+		authenticate = "Digest realm=\"ManagementRealm\", domain=\"/management\", nonce=\"" + nonce + "\", " +
+				"opaque=\"00000000000000000000000000000000\", algorithm=MD5, qop=\"auth,auth-int\"";
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"running\"}");
+		ManagementClient client = new ManagementClient("127.0.0.1", server.getAddress().getPort(), "admin",
+				"secret");
+
+		assertEquals("running", client.readAttribute("server-state"));
+
+		assertEquals(2, authorizations.size());
+		assertDigest(authorizations.get(1), nonce, "00000001");
+	}
+
+	@Test
+	public void execute_basic() throws Exception {
+		authenticate = "Basic realm=\"ManagementRealm\"";
+		responses.add("{\"outcome\" : \"success\", \"result\" : \"running\"}");
+		ManagementClient client = new ManagementClient("127.0.0.1", server.getAddress().getPort(), "admin",
+				"secret");
+
+		assertEquals("running", client.readAttribute("server-state"));
+
+		assertEquals(Arrays.asList(null, "Basic YWRtaW46c2VjcmV0"), authorizations);
+	}
+
+	private static void assertDigest(String authorization, String nonce, String nc) throws Exception {
+		Matcher cnonce = Pattern.compile("cnonce=\"([0-9a-f]+)\"").matcher(authorization);
+		assertTrue(cnonce.find());
+		String ha1 = md5("admin:ManagementRealm:secret");
+		String ha2 = md5("POST:/management");
+		String response = md5(ha1 + ":" + nonce + ":" + nc + ":" + cnonce.group(1) + ":auth:" + ha2);
+		assertEquals("Digest username=\"admin\", realm=\"ManagementRealm\", nonce=\"" + nonce + "\", " +
+				"uri=\"/management\", qop=auth, nc=" + nc + ", cnonce=\"" + cnonce.group(1) + "\", " +
+				"response=\"" + response + "\", algorithm=MD5, opaque=\"00000000000000000000000000000000\"",
+				authorization);
+	}
+
+	private static String md5(String value) throws Exception {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"))) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	@Test
+	public void redeploy_failure() throws Exception {
+		responses.add("{\"outcome\" : \"failed\", \"failure-description\" : \"JBAS014807: Management resource not found\"}");
+
+		try {
+			createClient().redeploy("missing.war");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("JBAS014807: Management resource not found"));
+		}
+	}
+}
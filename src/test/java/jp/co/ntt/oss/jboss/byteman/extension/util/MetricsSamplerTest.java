@@ -0,0 +1,136 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MetricsSamplerTest {
+
+	@Mock
+	private RemoteShell remoteShell;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+	}
+
+	@Test
+	public void getCommand() {
+		MetricsSampler sampler = new MetricsSampler(remoteShell, "`cat /opt/jboss/log/jboss.pid`",
+				"/usr/java/bin/jstat", 1500, TimeUnit.MILLISECONDS, folder.getRoot(), "metrics");
+
+		assertEquals("PID=`cat /opt/jboss/log/jboss.pid`; " +
+				"if [ -z \"$PID\" ]; then echo 'process not found' >&2; exit 1; fi; " +
+				"echo \"SAMPLER $$ `getconf CLK_TCK` `getconf PAGESIZE`\"; " +
+				"trap 'kill `jobs -p` 2>/dev/null' EXIT; trap exit TERM; " +
+				"/usr/java/bin/jstat -gc $PID 1500 | sed -u 's/^/GC /' & " +
+				"/usr/java/bin/jstat -class $PID 1500 | sed -u 's/^/CLASS /' & " +
+				"while kill -0 $PID 2>/dev/null; do " +
+				"S=`cat /proc/$PID/stat` && set -- ${S##*) } && echo \"PROC ${12} ${13} ${18} ${22}\"; " +
+				"sleep 1.500; done", sampler.getCommand());
+	}
+
+	@Test
+	public void sample() throws Exception {
+		final MetricsSampler sampler = new MetricsSampler(remoteShell, "1234", "jstat", 1, TimeUnit.SECONDS,
+				folder.getRoot(), "metrics");
+		doAnswer(new Answer<CommandResult>() {
+			public CommandResult answer(InvocationOnMock invocation) throws Throwable {
+				OutputStream out = (OutputStream) invocation.getArguments()[2];
+				out.write("SAMPLER 999 100 4096\n".getBytes("UTF-8"));
+				out.write("GC  S0C    S1C    YGC     YGCT    GCT\n".getBytes("UTF-8"));
+				out.write("PROC 100 20 40 25600\n".getBytes("UTF-8"));
+				out.write("GC  512.0  512.0   3    0.015   0.015\n".getBytes("UTF-8"));
+				sampler.mark("scenario-1");
+				out.write("CLASS Loaded  Bytes  Unloaded  Bytes     Time\n".getBytes("UTF-8"));
+				out.write("CLASS  12000 24000.5 0 0.0 4.50\n".getBytes("UTF-8"));
+				out.write("PROC 110 30 42 25600\n".getBytes("UTF-8"));
+				return new CommandResult(0, "", "");
+			}
+		}).when(remoteShell).execute(anyString(), any(InputStream.class), any(OutputStream.class));
+
+		sampler.start();
+		sampler.stop();
+
+		List<String> gc = read("metrics-gc.csv");
+		assertEquals("timestamp,phase,S0C,S1C,YGC,YGCT,GCT", gc.get(0));
+		assertTrue(gc.get(1).matches("\\d+,,512\\.0,512\\.0,3,0\\.015,0\\.015"));
+		List<String> classes = read("metrics-class.csv");
+		assertEquals("timestamp,phase,Loaded,Bytes,Unloaded,Bytes,Time", classes.get(0));
+		assertTrue(classes.get(1).matches("\\d+,scenario-1,12000,24000\\.5,0,0\\.0,4\\.50"));
+		List<String> proc = read("metrics-proc.csv");
+		assertEquals("timestamp,phase,cpu_percent,user_ticks,system_ticks,threads,rss_kb", proc.get(0));
+		assertTrue(proc.get(1).matches("\\d+,,,100,20,40,102400"));
+		assertTrue(proc.get(2).matches("\\d+,scenario-1,[0-9.]*,110,30,42,102400"));
+	}
+
+	@Test(expected = IOException.class)
+	public void sample_noProcess() throws Exception {
+		MetricsSampler sampler = new MetricsSampler(remoteShell, "", "jstat", 1, TimeUnit.SECONDS,
+				folder.getRoot(), "metrics");
+		doAnswer(new Answer<CommandResult>() {
+			public CommandResult answer(InvocationOnMock invocation) throws Throwable {
+				return new CommandResult(1, "", "process not found\n");
+			}
+		}).when(remoteShell).execute(anyString(), any(InputStream.class), any(OutputStream.class));
+
+		sampler.start();
+		sampler.stop();
+	}
+
+	private List<String> read(String name) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(new File(folder.getRoot(), name)));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Nippon Telegraph and Telephone Corporation
+ */
+
+package jp.co.ntt.oss.jboss.byteman.extension.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.ntt.oss.jboss.byteman.extension.TestUtil;
+
+import org.junit.Test;
+
+import com.jcraft.jsch.Session;
+
+public class RemoteShellTest {
+
+	@Test
+	public void createSession() throws Exception {
+		RemoteShell shell = new RemoteShell("192.168.1.11", 2222, "me", "mypass");
+
+		Session session = shell.createSession();
+
+		assertEquals("192.168.1.11", session.getHost());
+		assertEquals(2222, session.getPort());
+		assertEquals("me", session.getUserName());
+		assertEquals("yes", session.getConfig("StrictHostKeyChecking"));
+		assertFalse(session.isConnected());
+	}
+
+	@Test
+	public void setHostKeyChecking() throws Exception {
+		RemoteShell shell = new RemoteShell("192.168.1.11", 22, "me", "mypass");
+
+		shell.setHostKeyChecking("no");
+
+		assertEquals("no", shell.createSession().getConfig("StrictHostKeyChecking"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setHostKeyChecking_unknown() throws Exception {
+		new RemoteShell("192.168.1.11", 22, "me", "mypass").setHostKeyChecking("ask");
+	}
+
+	@Test
+	public void open_notPooled() throws Exception {
+		RemoteShell shell = new RemoteShell("192.168.1.11", 22, "me", "mypass", false);
+
+		assertFalse(shell.open());
+		assertNull(TestUtil.getValue(shell, "session"));
+	}
+
+	@Test
+	public void acquireChannel() throws Exception {
+		RemoteShell shell = new RemoteShell("192.168.1.11", 22, "me", "mypass");
+		shell.setChannelTimeout(100, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < RemoteShell.MAX_CHANNELS; i++) {
+			shell.acquireChannel();
+		}
+
+		try {
+			shell.acquireChannel();
+			fail();
+		} catch (IOException e) {
+			assertEquals("all 8 channels of the session to me@192.168.1.11:22 have been busy for 100 ms",
+					e.getMessage());
+		}
+		shell.releaseChannel();
+		shell.acquireChannel();
+	}
+
+	@Test
+	public void acquireChannel_notPooled() throws Exception {
+		RemoteShell shell = new RemoteShell("192.168.1.11", 22, "me", "mypass", false);
+		shell.setChannelTimeout(100, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i <= RemoteShell.MAX_CHANNELS; i++) {
+			shell.acquireChannel();
+		}
+	}
+}